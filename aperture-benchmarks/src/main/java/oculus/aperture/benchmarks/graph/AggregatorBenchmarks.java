@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.graph;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import oculus.aperture.graph.aggregation.OculusAggregator;
+import oculus.aperture.graph.aggregation.impl.KSnapAggregator;
+import oculus.aperture.graph.aggregation.impl.LouvainAggregator;
+import oculus.aperture.graph.aggregation.impl.MarkovAggregator;
+import oculus.aperture.graph.aggregation.impl.ModularityAggregator;
+import oculus.aperture.spi.common.Node;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Throughput of each aggregator over the generated graphs. Run with 
+ * <code>-prof gc</code> for allocation rates. The modularity of the last 
+ * clustering of each trial is printed when the trial ends.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AggregatorBenchmarks {
+	
+	/**
+	 * Keeps the last clustering of a trial, to report its quality.
+	 */
+	@State(Scope.Benchmark)
+	public static class Quality {
+		
+		private volatile Collection<Set<Node>> clusterSet;
+		private volatile GraphState graph;
+		
+		
+		
+		
+		Collection<Set<Node>> record(GraphState graph, OculusAggregator aggregator) {
+			this.graph = graph;
+			this.clusterSet = aggregator.getClusterSet();
+			return clusterSet;
+		}
+		
+		
+		
+		
+		@TearDown(Level.Trial)
+		public void report() {
+			if (clusterSet != null) {
+				System.out.println();
+				System.out.println(String.format(
+					"%s graph of %d nodes and %d links: %d clusters, modularity %.4f", 
+					graph.model, 
+					graph.nodeMap.size(), 
+					graph.linkMap.size(), 
+					clusterSet.size(), 
+					Modularity.of(clusterSet, graph.linkMap)
+				));
+			}
+		}
+	}
+	
+	
+	
+	
+	private static Collection<Set<Node>> run(OculusAggregator aggregator, GraphState graph, Quality quality) {
+		aggregator.setGraph(graph.nodeMap, graph.linkMap);
+		aggregator.run();
+		return quality.record(graph, aggregator);
+	}
+	
+	
+	
+	
+	@Benchmark
+	public Collection<Set<Node>> louvain(GraphState graph, Quality quality) {
+		LouvainAggregator aggregator = new LouvainAggregator(1.0);
+		aggregator.setSeed(graph.seed);
+		return run(aggregator, graph, quality);
+	}
+	
+	
+	
+	
+	@Benchmark
+	public Collection<Set<Node>> markov(GraphState graph, Quality quality) {
+		return run(new MarkovAggregator(), graph, quality);
+	}
+	
+	
+	
+	
+	@Benchmark
+	public Collection<Set<Node>> modularity(GraphState graph, Quality quality) {
+		return run(new ModularityAggregator(), graph, quality);
+	}
+	
+	
+	
+	
+	@Benchmark
+	public Collection<Set<Node>> ksnap(GraphState graph, Quality quality) {
+		return run(new KSnapAggregator(25), graph, quality);
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.graph;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import oculus.aperture.graph.aggregation.impl.BasicClusterConverter;
+import oculus.aperture.graph.aggregation.impl.LouvainAggregator;
+import oculus.aperture.graph.aggregation.util.AggregationUtilities;
+import oculus.aperture.graph.aggregation.util.Pair;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.common.data.QuantizedRange;
+import oculus.aperture.spi.graph.GraphAggregationResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Throughput of the steps around aggregation: converting a clustering into
+ * an aggregate graph, and splitting a graph into its connected subgraphs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConversionBenchmarks {
+	
+	/**
+	 * A Louvain clustering of the graph to convert, computed once per trial.
+	 */
+	@State(Scope.Benchmark)
+	public static class Clustering {
+		
+		Collection<Set<Node>> clusterSet;
+		Map<String, QuantizedRange> nodeWeightRanges;
+		
+		
+		
+		
+		@Setup(Level.Trial)
+		public void cluster(GraphState graph) {
+			LouvainAggregator aggregator = new LouvainAggregator(1.0);
+			aggregator.setSeed(graph.seed);
+			aggregator.setGraph(graph.nodeMap, graph.linkMap);
+			aggregator.run();
+			
+			clusterSet = aggregator.getClusterSet();
+			nodeWeightRanges = AggregationUtilities.updateNodeWeightRanges(null, graph.nodeMap.values());
+		}
+	}
+	
+	
+	
+	
+	@Benchmark
+	public GraphAggregationResult convertClusterSet(GraphState graph, Clustering clustering) {
+		BasicClusterConverter converter = new BasicClusterConverter(
+			graph.nodeMap, 
+			graph.linkMap, 
+			clustering.nodeWeightRanges
+		);
+		
+		return converter.convertClusterSet(clustering.clusterSet);
+	}
+	
+	
+	
+	
+	@Benchmark
+	public Collection<Pair<Map<String, Node>, Map<String, Link>>> findSubgraphs(GraphState graph) {
+		return AggregationUtilities.findSubgraphs(graph.nodeMap, graph.linkMap);
+	}
+}
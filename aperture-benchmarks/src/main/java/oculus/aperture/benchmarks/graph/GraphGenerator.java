@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import oculus.aperture.common.BasicLink;
+import oculus.aperture.common.BasicNode;
+import oculus.aperture.graph.aggregation.util.Pair;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+
+
+/**
+ * Seeded generators for synthetic benchmark graphs. The same seed always 
+ * produces the same graph. Nodes are spread over three types so that 
+ * attribute based aggregators have something to work with.
+ */
+public class GraphGenerator {
+	
+	private static final int NODE_TYPES = 3;
+	
+	private final Random random;
+	private final Map<String, Node> nodeMap = new HashMap<String, Node>();
+	private final Map<String, Link> linkMap = new HashMap<String, Link>();
+	private final Set<Long> pairs = new HashSet<Long>();
+	
+	
+	
+	
+	private GraphGenerator(int size, long seed) {
+		this.random = new Random(seed);
+		
+		for (int i = 0; i < size; i++) {
+			Node node = new BasicNode(nodeId(i), "type" + (i % NODE_TYPES));
+			nodeMap.put(node.getId(), node);
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * Creates an Erdos-Renyi graph, with links between uniformly random pairs 
+	 * of nodes.
+	 */
+	public static Pair<Map<String, Node>, Map<String, Link>> erdosRenyi(int size, double averageDegree, long seed) {
+		GraphGenerator generator = new GraphGenerator(size, seed);
+		
+		long linkCount = Math.round(size * averageDegree / 2);
+		while (generator.linkMap.size() < linkCount) {
+			generator.link(generator.random.nextInt(size), generator.random.nextInt(size));
+		}
+		
+		return generator.result();
+	}
+	
+	
+	
+	
+	/**
+	 * Creates a Barabasi-Albert graph, where each new node links to a number of 
+	 * existing nodes picked in proportion to their degree.
+	 */
+	public static Pair<Map<String, Node>, Map<String, Link>> barabasiAlbert(int size, int linksPerNode, long seed) {
+		GraphGenerator generator = new GraphGenerator(size, seed);
+		
+		// every link endpoint, so that a uniform pick is proportional to degree
+		List<Integer> endpoints = new ArrayList<Integer>(2 * size * linksPerNode);
+		
+		// start from a small clique
+		int initial = Math.min(size, linksPerNode + 1);
+		for (int i = 0; i < initial; i++) {
+			for (int j = i + 1; j < initial; j++) {
+				generator.link(i, j);
+				endpoints.add(i);
+				endpoints.add(j);
+			}
+		}
+		
+		for (int i = initial; i < size; i++) {
+			int added = 0;
+			int attempts = 0;
+			while (added < linksPerNode && attempts++ < 10 * linksPerNode) {
+				int target = endpoints.get(generator.random.nextInt(endpoints.size()));
+				if (generator.link(i, target)) {
+					endpoints.add(target);
+					added++;
+				}
+			}
+			for (int k = 0; k < added; k++) {
+				endpoints.add(i);
+			}
+		}
+		
+		return generator.result();
+	}
+	
+	
+	
+	
+	/**
+	 * Creates a graph with a planted community structure: nodes are split into 
+	 * equal groups, with the given average number of links within and between 
+	 * groups per node.
+	 */
+	public static Pair<Map<String, Node>, Map<String, Link>> plantedPartition(
+		int size, 
+		int groups, 
+		double averageInnerDegree, 
+		double averageOuterDegree, 
+		long seed
+	) {
+		GraphGenerator generator = new GraphGenerator(size, seed);
+		int groupSize = Math.max(2, size / groups);
+		
+		long innerLinks = Math.round(size * averageInnerDegree / 2);
+		long outerLinks = Math.round(size * averageOuterDegree / 2);
+		
+		while (generator.linkMap.size() < innerLinks) {
+			int source = generator.random.nextInt(size);
+			int start = (source / groupSize) * groupSize;
+			int end = Math.min(size, start + groupSize);
+			generator.link(source, start + generator.random.nextInt(end - start));
+		}
+		
+		while (generator.linkMap.size() < innerLinks + outerLinks) {
+			int source = generator.random.nextInt(size);
+			int target = generator.random.nextInt(size);
+			if (source / groupSize != target / groupSize) {
+				generator.link(source, target);
+			}
+		}
+		
+		return generator.result();
+	}
+	
+	
+	
+	
+	/**
+	 * Creates a square grid, with links between horizontal and vertical 
+	 * neighbours. The last row may be partial.
+	 */
+	public static Pair<Map<String, Node>, Map<String, Link>> grid(int size, long seed) {
+		GraphGenerator generator = new GraphGenerator(size, seed);
+		int side = (int)Math.ceil(Math.sqrt(size));
+		
+		for (int i = 0; i < size; i++) {
+			if ((i + 1) % side != 0 && i + 1 < size) {
+				generator.link(i, i + 1);
+			}
+			if (i + side < size) {
+				generator.link(i, i + side);
+			}
+		}
+		
+		return generator.result();
+	}
+	
+	
+	
+	
+	/**
+	 * Creates a random recursive tree, where each new node links to a 
+	 * uniformly random existing node.
+	 */
+	public static Pair<Map<String, Node>, Map<String, Link>> tree(int size, long seed) {
+		GraphGenerator generator = new GraphGenerator(size, seed);
+		
+		for (int i = 1; i < size; i++) {
+			generator.link(i, generator.random.nextInt(i));
+		}
+		
+		return generator.result();
+	}
+	
+	
+	
+	
+	/**
+	 * Creates many small disconnected components of random sizes, each a 
+	 * random tree with a few extra links.
+	 */
+	public static Pair<Map<String, Node>, Map<String, Link>> components(int size, int averageSize, long seed) {
+		GraphGenerator generator = new GraphGenerator(size, seed);
+		
+		int start = 0;
+		while (start < size) {
+			int end = Math.min(size, start + 1 + generator.random.nextInt(2 * averageSize));
+			
+			for (int i = start + 1; i < end; i++) {
+				generator.link(i, start + generator.random.nextInt(i - start));
+			}
+			for (int k = 0; k < (end - start) / 4; k++) {
+				generator.link(start + generator.random.nextInt(end - start), start + generator.random.nextInt(end - start));
+			}
+			start = end;
+		}
+		
+		return generator.result();
+	}
+	
+	
+	
+	
+	/**
+	 * Adds a link between two nodes, unless it would be a loop or a duplicate.
+	 */
+	private boolean link(int source, int target) {
+		if (source == target) {
+			return false;
+		}
+		
+		long pair = ((long)Math.min(source, target) << 32) | Math.max(source, target);
+		if (!pairs.add(pair)) {
+			return false;
+		}
+		
+		BasicLink link = new BasicLink("link" + linkMap.size(), nodeId(source), nodeId(target));
+		link.setWeight(1.0);
+		link.setNumMembers(1);
+		linkMap.put(link.getId(), link);
+		
+		nodeMap.get(link.getSourceId()).addIncidentLink(link);
+		nodeMap.get(link.getTargetId()).addIncidentLink(link);
+		return true;
+	}
+	
+	
+	
+	
+	private Pair<Map<String, Node>, Map<String, Link>> result() {
+		return new Pair<Map<String, Node>, Map<String, Link>>(nodeMap, linkMap);
+	}
+	
+	
+	
+	
+	private static String nodeId(int i) {
+		return "node" + i;
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.graph;
+
+import java.util.Map;
+
+import oculus.aperture.graph.aggregation.util.Pair;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * The input graph of a benchmark, generated once per trial from the model, 
+ * size and seed parameters.
+ */
+@State(Scope.Benchmark)
+public class GraphState {
+	
+	public enum Model {
+		ERDOS_RENYI,
+		BARABASI_ALBERT,
+		PLANTED_PARTITION
+	}
+	
+	@Param({"ERDOS_RENYI", "BARABASI_ALBERT", "PLANTED_PARTITION"})
+	public Model model;
+	
+	@Param({"1000", "10000", "100000"})
+	public int size;
+	
+	@Param({"42"})
+	public long seed;
+	
+	public Map<String, Node> nodeMap;
+	public Map<String, Link> linkMap;
+	
+	
+	
+	
+	@Setup(Level.Trial)
+	public void generate() {
+		Pair<Map<String, Node>, Map<String, Link>> graph;
+		
+		switch (model) {
+		case BARABASI_ALBERT:
+			graph = GraphGenerator.barabasiAlbert(size, 4, seed);
+			break;
+			
+		case PLANTED_PARTITION:
+			graph = GraphGenerator.plantedPartition(size, Math.max(2, size / 100), 7.0, 1.0, seed);
+			break;
+			
+		default:
+			graph = GraphGenerator.erdosRenyi(size, 8.0, seed);
+			break;
+		}
+		
+		nodeMap = graph.getFirst();
+		linkMap = graph.getSecond();
+	}
+}
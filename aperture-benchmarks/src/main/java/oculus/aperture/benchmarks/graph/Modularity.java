@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.graph;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+
+
+/**
+ * Measures the quality of a clustering, so that a faster aggregator can be 
+ * checked for worse results.
+ */
+public class Modularity {
+	
+	
+	/**
+	 * Computes the Newman modularity of a set of clusters over an unweighted 
+	 * graph. Nodes left out of every cluster count as clusters of their own.
+	 */
+	public static double of(Collection<Set<Node>> clusterSet, Map<String, Link> linkMap) {
+		
+		Map<String, Integer> clusters = new HashMap<String, Integer>();
+		int index = 0;
+		for (Set<Node> cluster : clusterSet) {
+			for (Node node : cluster) {
+				clusters.put(node.getId(), index);
+			}
+			index++;
+		}
+		
+		double[] clusterDegrees = new double[index];
+		Map<String, Double> otherDegrees = new HashMap<String, Double>();
+		double inner = 0;
+		double total = 0;
+		
+		for (Link link : linkMap.values()) {
+			Integer source = clusters.get(link.getSourceId());
+			Integer target = clusters.get(link.getTargetId());
+			
+			addDegree(source, link.getSourceId(), clusterDegrees, otherDegrees);
+			addDegree(target, link.getTargetId(), clusterDegrees, otherDegrees);
+			
+			if (source != null && source.equals(target)) {
+				inner++;
+			}
+			total++;
+		}
+		
+		if (total == 0) {
+			return 0;
+		}
+		
+		double expected = 0;
+		for (double degree : clusterDegrees) {
+			expected += degree * degree;
+		}
+		for (double degree : otherDegrees.values()) {
+			expected += degree * degree;
+		}
+		
+		return inner / total - expected / (4 * total * total);
+	}
+	
+	
+	
+	
+	private static void addDegree(Integer cluster, String nodeId, double[] clusterDegrees, Map<String, Double> otherDegrees) {
+		if (cluster != null) {
+			clusterDegrees[cluster]++;
+		} else {
+			Double degree = otherDegrees.get(nodeId);
+			otherDegrees.put(nodeId, degree == null? 1.0 : degree + 1.0);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import oculus.aperture.common.BasicNode;
+import oculus.aperture.common.JSONProperties;
+import oculus.aperture.layout.impl.BasicTagLayoutOptions;
+import oculus.aperture.layout.tag.TrellisDeconfliction;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.options.TagLayoutOptions;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time to deconflict tags over a view full of nodes at random positions and 
+ * weights, for each of the alignment strategies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeconflictionBenchmarks {
+	
+	/**
+	 * The tagged nodes, generated once per trial.
+	 */
+	@State(Scope.Benchmark)
+	public static class TagState {
+		
+		@Param({"any", "topAny", "middleRight"})
+		public String alignments;
+		
+		@Param({"100", "1000", "10000", "50000"})
+		public int size;
+		
+		@Param({"42"})
+		public long seed;
+		
+		public List<Node> nodes;
+		public TagLayoutOptions options;
+		
+		
+		
+		
+		@Setup(Level.Trial)
+		public void generate() throws JSONException {
+			Random random = new Random(seed);
+			
+			nodes = new ArrayList<Node>(size);
+			for (int i = 0; i < size; i++) {
+				BasicNode node = new BasicNode("node" + i, random.nextInt(1600), random.nextInt(1200), 10, 10);
+				node.setWeight(random.nextDouble());
+				nodes.add(node);
+			}
+			
+			options = new BasicTagLayoutOptions(
+				TagLayoutOptions.TAG, 
+				new JSONProperties("{\"width\":1600,\"height\":1200}"), 
+				new JSONProperties("{\"alignments\":\"" + alignments + "\"}")
+			);
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * A deconfliction processor is used by a single thread, and reused 
+	 * between deconflictions as the tag service does.
+	 */
+	@State(Scope.Thread)
+	public static class Processor {
+		public final TrellisDeconfliction deconfliction = new TrellisDeconfliction();
+	}
+	
+	
+	
+	
+	@Benchmark
+	public int[] deconflict(TagState tags, Processor processor) {
+		return processor.deconfliction.deconflict(tags.options, tags.nodes, null);
+	}
+}
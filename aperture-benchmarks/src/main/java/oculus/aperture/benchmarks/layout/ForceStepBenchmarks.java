@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.layout;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import oculus.aperture.layout.ffd.FFDLayouter;
+import oculus.aperture.layout.ffd.QuadTree;
+import oculus.aperture.spi.common.Node;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time for a single iteration of the force directed layout, and for the 
+ * quad tree build it starts with, over the generated graphs with nodes at 
+ * random positions. Run with <code>-prof gc</code> for the allocations of 
+ * each iteration, which should be close to none.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ForceStepBenchmarks {
+	
+	/**
+	 * The positions and adjacency arrays of the layout, and the buffers it 
+	 * reuses between iterations.
+	 */
+	@State(Scope.Benchmark)
+	public static class StepState {
+		
+		public int nodeCount;
+		public int[] neighborOffsets;
+		public int[] neighbors;
+		public BitSet fixed;
+		public double[] xs;
+		public double[] ys;
+		public double[] startXs;
+		public double[] startYs;
+		public double[] dx;
+		public double[] dy;
+		public double k;
+		
+		public final FFDLayouter layouter = new FFDLayouter();
+		public final QuadTree qt = new QuadTree();
+		
+		
+		
+		
+		@Setup(Level.Trial)
+		public void index(LayoutGraphState graph) {
+			List<Node> nodes = graph.nodes;
+			nodeCount = nodes.size();
+			
+			Map<String, Integer> indices = new HashMap<String, Integer>();
+			for (int i = 0; i < nodeCount; i++) {
+				indices.put(nodes.get(i).getId(), i);
+			}
+			
+			int[][] adjacency = FFDLayouter.createAdjacency(indices, nodeCount, graph.links);
+			neighborOffsets = adjacency[0];
+			neighbors = adjacency[1];
+			
+			fixed = new BitSet(nodeCount);
+			xs = new double[nodeCount];
+			ys = new double[nodeCount];
+			dx = new double[nodeCount];
+			dy = new double[nodeCount];
+			k = 1.0 / Math.sqrt(nodeCount);
+			
+			Random random = new Random(graph.seed);
+			startXs = new double[nodeCount];
+			startYs = new double[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				startXs[i] = random.nextDouble();
+				startYs[i] = random.nextDouble();
+			}
+		}
+		
+		
+		
+		
+		/**
+		 * Puts the nodes back where they were scattered, since each step 
+		 * moves them, so that every step starts from the same unsettled state.
+		 */
+		@Setup(Level.Invocation)
+		public void scatter() {
+			System.arraycopy(startXs, 0, xs, 0, nodeCount);
+			System.arraycopy(startYs, 0, ys, 0, nodeCount);
+		}
+	}
+	
+	
+	
+	
+	@Benchmark
+	public int quadTree(StepState state) {
+		state.qt.build(state.xs, state.ys, state.nodeCount, 0, 0, 1, 1);
+		return state.qt.getCellCount();
+	}
+	
+	
+	
+	
+	@Benchmark
+	public double forceStep(StepState state) throws InterruptedException {
+		return state.layouter.doForceLayoutStep(
+			state.nodeCount, 
+			state.neighborOffsets, 
+			state.neighbors, 
+			state.fixed, 
+			null, 
+			state.xs, 
+			state.ys, 
+			state.dx, 
+			state.dy, 
+			state.qt, 
+			state.k, 
+			1.0, 
+			0.1, 
+			null
+		);
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import oculus.aperture.common.JSONProperties;
+import oculus.aperture.graph.aggregation.util.Pair;
+import oculus.aperture.layout.LayoutGraph;
+import oculus.aperture.layout.jgraph.JGraphFactory;
+import oculus.aperture.spi.common.Extents;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.options.GraphLayoutOptions;
+import oculus.aperture.spi.layout.options.VerticalTreeLayoutOptions;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time for each of the mxGraph based layouts over the generated graphs. 
+ * These are only used up to aperture.layout.jgraph.limits.numlinks, 5000 
+ * links by default, so the graphs are smaller than for the force directed 
+ * benchmarks.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JGraphBenchmarks {
+	
+	/**
+	 * The input graph, which is laid out from the origin each time.
+	 */
+	@State(Scope.Benchmark)
+	public static class SmallGraphState {
+		
+		@Param({"GRID", "TREE", "SCALE_FREE", "COMPONENTS"})
+		public LayoutGraphState.Model model;
+		
+		@Param({"100", "1000", "2500"})
+		public int size;
+		
+		@Param({"42"})
+		public long seed;
+		
+		public List<Node> nodes;
+		public List<Link> links;
+		
+		
+		
+		
+		@Setup(Level.Trial)
+		public void generate() {
+			Pair<Map<String, Node>, Map<String, Link>> graph = LayoutGraphState.generate(model, size, seed);
+			
+			nodes = new ArrayList<Node>(graph.getFirst().values());
+			links = new ArrayList<Link>(graph.getSecond().values());
+		}
+		
+		
+		
+		
+		@Setup(Level.Invocation)
+		public void reset() {
+			for (Node node : nodes) {
+				node.setX(0);
+				node.setY(0);
+			}
+		}
+	}
+	
+	
+	
+	
+	private static final JGraphFactory factory = new JGraphFactory();
+	
+	
+	
+	
+	private static Extents run(String layoutType, SmallGraphState graph, LayoutQuality quality) throws JSONException {
+		LayoutGraph layout = factory.getGraph(layoutType);
+		layout.setGraph(graph.nodes, graph.links);
+		
+		Extents extents = layout.layout(factory.parseOptions(
+			layoutType, 
+			new JSONProperties("{\"width\":800,\"height\":600}"), 
+			new JSONProperties("{\"seed\":" + graph.seed + "}")
+		));
+		
+		quality.record(layoutType + " " + graph.model, graph.nodes, graph.links);
+		return extents;
+	}
+	
+	
+	
+	
+	@Benchmark
+	public Extents organic(SmallGraphState graph, LayoutQuality quality) throws JSONException {
+		return run(GraphLayoutOptions.ORGANIC, graph, quality);
+	}
+	
+	
+	
+	
+	@Benchmark
+	public Extents circle(SmallGraphState graph, LayoutQuality quality) throws JSONException {
+		return run(GraphLayoutOptions.CIRCLE, graph, quality);
+	}
+	
+	
+	
+	
+	@Benchmark
+	public Extents tree(SmallGraphState graph, LayoutQuality quality) throws JSONException {
+		return run(VerticalTreeLayoutOptions.VERTICAL_TREE, graph, quality);
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.layout;
+
+import java.util.concurrent.TimeUnit;
+
+import oculus.aperture.layout.ffd.FFDLayouter;
+import oculus.aperture.layout.ffd.FFDMultigraphLayouter;
+import oculus.aperture.layout.ffd.MultilevelLayouter;
+import oculus.aperture.layout.ffd.NodesPositionState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Time for each force directed layout to converge over the generated 
+ * graphs, from every node at the origin. Run with <code>-prof gc</code> 
+ * for allocations. Each layout measures itself, so that the stress and 
+ * iterations of the last layout of each trial can be printed when the 
+ * trial ends.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LayoutBenchmarks {
+	
+	
+	/**
+	 * A single layout of the whole graph, with all components in one space.
+	 */
+	@Benchmark
+	public NodesPositionState ffd(LayoutGraphState graph, LayoutQuality quality) throws Exception {
+		FFDLayouter layouter = new FFDLayouter();
+		layouter.setSeed(graph.seed);
+		layouter.setMeasured(true);
+		
+		NodesPositionState nps = layouter.determineLayout(graph.nodes, graph.links);
+		quality.record("ffd " + graph.model, graph.nodes, graph.links, nps);
+		return nps;
+	}
+	
+	
+	
+	
+	@Benchmark
+	public NodesPositionState multigraph(LayoutGraphState graph, LayoutQuality quality) throws Exception {
+		return run(new FFDMultigraphLayouter(), "multigraph", graph, quality);
+	}
+	
+	
+	
+	
+	@Benchmark
+	public NodesPositionState multilevel(LayoutGraphState graph, LayoutQuality quality) throws Exception {
+		return run(new FFDMultigraphLayouter(new MultilevelLayouter()), "multilevel", graph, quality);
+	}
+	
+	
+	
+	
+	private static NodesPositionState run(FFDMultigraphLayouter layouter, String name, LayoutGraphState graph, LayoutQuality quality) throws Exception {
+		layouter.setSeed(graph.seed);
+		layouter.setMeasured(true);
+		
+		NodesPositionState nps = layouter.determineLayout(graph.nodes, graph.links);
+		quality.record(name + " " + graph.model, graph.nodes, graph.links, nps);
+		return nps;
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import oculus.aperture.benchmarks.graph.GraphGenerator;
+import oculus.aperture.graph.aggregation.util.Pair;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * The input graph of a layout benchmark, generated once per trial from the 
+ * model, size and seed parameters. Every node starts each layout at the 
+ * origin.
+ */
+@State(Scope.Benchmark)
+public class LayoutGraphState {
+	
+	public enum Model {
+		GRID,
+		TREE,
+		SCALE_FREE,
+		COMPONENTS
+	}
+	
+	@Param({"GRID", "TREE", "SCALE_FREE", "COMPONENTS"})
+	public Model model;
+	
+	@Param({"100", "1000", "10000", "50000"})
+	public int size;
+	
+	@Param({"42"})
+	public long seed;
+	
+	public List<Node> nodes;
+	public List<Link> links;
+	
+	
+	
+	
+	@Setup(Level.Trial)
+	public void generate() {
+		Pair<Map<String, Node>, Map<String, Link>> graph = generate(model, size, seed);
+		
+		nodes = new ArrayList<Node>(graph.getFirst().values());
+		links = new ArrayList<Link>(graph.getSecond().values());
+	}
+	
+	
+	
+	
+	@Setup(Level.Invocation)
+	public void reset() {
+		for (Node node : nodes) {
+			node.setX(0);
+			node.setY(0);
+		}
+	}
+	
+	
+	
+	
+	static Pair<Map<String, Node>, Map<String, Link>> generate(Model model, int size, long seed) {
+		switch (model) {
+		case TREE:
+			return GraphGenerator.tree(size, seed);
+			
+		case SCALE_FREE:
+			return GraphGenerator.barabasiAlbert(size, 2, seed);
+			
+		case COMPONENTS:
+			return GraphGenerator.components(size, 10, seed);
+			
+		default:
+			return GraphGenerator.grid(size, seed);
+		}
+	}
+}
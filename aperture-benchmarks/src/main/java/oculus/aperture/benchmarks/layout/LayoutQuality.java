@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.benchmarks.layout;
+
+import java.awt.geom.Point2D;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import oculus.aperture.layout.ffd.LayoutMeasures;
+import oculus.aperture.layout.ffd.NodesPositionState;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.LayoutStatistics;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * Keeps the last layout of a trial, to report its quality when the trial 
+ * ends: the stress of the final positions, and the iterations to converge 
+ * for layouts which report them.
+ */
+@State(Scope.Benchmark)
+public class LayoutQuality {
+	
+	private volatile String description;
+	private volatile List<Node> nodes;
+	private volatile Collection<Link> links;
+	private volatile NodesPositionState positions;
+	
+	
+	
+	
+	/**
+	 * Records a layout which leaves its results in the nodes.
+	 */
+	void record(String description, List<Node> nodes, Collection<Link> links) {
+		record(description, nodes, links, null);
+	}
+	
+	
+	
+	
+	/**
+	 * Records a layout with exact positions, since the nodes only hold them 
+	 * rounded to integers.
+	 */
+	void record(String description, List<Node> nodes, Collection<Link> links, NodesPositionState positions) {
+		this.description = description;
+		this.nodes = nodes;
+		this.links = links;
+		this.positions = positions;
+	}
+	
+	
+	
+	
+	@TearDown(Level.Trial)
+	public void report() {
+		if (nodes != null) {
+			LayoutStatistics statistics = null;
+			if (positions != null) {
+				for (Node node : nodes) {
+					Point2D position = positions.getPositionForId(node.getId());
+					node.setX(position.getX());
+					node.setY(position.getY());
+				}
+				statistics = positions.getStatistics();
+			}
+			
+			// as the layout measured itself, or else from where it left the nodes
+			double stress = statistics != null? 
+				statistics.getStress() : LayoutMeasures.getStress(nodes, links, new Random(0));
+			
+			System.out.println();
+			System.out.println(String.format(
+				"%s graph of %d nodes and %d links: stress %.4f%s", 
+				description, 
+				nodes.size(), 
+				links.size(), 
+				stress,
+				statistics != null? String.format(", %d iterations", statistics.getIterations()) : ""
+			));
+		}
+	}
+}
@@ -188,6 +188,14 @@ aperture.layout = (function(namespace) {
 	 *  The ideal minimum spacing between nodes
 	 * @param {Number} [options.linkLength]
 	 *  The ideal minimum length of a given link in the layout
+	 * @param {Boolean} [options.hints.incremental]
+	 *  If true, refines the layout from the x and y the nodes arrive with, rather than
+	 *  laying them out again from scratch.
+	 * @param {Array} [options.hints.positioned]
+	 *  The ids of the nodes which already have a position in an incremental layout, if not
+	 *  all of them. The rest are new, and placed near their positioned neighbours.
+	 * @param {Boolean} [options.hints.statistics]
+	 *  If true, measures the stress and edge crossings of the layout, returned as its statistics.
 	 * @param {Function} callback
 	 *  The callback for handling the response from the layout service.
 	 *@returns
@@ -292,6 +300,10 @@ aperture.layout = (function(namespace) {
 	 *  is thus flagged with visible = false. This option is only useful when the caller
 	 *  uses deconfliction to find the optimal position for annotations but still wishes
 	 *  to always display all of them.
+	 * @param {String} [options.layoutToken]
+	 *  Identifies a series of tag layouts of the same nodes, such as the steps of a pan
+	 *  or zoom. Annotations of nodes which have not moved keep their placement from the
+	 *  last layout in the series wherever they still can, rather than jumping around.
 	 *
 	 * @param {Function} callback
 	 *  The callback for handling the response from the layout service.
@@ -24,9 +24,11 @@
  */
 package oculus.aperture.graph.aggregation.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -66,7 +68,10 @@ public class BasicClusterConverter implements ClusterConverter {
 	) {
 		// Create new hash map of clustered nodes
 		final Map<String, Node> aggregatedNodes = new HashMap<String, Node>(clusterSet.size());
-		final Map<String, Set<Node>> aggregatedSets = new HashMap<String, Set<Node>>(clusterSet.size());
+		
+		// the id of each cluster node, and the index of the cluster of each member node
+		final List<String> clusterIds = new ArrayList<String>(clusterSet.size());
+		final Map<String, Integer> clusterIndices = new HashMap<String, Integer>(nodeMap.size());
 		
 		for (Set<Node> set : clusterSet) {
 			
@@ -91,65 +96,61 @@ public class BasicClusterConverter implements ClusterConverter {
 				
 				int size = nodes.size();
 				if (size > 0) {
+					Node clusterNode;
 					if (size == 1) {
-						Node node = nodes.iterator().next();
-						aggregatedNodes.put(node.getId(), node);
-						aggregatedSets.put(node.getId(), nodes);
+						clusterNode = nodes.iterator().next();
 					} else {
-						final BasicAggregateNode aggr= BasicAggregateNode.fromMembers(
+						clusterNode = BasicAggregateNode.fromMembers(
 							type, 
 							nodes, 
 							weightRange, 
 							(anonymizeIDs) ? UUID.randomUUID().toString() : null
 						);
-						
-						aggregatedNodes.put(aggr.getId(), aggr);
-						aggregatedSets.put(aggr.getId(), nodes);
+					}
+					
+					aggregatedNodes.put(clusterNode.getId(), clusterNode);
+					
+					Integer index = clusterIds.size();
+					clusterIds.add(clusterNode.getId());
+					for (Node node : nodes) {
+						if (!clusterIndices.containsKey(node.getId())) {
+							clusterIndices.put(node.getId(), index);
+						}
 					}
 				}
 			}
 		}
 		
-		// create cluster node map
-		Map<String, String> clusterNodeMap = new HashMap<String, String>();
+		// nodes left out of every cluster stand for themselves
 		for (Node node : nodeMap.values()) {
-			boolean isAggregated = false;
-			for (Entry<String, Set<Node>> entry : aggregatedSets.entrySet()) {
-				if (entry.getValue().contains(node)) {
-					clusterNodeMap.put(node.getId(), entry.getKey());
-					isAggregated = true;
-					break;
-				} 
-			}
-			
-			if (isAggregated) {
+			if (clusterIndices.containsKey(node.getId())) {
 				continue;
 			}
 
-			clusterNodeMap.put(node.getId(), node.getId());
+			clusterIndices.put(node.getId(), clusterIds.size());
+			clusterIds.add(node.getId());
 			aggregatedNodes.put(node.getId(), node);
 		}
 		
-		// map original links to new nodes
-		final Map<String, Link> aggregatedLinks = new HashMap<String, Link>();
+		// map original links to new nodes, keyed by the packed pair of cluster indices
+		final Map<Long, BasicAggregateLink> linksByClusters = new HashMap<Long, BasicAggregateLink>();
 		for (Link link : linkMap.values()) {
-			String source = clusterNodeMap.get(link.getSourceId());
-			String target = clusterNodeMap.get(link.getTargetId());
-			Double amount = link.getWeight();
-			long number = link.getNumMembers();
+			Integer source = clusterIndices.get(link.getSourceId());
+			Integer target = clusterIndices.get(link.getTargetId());
 			
 			if (source == null ||
-				source.isEmpty() ||
 				target == null ||
-				target.isEmpty() ||
-				source.equalsIgnoreCase(target)
+				source.intValue() == target.intValue()
 			) {
 				continue;
 			}
 			
-			String newLinkId = source + "_" + target;
-			if (aggregatedLinks.containsKey(newLinkId)) {
-				BasicAggregateLink aggLink = (BasicAggregateLink)aggregatedLinks.get(newLinkId);
+			Double amount = link.getWeight();
+			long number = link.getNumMembers();
+			
+			Long key = ((long)source.intValue() << 32) | (target.intValue() & 0xffffffffL);
+			BasicAggregateLink aggLink = linksByClusters.get(key);
+			if (aggLink != null) {
 				
 				// add amount to aggregated link
 				Double linkWeight = aggLink.getWeight();
@@ -164,7 +165,14 @@ public class BasicClusterConverter implements ClusterConverter {
 				continue;
 			}
 			
-			aggregatedLinks.put(newLinkId, new BasicAggregateLink(newLinkId, source, target, amount, number));
+			String sourceId = clusterIds.get(source);
+			String targetId = clusterIds.get(target);
+			linksByClusters.put(key, new BasicAggregateLink(sourceId + "_" + targetId, sourceId, targetId, amount, number));
+		}
+		
+		final Map<String, Link> aggregatedLinks = new HashMap<String, Link>(linksByClusters.size());
+		for (BasicAggregateLink aggLink : linksByClusters.values()) {
+			aggregatedLinks.put(aggLink.getId(), aggLink);
 		}
 		
 		return new BasicGraphAggregationResult(
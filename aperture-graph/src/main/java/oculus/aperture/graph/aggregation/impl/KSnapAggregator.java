@@ -26,10 +26,11 @@ package oculus.aperture.graph.aggregation.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -61,6 +62,10 @@ public class KSnapAggregator implements OculusAggregator {
 		public int ct;
 		public Set<KSnapNode> argmaxct = new HashSet<KSnapNode>();
 		
+		// links from this group's nodes to each neighbouring group, and the nodes with such links
+		public HashMap<String,Integer> pets = new HashMap<String,Integer>();
+		public HashMap<String,Set<KSnapNode>> ctNodes = new HashMap<String, Set<KSnapNode>>();
+		
 		
 		public int compareTo(final KSnapGroup arg1) {
 			if(this.ct==arg1.ct)
@@ -112,6 +117,15 @@ public class KSnapAggregator implements OculusAggregator {
 		    }
 		    return false;
 		}
+		
+		
+		
+		
+		@Override
+		public int hashCode(){
+			// symmetric, to match equals
+			return start.toLowerCase().hashCode() ^ end.toLowerCase().hashCode();
+		}
 	}
 	
 	
@@ -121,7 +135,7 @@ public class KSnapAggregator implements OculusAggregator {
 		public Node node;
 		public KSnapNode(Node n,String group){node= n;groupID=group;}
 		public ArrayList<KSnapNode> neighbours= new ArrayList<KSnapNode>();
-		public HashMap<String,Integer> pet = new HashMap<String,Integer>();//Participation in specific groups.
+		public HashMap<String,Integer> pet = new HashMap<String,Integer>();//Participation in specific groups, by neighbour count.
 		public String groupID;
 		
 		
@@ -149,11 +163,23 @@ public class KSnapAggregator implements OculusAggregator {
     protected volatile Collection<Set<Node>> clusterSet = null;
     protected volatile GraphAggregationResult graphResult = null;
     
-    protected Set<KSnapLink> stronglinks = new TreeSet<KSnapLink>();
-    protected Set<KSnapLink> weaklinks = new TreeSet<KSnapLink>();
+    protected Set<KSnapLink> stronglinks = new HashSet<KSnapLink>();
+    protected Set<KSnapLink> weaklinks = new HashSet<KSnapLink>();
     protected int globalC = 0;//bad name but it's from the paper
     
-	protected PriorityQueue<KSnapGroup> ctHeap= new PriorityQueue<KSnapGroup>();
+    // group pairs to reclassify, and groups to re-rank, on the next ct()
+    protected Set<KSnapLink> pendingLinks = new HashSet<KSnapLink>();
+    protected Set<KSnapGroup> dirtyGroups = new HashSet<KSnapGroup>();
+    
+    // groups by descending ct, with the group id breaking ties
+	protected TreeSet<KSnapGroup> ctHeap= new TreeSet<KSnapGroup>(new Comparator<KSnapGroup>() {
+		
+		@Override
+		public int compare(KSnapGroup a, KSnapGroup b) {
+			int order = a.compareTo(b);
+			return order != 0? order : a.groupID.compareTo(b.groupID);
+		}
+	});
 	protected HashMap<String, KSnapGroup> groupArray = new HashMap<String, KSnapGroup>();
 	protected HashMap<String, KSnapNode> allNodes = new HashMap<String, KSnapNode>();
 
@@ -202,126 +228,224 @@ public class KSnapAggregator implements OculusAggregator {
 	
 	private float participationRatio(KSnapGroup start, KSnapGroup end){
 		
-		int petji=0;
-		int petij=0;
-		for(KSnapNode n:start.nodes.values()){
-			for(KSnapNode t:n.neighbours){
-				if(t.groupID==end.groupID){
-					petji++;
-				}
+		int petji=count(start.pets, end.groupID);
+		int petij=count(end.pets, start.groupID);
+		
+		return (petji+petij)/(start.nodes.size()+end.nodes.size());
+	}
+	
+	
+	
+	
+	private static int count(Map<String,Integer> counts, String key){
+		Integer c = counts.get(key);
+		return c == null? 0 : c.intValue();
+	}
+	
+	
+	
+	
+	private static void increment(Map<String,Integer> counts, String key){
+		counts.put(key, count(counts, key)+1);
+	}
+	
+	
+	
+	
+	private static void decrement(Map<String,Integer> counts, String key){
+		int c = count(counts, key)-1;
+		if(c > 0){
+			counts.put(key, c);
+		}else{
+			counts.remove(key);
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * Counts each node's neighbours per group, then the participation of every 
+	 * group in its neighbouring groups. Every pair is left to be classified by 
+	 * the first ct().
+	 */
+	private void initParticipation(){
+		stronglinks.clear();
+		weaklinks.clear();
+		pendingLinks.clear();
+		dirtyGroups.clear();
+		ctHeap.clear();
+		
+		for(KSnapNode n: allNodes.values()){
+			n.pet.clear();
+			for(KSnapNode item : n.neighbours){
+				increment(n.pet, item.groupID);
 			}
 		}
 		
-		for(KSnapNode n:end.nodes.values()){
-			for(KSnapNode t:n.neighbours){
-				if(t.groupID==start.groupID){
-					petij++;
+		for(KSnapGroup g:groupArray.values()){
+			rebuildParticipation(g);
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * Recomputes a group's participation from the cached counts of its nodes, 
+	 * and queues its pairs for reclassification.
+	 */
+	private void rebuildParticipation(KSnapGroup g){
+		
+		for(String h : g.pets.keySet()){
+			pendingLinks.add(new KSnapLink(g.groupID,h));
+		}
+		g.pets.clear();
+		g.ctNodes = new HashMap<String, Set<KSnapNode>>();
+		
+		for(KSnapNode n: g.nodes.values()){
+			for(Map.Entry<String,Integer> p : n.pet.entrySet()){
+				String h = p.getKey();
+				if(h.equals(g.groupID)) continue;
+				
+				g.pets.put(h, count(g.pets, h)+p.getValue());
+				
+				Set<KSnapNode> ln = g.ctNodes.get(h);
+				if(ln==null){
+					ln = new HashSet<KSnapNode>();
+					g.ctNodes.put(h, ln);
 				}
+				ln.add(n);
 			}
 		}
 		
-		return (petji+petij)/(start.nodes.size()+end.nodes.size());
+		for(String h : g.pets.keySet()){
+			pendingLinks.add(new KSnapLink(g.groupID,h));
+		}
+		dirtyGroups.add(g);
 	}
 	
 	
 	
 	
+	/**
+	 * Reclassifies only the group pairs whose participation changed in the last 
+	 * split, and re-ranks only the groups that neighbour them. A reclassified pair 
+	 * leaves both link sets first, so every pair is classified as a full pass over 
+	 * the current groups would classify it.
+	 */
 	private void ct(){
-		ctHeap.clear();
 		
-		for(KSnapGroup g:groupArray.values()) {
-			g.argmaxct.clear();
-			g.strongrelationships.clear();
+		for(KSnapLink lk : pendingLinks){
+			stronglinks.remove(lk);
+			weaklinks.remove(lk);
 			
-			HashMap<String,Integer> pets=new HashMap<String,Integer>();
-			HashMap<String,Set<KSnapNode>> ctNodes = new HashMap<String, Set<KSnapNode>>();
-			for(KSnapNode n: g.nodes.values()){				
-				for(KSnapNode item : n.neighbours) {						
-					  if(!n.groupID.equalsIgnoreCase(item.groupID)){
-						  if(!ctNodes.containsKey(item.groupID)){
-							  Set<KSnapNode> ln = new HashSet<KSnapNode>();
-							  ln.add(n);
-							  ctNodes.put(item.groupID, ln);
-						  }else{
-							  ctNodes.get(item.groupID).add(n);
-						  }
-						  
-						  if(!pets.containsKey(item.groupID))pets.put(item.groupID, 0);
-						  pets.put(item.groupID,pets.get(item.groupID).intValue()+1);
-						  
-						  
-						  if(!item.pet.containsKey(n.groupID))item.pet.put(n.groupID, 0);
-						  item.pet.put(n.groupID,item.pet.get(n.groupID).intValue()+1);
-						  
-						  KSnapLink newl=new KSnapLink(g.groupID,item.groupID);
-						  if(!(stronglinks.contains(newl) || weaklinks.contains(newl))){
-							  double p = participationRatio(g,groupArray.get(item.groupID));
-							  if(p<0.5){
-								  stronglinks.add(newl);
-							  }else{
-								  weaklinks.add(newl);
-							  }
-						  }
-					  }
-				}
+			KSnapGroup g = groupArray.get(lk.start);
+			KSnapGroup h = groupArray.get(lk.end);
+			dirtyGroups.add(g);
+			dirtyGroups.add(h);
+			
+			if(!g.pets.containsKey(h.groupID)){
+				continue;
 			}
 			
+			double p = participationRatio(g,h);
+			if(p<0.5){
+				stronglinks.add(lk);
+			}else{
+				weaklinks.add(lk);
+			}
+		}
+		pendingLinks.clear();
+		
+		for(KSnapGroup g:dirtyGroups) {
+			// re-key the group in the heap around the change in ct
+			ctHeap.remove(g);
+			
+			g.strongrelationships.clear();
+			g.ct=0;
+			g.argmaxct=new HashSet<KSnapNode>();
+			
 			int maxct=-99999;
-			for(Map.Entry<String,Integer> ct :pets.entrySet()){
+			for(Map.Entry<String,Integer> ct :g.pets.entrySet()){
 				if(ct.getValue()>maxct){
 					KSnapLink newl=new KSnapLink(g.groupID,ct.getKey());
-					if(stronglinks.contains(newl)){// || weaklinks.contains(newl))){
-						g.ct=ctNodes.get(ct.getKey()).size();//ct.getValue();	
+					if(stronglinks.contains(newl)){
+						g.ct=g.ctNodes.get(ct.getKey()).size();
 					}else{
-						g.ct=g.nodes.size() - ctNodes.get(ct.getKey()).size();//ct.getValue();
+						g.ct=g.nodes.size() - g.ctNodes.get(ct.getKey()).size();
 					}
 					
 					maxct=g.ct;
-					g.argmaxct = ctNodes.get(ct.getKey());
+					g.argmaxct = g.ctNodes.get(ct.getKey());
 				}
 			}
-			//System.out.println("CT is " + g.ct + "for group " + g.groupID);
 			ctHeap.add(g);
 		}
+		dirtyGroups.clear();
 	}
 	
 	
 	
 	
 	private void split(){
-		KSnapGroup top = ctHeap.poll();
+		KSnapGroup top = null;
 		
-		if(top==null || top.nodes == null){
-			return;			
-		}
-		while(top.nodes.size()<2){
-			if(ctHeap.isEmpty())
-			{
-				//System.out.print("No more heap! \n");
-				return;
+		// the group with the highest ct that can still be split
+		for(KSnapGroup g : ctHeap){
+			if(g.nodes.size()>=2 && !g.argmaxct.isEmpty() && g.nodes.size() != g.argmaxct.size()){
+				top = g;
+				break;
 			}
-			top = ctHeap.poll();			
-		}	
-		
-		if(top.nodes.size() == top.argmaxct.size()){
-			split();
+		}
+		if(top==null){
 			return;
 		}
+		
 		String newgroupname = top.groupID + groupArray.size();
 		KSnapGroup newgroup = new KSnapGroup(newgroupname);
 		newgroup.attribute = top.attribute;//preserving original attribute
 		groupArray.put(newgroupname,newgroup);
-		//System.out.print("\nAdding group " + newgroupname +  "\n");
-		for(KSnapNode item : top.argmaxct ) {
-			
-			//System.out.print("Removing " + item.node.getId() + "from" + top.groupID + "current size " + top.nodes.size() + "\n");
+		
+		List<KSnapNode> moved = new ArrayList<KSnapNode>(top.argmaxct);
+		for(KSnapNode item : moved) {
 			top.nodes.remove(item.node.getId());
-			//System.out.print("Adding " + item.node.getId() + "to" + newgroupname +  "\n");
-
 			item.groupID = newgroupname;
 			newgroup.nodes.put(item.node.getId(), item);
 		}
 		
+		// only the neighbours of moved nodes see a change in participation
+		for(KSnapNode item : moved) {
+			for(KSnapNode t : item.neighbours) {
+				decrement(t.pet, top.groupID);
+				increment(t.pet, newgroupname);
+				
+				KSnapGroup h = groupArray.get(t.groupID);
+				if(h==top || h==newgroup) continue;
+				
+				decrement(h.pets, top.groupID);
+				increment(h.pets, newgroupname);
+				
+				if(!t.pet.containsKey(top.groupID)){
+					Set<KSnapNode> ln = h.ctNodes.get(top.groupID);
+					if(ln!=null){
+						ln.remove(t);
+						if(ln.isEmpty()) h.ctNodes.remove(top.groupID);
+					}
+				}
+				Set<KSnapNode> ln = h.ctNodes.get(newgroupname);
+				if(ln==null){
+					ln = new HashSet<KSnapNode>();
+					h.ctNodes.put(newgroupname, ln);
+				}
+				ln.add(t);
+				
+				dirtyGroups.add(h);
+			}
+		}
+		
+		rebuildParticipation(top);
+		rebuildParticipation(newgroup);
 	}
 	
 	
@@ -360,20 +484,7 @@ public class KSnapAggregator implements OculusAggregator {
 		for(KSnapLink lk:stronglinks){
 			KSnapGroup s= groupArray.get(lk.start);
 			KSnapGroup e= groupArray.get(lk.end);
-			for(KSnapNode n:s.nodes.values()){
-				for(KSnapNode ne:n.neighbours){
-					if(ne.groupID.equalsIgnoreCase(e.groupID)){
-						count++;
-					}
-				}
-			}
-			for(KSnapNode n:e.nodes.values()){
-				for(KSnapNode ne:n.neighbours){
-					if(ne.groupID.equalsIgnoreCase(s.groupID)){
-						count++;
-					}
-				}
-			}			
+			count += count(s.pets, e.groupID) + count(e.pets, s.groupID);
 		}
 		
 		return count/this.nodeMap.size();
@@ -439,6 +550,8 @@ public class KSnapAggregator implements OculusAggregator {
 			allNodes.get(newlink.getSourceId()).neighbours.add(allNodes.get(newlink.getTargetId()));
 			allNodes.get(newlink.getTargetId()).neighbours.add(allNodes.get(newlink.getSourceId()));
 		}
+		
+		initParticipation();
 
 		
 		//Compute CT
@@ -450,7 +563,6 @@ public class KSnapAggregator implements OculusAggregator {
 	    		return;
 	    	}
 			
-			stronglinks.clear();
 			ct();		
 			split();
 			double t=diversity()*coverage()/conciseness();
@@ -0,0 +1,807 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.graph.aggregation.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import oculus.aperture.graph.aggregation.ClusterConverter;
+import oculus.aperture.graph.aggregation.OculusAggregator;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.graph.GraphAggregationResult;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Community detection by the Leiden algorithm (Traag, Waltman and van Eck, 2019). 
+ * Like Louvain it optimises modularity by moving nodes and aggregating communities, 
+ * but each community is refined into well connected subcommunities before it is 
+ * aggregated, so that no community in the result is internally disconnected.
+ * <p>
+ * Modularity gains use the same resolution weighting as {@link LouvainAggregator}.
+ * The refinement phase merges each node into the well connected subcommunity of 
+ * greatest non negative gain, which is the deterministic limit of the randomised 
+ * merge described in the paper.
+ */
+public class LeidenAggregator implements OculusAggregator {
+	
+	private final static Logger logger = LoggerFactory.getLogger(LeidenAggregator.class);
+	
+	protected ClusterConverter clusterer = null;
+    protected Map<String, Node> nodeMap = null;
+    protected Map<String, Link> linkMap = null;
+    protected CommunityStructure structure = null;
+    protected volatile Collection<Set<Node>> clusterSet = null;
+    protected volatile GraphAggregationResult graphResult = null;
+    
+    private double resolution;
+    private volatile boolean cancel = false;
+    private String status = STATUS_WAITING;
+    private int progress;
+	private boolean calculateLinkWeights = true;
+	private Long seed = null;
+    
+    
+    public LeidenAggregator(
+    	double resolution
+    ) {
+    	this.resolution = resolution;
+    }
+    
+    
+    
+    
+    protected double getLinkWeight(Link link) {
+    	return link.getWeight();
+	}
+    
+    
+    
+    
+    protected void parceCommunities(
+    	final int[] comStructure
+	) {
+    	if (nodeMap == null ||
+    		structure == null
+    	) {
+    		return;
+    	}
+    	
+    	Map<Integer, Set<Node>> clusterMap = new HashMap<Integer, Set<Node>>();
+    	Node[] nodes = structure.getNodes();
+    	for (int i = 0; i < nodes.length; i++) {
+    		
+    		Node node = nodes[i];
+    		int index = comStructure[i];
+    		
+    		if (clusterMap.containsKey(index)) {
+    			Set<Node> cluster = clusterMap.get(index);
+    			cluster.add(node);
+    		} else {
+    			Set<Node> cluster = new HashSet<Node>();
+    			cluster.add(node);
+    			clusterMap.put(index, cluster);
+    		}
+    	}
+    	
+    	clusterSet = clusterMap.values();
+    	
+    	if (clusterer != null) {
+    		graphResult = clusterer.convertClusterSet(clusterSet);
+    	}
+	}
+    
+    
+    
+    
+    /**
+     * The graph being aggregated, held as a compressed sparse row adjacency over 
+     * int node indices, together with its partition into communities and the 
+     * refinement of that partition. All buffers are allocated up front and 
+     * reused by every level.
+     */
+    protected class CommunityStructure {
+
+    	// the original nodes, by leaf index
+    	private Node[] nodes;
+    	
+    	// the current level graph: row offsets, neighbor indices and link weights
+    	private int N;
+    	private int[] rowOffsets;
+    	private int[] neighbors;
+    	private double[] linkWeights;
+    	private double[] weights;
+    	private double graphWeightSum;
+    	
+    	// the community of each level node, and the total weight and size of each community
+    	private int[] nodeCommunities;
+    	private double[] communityWeights;
+    	private int[] communitySizes;
+    	private int[] emptyCommunities;
+    	private int emptyCount;
+    	private int communityCount;
+    	
+    	// the refined community of each level node, with its total weight, size and 
+    	// the weight of its links to the rest of its community
+    	private int[] refinedCommunities;
+    	private double[] refinedWeights;
+    	private int[] refinedSizes;
+    	private double[] externalWeights;
+    	
+    	// the level node containing each leaf
+    	private int[] leafNodes;
+    	
+    	// spare buffers the next level is built into
+    	private int[] nextRowOffsets;
+    	private int[] nextNeighbors;
+    	private double[] nextLinkWeights;
+    	
+    	// scratch space
+    	private int[] slots;
+    	private int[] members;
+    	private int[] memberOffsets;
+    	private int[] queue;
+    	private boolean[] queued;
+    	private NeighborTable table = new NeighborTable();
+        
+        
+        
+        
+		CommunityStructure() {
+        	
+        	if (nodeMap == null ||
+        		linkMap == null
+        	) {
+        		return;
+        	}
+            
+            LevelGraph graph = new LevelGraph() {
+            	@Override
+            	double getLinkWeight(Link link) {
+            		return LeidenAggregator.this.getLinkWeight(link);
+            	}
+            	
+            	@Override
+            	boolean isCancelled() {
+            		return cancel;
+            	}
+            	
+            	@Override
+            	void addProgress(long amount) {
+            		progress += amount;
+            	}
+            };
+            
+            if (!graph.build(nodeMap, linkMap, calculateLinkWeights, 49.0)) {
+            	setStatusWaiting();
+            	return;
+            }
+            
+            N = graph.N;
+            nodes = graph.nodes;
+            rowOffsets = graph.rowOffsets;
+            neighbors = graph.neighbors;
+            linkWeights = graph.linkWeights;
+            weights = graph.weights;
+            graphWeightSum = graph.graphWeightSum;
+            slots = graph.slots;
+            
+            nodeCommunities = new int[N];
+            communityWeights = new double[N];
+            communitySizes = new int[N];
+            emptyCommunities = new int[N];
+            refinedCommunities = new int[N];
+            refinedWeights = new double[N];
+            refinedSizes = new int[N];
+            externalWeights = new double[N];
+            
+            leafNodes = new int[N];
+            for (int i = 0; i < N; i++) {
+            	nodeCommunities[i] = i;
+            	communityWeights[i] = weights[i];
+            	communitySizes[i] = 1;
+            	leafNodes[i] = i;
+            }
+            emptyCount = 0;
+            communityCount = N;
+            
+            nextRowOffsets = new int[N + 1];
+            nextNeighbors = new int[neighbors.length];
+            nextLinkWeights = new double[linkWeights.length];
+            members = new int[N];
+            memberOffsets = new int[N + 1];
+            queue = new int[N];
+            queued = new boolean[N];
+        }
+        
+        
+        
+        
+        /**
+         * Fills the member buffer with the nodes of the current level in random order.
+         */
+        private void shuffleNodes(Random rand) {
+        	for (int i = 0; i < N; i++) {
+        		members[i] = i;
+        	}
+        	for (int i = N - 1; i > 0; i--) {
+        		int j = rand.nextInt(i + 1);
+        		int swap = members[i];
+        		members[i] = members[j];
+        		members[j] = swap;
+        	}
+        }
+        
+        
+        
+        
+        /**
+         * Moves nodes between communities until no move improves modularity. Only the
+         * neighbors of a node that moved are revisited.
+         */
+        private void moveNodesFast(Random rand) {
+        	shuffleNodes(rand);
+        	
+        	int head = 0;
+        	int queueSize = N;
+        	System.arraycopy(members, 0, queue, 0, N);
+        	Arrays.fill(queued, 0, N, true);
+        	
+        	while (queueSize > 0) {
+        		
+        		if (cancel) {
+        			return;
+        		}
+        		
+        		int node = queue[head];
+        		head = (head + 1) % N;
+        		queueSize--;
+        		queued[node] = false;
+        		
+        		int nodeCommunity = nodeCommunities[node];
+        		double nodeWeight = weights[node];
+        		
+        		table.ensureCapacity(rowOffsets[node + 1] - rowOffsets[node]);
+        		for (int k = rowOffsets[node]; k < rowOffsets[node + 1]; k++) {
+        			int neighbor = neighbors[k];
+        			if (neighbor != node) {
+        				table.add(nodeCommunities[neighbor], linkWeights[k]);
+        			}
+        		}
+        		
+        		// evaluate with the node taken out of its own community
+        		communityWeights[nodeCommunity] -= nodeWeight;
+        		
+        		double ownQ = -(nodeWeight * communityWeights[nodeCommunity]) / (2.0 * graphWeightSum);
+        		for (int s = 0; s < table.size(); s++) {
+        			if (table.getCommunity(s) == nodeCommunity) {
+        				ownQ += resolution * table.getWeight(s);
+        			}
+        		}
+        		
+        		double best = ownQ;
+        		int bestCommunity = nodeCommunity;
+        		for (int s = 0; s < table.size(); s++) {
+        			int community = table.getCommunity(s);
+        			double qValue = resolution * table.getWeight(s) - (nodeWeight * communityWeights[community]) / (2.0 * graphWeightSum);
+        			if (qValue > best) {
+        				best = qValue;
+        				bestCommunity = community;
+        			}
+        		}
+        		
+        		// a node that is better off alone than anywhere takes an empty community
+        		if (best < 0 && communitySizes[nodeCommunity] > 1) {
+        			bestCommunity = emptyCommunities[--emptyCount];
+        		}
+        		
+        		table.clear();
+        		communityWeights[bestCommunity] += nodeWeight;
+        		
+        		if (bestCommunity == nodeCommunity) {
+        			continue;
+        		}
+        		
+        		if (communitySizes[bestCommunity]++ == 0) {
+        			communityCount++;
+        		}
+        		if (--communitySizes[nodeCommunity] == 0) {
+        			communityWeights[nodeCommunity] = 0;
+        			emptyCommunities[emptyCount++] = nodeCommunity;
+        			communityCount--;
+        		}
+        		nodeCommunities[node] = bestCommunity;
+        		
+        		// revisit the neighbors left outside the new community
+        		for (int k = rowOffsets[node]; k < rowOffsets[node + 1]; k++) {
+        			int neighbor = neighbors[k];
+        			if (!queued[neighbor] && nodeCommunities[neighbor] != bestCommunity) {
+        				queue[(head + queueSize) % N] = neighbor;
+        				queueSize++;
+        				queued[neighbor] = true;
+        			}
+        		}
+        	}
+        }
+        
+        
+        
+        
+        /**
+         * Refines each community into subcommunities, starting from singletons. A node 
+         * is only merged while it is still a singleton, only if it is well connected 
+         * to the rest of its community, and only into a subcommunity that is itself well 
+         * connected to the rest of the community. Each refined community is therefore
+         * connected.
+         * 
+         * @return
+         * 		the number of refined communities
+         */
+        private int refine(Random rand) {
+        	double scale = 1.0 / (2.0 * graphWeightSum);
+        	
+        	for (int i = 0; i < N; i++) {
+        		refinedCommunities[i] = i;
+        		refinedWeights[i] = weights[i];
+        		refinedSizes[i] = 1;
+        		
+        		double external = 0;
+        		int community = nodeCommunities[i];
+        		for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+        			int neighbor = neighbors[k];
+        			if (neighbor != i && nodeCommunities[neighbor] == community) {
+        				external += linkWeights[k];
+        			}
+        		}
+        		externalWeights[i] = external;
+        	}
+        	
+        	int refinedCount = N;
+        	shuffleNodes(rand);
+        	
+        	for (int m = 0; m < N; m++) {
+        		
+        		if (cancel) {
+        			return refinedCount;
+        		}
+        		
+        		int node = members[m];
+        		if (refinedSizes[refinedCommunities[node]] != 1) {
+        			continue;
+        		}
+        		
+        		int community = nodeCommunities[node];
+        		double nodeWeight = weights[node];
+        		double communityWeight = communityWeights[community];
+        		if (resolution * externalWeights[node] < nodeWeight * (communityWeight - nodeWeight) * scale) {
+        			continue;
+        		}
+        		
+        		table.ensureCapacity(rowOffsets[node + 1] - rowOffsets[node]);
+        		for (int k = rowOffsets[node]; k < rowOffsets[node + 1]; k++) {
+        			int neighbor = neighbors[k];
+        			if (neighbor != node && nodeCommunities[neighbor] == community) {
+        				table.add(refinedCommunities[neighbor], linkWeights[k]);
+        			}
+        		}
+        		
+        		double best = 0;
+        		int bestRefined = -1;
+        		double bestWeight = 0;
+        		for (int s = 0; s < table.size(); s++) {
+        			int refined = table.getCommunity(s);
+        			double refinedWeight = refinedWeights[refined];
+        			if (resolution * externalWeights[refined] < refinedWeight * (communityWeight - refinedWeight) * scale) {
+        				continue;
+        			}
+        			
+        			double qValue = resolution * table.getWeight(s) - nodeWeight * refinedWeight * scale;
+        			if (qValue >= best) {
+        				best = qValue;
+        				bestRefined = refined;
+        				bestWeight = table.getWeight(s);
+        			}
+        		}
+        		
+        		table.clear();
+        		
+        		if (bestRefined < 0) {
+        			continue;
+        		}
+        		
+        		int own = refinedCommunities[node];
+        		refinedSizes[own] = 0;
+        		refinedSizes[bestRefined]++;
+        		refinedWeights[bestRefined] += nodeWeight;
+        		externalWeights[bestRefined] += externalWeights[own] - 2.0 * bestWeight;
+        		refinedCommunities[node] = bestRefined;
+        		refinedCount--;
+        	}
+        	
+        	return refinedCount;
+        }
+        
+        
+        
+        
+        /**
+         * Collapses each group of the current level into a single node of a new 
+         * level graph, starting the new level with the community partition of the
+         * current one. Links within a group become a self link of the new node.
+         * 
+         * @param groups
+         * 		the group of each level node, which must each lie within one community
+         */
+        private void aggregate(int[] groups) {
+        	
+        	// number the groups in use
+        	int M = 0;
+        	for (int i = 0; i < N; i++) {
+        		int group = groups[i];
+        		if (slots[group] < 0) {
+        			slots[group] = M++;
+        		}
+        	}
+        	for (int i = 0; i < N; i++) {
+        		members[i] = slots[groups[i]];
+        	}
+        	Arrays.fill(slots, 0, N, -1);
+        	
+        	// carry the community of each group over, renumbered from zero
+        	int K = 0;
+        	for (int i = 0; i < N; i++) {
+        		int community = nodeCommunities[i];
+        		if (slots[community] < 0) {
+        			slots[community] = K++;
+        		}
+        	}
+        	for (int i = 0; i < N; i++) {
+        		queue[members[i]] = slots[nodeCommunities[i]];
+        	}
+        	Arrays.fill(slots, 0, N, -1);
+        	
+        	// the new index of each level node now lives in the member buffer
+        	for (int v = 0; v < leafNodes.length; v++) {
+        		leafNodes[v] = members[leafNodes[v]];
+        	}
+        	for (int k = 0; k < rowOffsets[N]; k++) {
+        		neighbors[k] = members[neighbors[k]];
+        	}
+        	
+        	// bucket the level nodes by their new index
+        	Arrays.fill(memberOffsets, 0, M + 1, 0);
+        	for (int i = 0; i < N; i++) {
+        		memberOffsets[members[i] + 1]++;
+        	}
+        	for (int c = 0; c < M; c++) {
+        		memberOffsets[c + 1] += memberOffsets[c];
+        	}
+        	System.arraycopy(memberOffsets, 0, nextRowOffsets, 0, M);
+        	for (int i = 0; i < N; i++) {
+        		groups[nextRowOffsets[members[i]]++] = i;
+        	}
+        	
+        	int write = 0;
+        	for (int c = 0; c < M; c++) {
+        		nextRowOffsets[c] = write;
+        		
+        		for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+        			int i = groups[m];
+        			
+        			for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+        				int target = neighbors[k];
+        				if (slots[target] < 0) {
+        					slots[target] = write;
+        					nextNeighbors[write] = target;
+        					nextLinkWeights[write] = linkWeights[k];
+        					write++;
+        				} else {
+        					nextLinkWeights[slots[target]] += linkWeights[k];
+        				}
+        			}
+        		}
+        		
+        		for (int k = nextRowOffsets[c]; k < write; k++) {
+        			slots[nextNeighbors[k]] = -1;
+        		}
+        	}
+        	nextRowOffsets[M] = write;
+        	
+        	int[] swapOffsets = rowOffsets;
+        	rowOffsets = nextRowOffsets;
+        	nextRowOffsets = swapOffsets;
+        	
+        	int[] swapNeighbors = neighbors;
+        	neighbors = nextNeighbors;
+        	nextNeighbors = swapNeighbors;
+        	
+        	double[] swapWeights = linkWeights;
+        	linkWeights = nextLinkWeights;
+        	nextLinkWeights = swapWeights;
+        	
+        	N = M;
+        	Arrays.fill(communityWeights, 0, N, 0);
+        	Arrays.fill(communitySizes, 0, N, 0);
+        	for (int c = 0; c < N; c++) {
+        		weights[c] = 0;
+        		for (int k = rowOffsets[c]; k < rowOffsets[c + 1]; k++) {
+        			weights[c] += linkWeights[k];
+        		}
+        		nodeCommunities[c] = queue[c];
+        		communityWeights[queue[c]] += weights[c];
+        		communitySizes[queue[c]]++;
+        	}
+        	
+        	emptyCount = 0;
+        	for (int c = N - 1; c >= K; c--) {
+        		emptyCommunities[emptyCount++] = c;
+        	}
+        	communityCount = K;
+        }
+		
+		
+		
+		
+		/**
+		 * Splits each community into its connected parts. The move phase can leave a community
+		 * in pieces, which refinement mends by aggregating on the pieces instead, so this is
+		 * needed only if the communities are reported without another round of refinement. The
+		 * nodes of each level are connected, so parts connected in the level are in the leaves.
+		 */
+		private void splitCommunities() {
+			LevelGraph.splitCommunities(N, rowOffsets, neighbors, nodeCommunities, queue, queued);
+		}
+		
+		
+		
+		
+		/**
+		 * @return
+		 * 		a dense community number for each leaf node
+		 */
+		private int[] getCommunityStructure() {
+			int[] comStructure = new int[leafNodes.length];
+			
+			int count = 0;
+			for (int v = 0; v < leafNodes.length; v++) {
+				int community = nodeCommunities[leafNodes[v]];
+				if (slots[community] < 0) {
+					slots[community] = count++;
+				}
+				comStructure[v] = slots[community];
+			}
+			
+			Arrays.fill(slots, 0, N, -1);
+			
+			return comStructure;
+		}
+		
+		
+		
+		
+		public Node[] getNodes() {
+			return nodes;
+		}
+		
+		
+		
+		
+		public int size() {
+			return N;
+		}
+    }
+
+
+
+
+	@Override
+	public void requestCancel() {
+		cancel = true;
+		status = STATUS_CANCELLING;
+	}
+
+
+
+
+	@Override
+	public String getStatus() {
+		return status;
+	}
+
+
+
+
+	@Override
+	public int getPercentComplete() {
+		return progress;
+	}
+
+
+
+
+	@Override
+	public void run() {
+		progress = 0;
+		this.clusterSet = null;
+		this.graphResult = null;
+		cancel = false;
+		status = STATUS_AGGREGATING;
+    	
+    	logger.debug("Running Leiden clustering algorithm on " + nodeMap.size() + " nodes and " + linkMap.size() + " links...");
+		
+    	StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+    	
+		progress = 1;
+		
+		structure = new CommunityStructure();
+		
+		if (cancel) {
+    		setStatusWaiting();
+    		return;
+    	}
+    	
+		progress = 50;
+		
+        Random rand = (seed != null)? new Random(seed.longValue()) : new Random();
+        int[] groups = new int[structure.size()];
+        
+        int level = 0;
+        while (structure.size() > 0) {
+        	
+        	structure.moveNodesFast(rand);
+        	
+        	if (cancel) {
+        		setStatusWaiting();
+        		return;
+        	}
+        	
+        	// done once every community is a single node
+        	if (structure.communityCount == structure.size()) {
+        		break;
+        	}
+        	
+        	int refinedCount = structure.refine(rand);
+        	
+        	if (cancel) {
+        		setStatusWaiting();
+        		return;
+        	}
+        	
+        	// done once refinement merges nothing, since aggregating would not coarsen the level, 
+        	// though the communities may still need mending
+        	int N = structure.size();
+        	if (refinedCount == N) {
+        		structure.splitCommunities();
+        		break;
+        	}
+        	
+        	System.arraycopy(structure.refinedCommunities, 0, groups, 0, N);
+        	structure.aggregate(groups);
+        	
+        	level++;
+        	progress += (95 - progress) / 2;
+        	logger.debug("Leiden level " + level + " aggregated " + N + " nodes to " + structure.size());
+        }
+        
+        progress = 95;
+
+        int[] comStructure = structure.getCommunityStructure();
+        
+        progress = 98;
+        
+        if (cancel) {
+    		setStatusWaiting();
+    		return;
+    	}
+        
+        parceCommunities(comStructure);
+        
+        stopWatch.stop();
+		logger.debug("Finished Leiden clustering algorithm.");
+		if (graphResult != null) {
+			logger.debug("reduced " + nodeMap.size() + " nodes to " + graphResult.getNodes().size());
+			logger.debug("reduced " + linkMap.size() + " links to " + graphResult.getLinks().size());
+		}
+		logger.debug("Algorithm took " + stopWatch.toString());
+		stopWatch.reset();
+		
+		setStatusWaiting();
+		progress = 100;
+	}
+	
+	
+	
+	
+	private void setStatusWaiting() {
+		status = STATUS_WAITING;
+	}
+
+
+
+
+	@Override
+	public void setClusterConverter(ClusterConverter clusterer) {
+    	this.clusterer = clusterer;
+	}
+
+
+
+
+	@Override
+	public void setGraph(Map<String, Node> nodeMap, Map<String, Link> linkMap) {
+    	this.nodeMap = nodeMap;
+    	this.linkMap = linkMap;
+	}
+
+
+
+
+	@Override
+	public GraphAggregationResult getAggregationResult() {
+		return this.graphResult;
+	}
+
+
+
+
+	@Override
+	public Collection<Set<Node>> getClusterSet() {
+		return this.clusterSet;
+	}
+
+
+
+
+	public void setResolution(double resolution) {
+		this.resolution = resolution;
+	}
+	
+	
+	
+	
+	public void calculateLinkWeighting(boolean calculateLinkWeights) {
+		this.calculateLinkWeights = calculateLinkWeights;
+	}
+	
+	
+	
+	
+	/**
+	 * Seeds the node visiting order, so that the same graph always 
+	 * produces the same cluster set. Unseeded runs vary.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+}
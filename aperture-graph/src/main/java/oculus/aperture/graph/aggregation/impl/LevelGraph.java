@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.graph.aggregation.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+
+/**
+ * The first level of a multilevel community search: the links of a graph as 
+ * compressed rows of neighbor indices and link weights, with self links and 
+ * dangling links dropped and parallel links merged.
+ */
+abstract class LevelGraph {
+	
+	// the original nodes, by index
+	Node[] nodes;
+	int N;
+	
+	// row offsets, neighbor indices and link weights, and the total link weight of each node
+	int[] rowOffsets;
+	int[] neighbors;
+	double[] linkWeights;
+	double[] weights;
+	double graphWeightSum;
+	
+	// a scratch array of N, left filled with -1
+	int[] slots;
+	
+	
+	
+	
+	abstract double getLinkWeight(Link link);
+	
+	
+	
+	
+	abstract boolean isCancelled();
+	
+	
+	
+	
+	abstract void addProgress(long amount);
+	
+	
+	
+	
+	/**
+	 * Builds the rows, reporting the given share of progress while reading links.
+	 * 
+	 * @return false if cancelled
+	 */
+	boolean build(
+		Map<String, Node> nodeMap, 
+		Map<String, Link> linkMap, 
+		boolean calculateLinkWeights, 
+		double progressShare
+	) {
+		N = nodeMap.size();
+		nodes = new Node[N];
+		
+		Map<String, Integer> indices = new HashMap<String, Integer>(2 * N);
+		
+		int index = 0;
+		for (Node node : nodeMap.values()) {
+			
+			if (isCancelled()) {
+				return false;
+			}
+			
+			nodes[index] = node;
+			indices.put(node.getId(), index);
+			index++;
+		}
+		
+		// count the degree of each node, dropping self links and dangling links
+		int[] linkSources = new int[linkMap.size()];
+		int[] linkTargets = new int[linkMap.size()];
+		double[] amounts = new double[linkMap.size()];
+		rowOffsets = new int[N + 1];
+		
+		double progressInterval = progressShare / (double)Math.max(1, linkMap.size());
+		double progressAccumulation = 0;
+		
+		int E = 0;
+		for (Link link : linkMap.values()) {
+			
+			progressAccumulation += progressInterval;
+			if (progressAccumulation >= 1.0) {
+				addProgress(Math.round(progressAccumulation));
+				progressAccumulation = 0;
+			}
+			
+			if (isCancelled()) {
+				return false;
+			}
+			
+			Integer source = indices.get(link.getSourceId());
+			Integer target = indices.get(link.getTargetId());
+			if (source == null ||
+				target == null ||
+				source.intValue() == target.intValue()
+			) {
+				continue;
+			}
+			
+			linkSources[E] = source;
+			linkTargets[E] = target;
+			amounts[E] = getLinkWeight(link);
+			rowOffsets[source + 1]++;
+			rowOffsets[target + 1]++;
+			E++;
+		}
+		
+		indices = null;
+		
+		for (int i = 0; i < N; i++) {
+			rowOffsets[i + 1] += rowOffsets[i];
+		}
+		
+		// scatter both directions of each link into its rows
+		neighbors = new int[2 * E];
+		linkWeights = new double[2 * E];
+		slots = new int[N];
+		System.arraycopy(rowOffsets, 0, slots, 0, N);
+		
+		for (int e = 0; e < E; e++) {
+			int k = slots[linkSources[e]]++;
+			neighbors[k] = linkTargets[e];
+			linkWeights[k] = amounts[e];
+			
+			k = slots[linkTargets[e]]++;
+			neighbors[k] = linkSources[e];
+			linkWeights[k] = amounts[e];
+		}
+		
+		linkSources = null;
+		linkTargets = null;
+		amounts = null;
+		
+		// merge parallel links between the same pair of nodes, in place
+		Arrays.fill(slots, -1);
+		int write = 0;
+		for (int i = 0; i < N; i++) {
+			int start = rowOffsets[i];
+			int end = rowOffsets[i + 1];
+			rowOffsets[i] = write;
+			
+			for (int k = start; k < end; k++) {
+				int j = neighbors[k];
+				if (slots[j] < 0) {
+					slots[j] = write;
+					neighbors[write] = j;
+					linkWeights[write] = calculateLinkWeights? linkWeights[k] : 1.0;
+					write++;
+				} else if (calculateLinkWeights) {
+					linkWeights[slots[j]] += linkWeights[k];
+				}
+			}
+			
+			for (int k = rowOffsets[i]; k < write; k++) {
+				slots[neighbors[k]] = -1;
+			}
+		}
+		rowOffsets[N] = write;
+		
+		weights = new double[N];
+		graphWeightSum = 0;
+		for (int i = 0; i < N; i++) {
+			for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+				weights[i] += linkWeights[k];
+			}
+			graphWeightSum += weights[i];
+		}
+		graphWeightSum /= 2.0;
+		
+		return true;
+	}
+	
+	
+	
+	
+	/**
+	 * Splits each community into its connected parts, numbering each part by 
+	 * its first node, which no other part can use.
+	 * 
+	 * @param communities
+	 * 		the community of each node, renumbered in place
+	 * @param queue
+	 * 		scratch space of N
+	 * @param queued
+	 * 		scratch space of N
+	 */
+	static void splitCommunities(
+		int N,
+		int[] rowOffsets,
+		int[] neighbors,
+		int[] communities,
+		int[] queue,
+		boolean[] queued
+	) {
+		Arrays.fill(queued, 0, N, false);
+		
+		for (int root = 0; root < N; root++) {
+			if (queued[root]) {
+				continue;
+			}
+			
+			int community = communities[root];
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = root;
+			queued[root] = true;
+			
+			while (head < tail) {
+				int i = queue[head++];
+				communities[i] = root;
+				
+				for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+					int j = neighbors[k];
+					if (!queued[j] && communities[j] == community) {
+						queued[j] = true;
+						queue[tail++] = j;
+					}
+				}
+			}
+		}
+	}
+}
@@ -24,17 +24,23 @@
  */
 package oculus.aperture.graph.aggregation.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import oculus.aperture.graph.aggregation.ClusterConverter;
 import oculus.aperture.graph.aggregation.OculusAggregator;
-import oculus.aperture.graph.aggregation.util.AggregationUtilities;
 import oculus.aperture.spi.common.Link;
 import oculus.aperture.spi.common.Node;
 import oculus.aperture.spi.graph.GraphAggregationResult;
@@ -47,6 +53,20 @@ public class LouvainAggregator implements OculusAggregator {
 	
 	private final static Logger logger = LoggerFactory.getLogger(LouvainAggregator.class);
 	
+	// the smallest batch of nodes worth handing to another thread
+	private final static int MIN_BATCH_SIZE = 512;
+	
+	private final static int nThreads = Runtime.getRuntime().availableProcessors();
+	private final static ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "LouvainAggregator Pool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	protected ClusterConverter clusterer = null;
     protected Map<String, Node> nodeMap = null;
     protected Map<String, Link> linkMap = null;
@@ -59,6 +79,8 @@ public class LouvainAggregator implements OculusAggregator {
     private String status = STATUS_WAITING;
     private int progress;
 	private boolean calculateLinkWeights = true;
+	private int parallelism = nThreads;
+	private Long seed = null;
     
     
     public LouvainAggregator(
@@ -70,27 +92,8 @@ public class LouvainAggregator implements OculusAggregator {
     
     
     
-    protected double getLinkWeight(Node node, Node neighbor) {
-		
-    	if (linkMap == null) {
-    		return 0.0;
-    	}
-    	
-    	if (!calculateLinkWeights) {
-    		return 1.0;
-    	}
-    	
-		double linkWeight = 0;
-		
-		for (Link link : node.getIncidentLinks()) {
-			if ((link.getSourceId().equalsIgnoreCase(node.getId()) && link.getTargetId().equalsIgnoreCase(neighbor.getId())) ||
-				(link.getSourceId().equalsIgnoreCase(neighbor.getId()) && link.getTargetId().equalsIgnoreCase(node.getId()))
-			) {
-				linkWeight += link.getWeight();
-			}
-		}
-		
-		return linkWeight;
+    protected double getLinkWeight(Link link) {
+    	return link.getWeight();
 	}
     
     
@@ -106,9 +109,11 @@ public class LouvainAggregator implements OculusAggregator {
     	}
     	
     	Map<Integer, Set<Node>> clusterMap = new HashMap<Integer, Set<Node>>();
-    	for (Node node : nodeMap.values()) {
+    	Node[] nodes = structure.getNodes();
+    	for (int i = 0; i < nodes.length; i++) {
     		
-    		int index = comStructure[structure.map.get(node)];
+    		Node node = nodes[i];
+    		int index = comStructure[i];
     		
     		if (clusterMap.containsKey(index)) {
     			Set<Node> cluster = clusterMap.get(index);
@@ -130,83 +135,62 @@ public class LouvainAggregator implements OculusAggregator {
     
     
     
-    private double q(
-    	int node, 
-    	Community community
-    ) {
-    	if (structure == null) {
-    		return 0.0;
-    	}
-    	
-        Double edgesToDouble = structure.nodeConnectionsWeight[node].get(community);
-        double edgesTo = 0;
-        if (edgesToDouble != null) {
-            edgesTo = edgesToDouble.doubleValue();
-        }
-        double weightSum = community.weightSum;
-        double nodeWeight = structure.weights[node];
-        
-        double qValue;
-        if ((structure.nodeCommunities[node] == community) && (structure.nodeCommunities[node].size() > 1)) {
-            qValue = resolution * edgesTo - (nodeWeight * (weightSum - nodeWeight)) / (2.0 * structure.graphWeightSum);
-        } else if ((structure.nodeCommunities[node] == community) && (structure.nodeCommunities[node].size() == 1)) {
-            qValue = 0.0;
-        } else {
-        	qValue = resolution * edgesTo - (nodeWeight * weightSum) / (2.0 * structure.graphWeightSum);
-        }
-        
-        return qValue;
-    }
-    
-    
-    
-    
-    
-    protected class ModEdge {
-
-        private int source;
-        private int target;
-        private double weight;
-
-        public ModEdge(int source, int target, double weight) {
-            this.source = source;
-            this.target = target;
-            this.weight = weight;
-        }
-        
-        public int getSource() {
-        	return source;
-        }
-        
-        public int getTarget() {
-        	return target;
-        }
-        
-        public double getWeight() {
-        	return weight;
-        }
-    }
-    
-    
-    
-    
+    /**
+     * The graph being aggregated, held as a compressed sparse row adjacency over 
+     * int node indices. Each call to zoomOut collapses the communities of the current 
+     * level into the nodes of the next, reusing the buffers allocated up front so that 
+     * node moves and level changes never allocate.
+     * <p>
+     * Nodes are moved one colour class at a time. No two nodes of a class are adjacent, 
+     * so the best community of every node in a class can be found concurrently against 
+     * the same state, after which the moves are applied in a fixed order. The result 
+     * depends only on the seed, not on the number of threads.
+     */
     protected class CommunityStructure {
 
-        private Map<Community, Double>[] nodeConnectionsWeight;
-        private Map<Community, Integer>[] nodeConnectionsCount;
-        private Map<Node, Integer> map;
-        private Community[] nodeCommunities;
-        private double[] weights;
-        private double graphWeightSum;
-        private LinkedList<ModEdge>[] topology;
-        private LinkedList<Community> communities;
-        private int N;
-        private Map<Integer, Community> invMap;
+    	// the original nodes, by leaf index
+    	private Node[] nodes;
+    	
+    	// the current level graph: row offsets, neighbor indices and link weights
+    	private int N;
+    	private int[] rowOffsets;
+    	private int[] neighbors;
+    	private double[] linkWeights;
+    	private double[] weights;
+    	private double graphWeightSum;
+    	
+    	// the community of each level node, and the total weight of each community
+    	private int[] nodeCommunities;
+    	private double[] communityWeights;
+    	
+    	// the level node containing each leaf
+    	private int[] leafNodes;
+    	
+    	// spare buffers the next level is built into
+    	private int[] nextRowOffsets;
+    	private int[] nextNeighbors;
+    	private double[] nextLinkWeights;
+    	
+    	// the nodes of the current level grouped by colour, in visiting order
+    	private int colorCount;
+    	private int[] colors;
+    	private int[] colorOffsets;
+    	private int[] colorMembers;
+    	
+    	// the best move found for each node, and its link weight to the target and own community
+    	private int[] targets;
+    	private double[] targetWeights;
+    	private double[] ownWeights;
+    	
+    	// scratch space
+    	private int[] slots;
+    	private int[] members;
+    	private int[] memberOffsets;
+    	private NeighborTable[] tables;
         
         
         
         
-        @SuppressWarnings("unchecked")
 		CommunityStructure() {
         	
         	if (nodeMap == null ||
@@ -215,370 +199,420 @@ public class LouvainAggregator implements OculusAggregator {
         		return;
         	}
             
-            N = nodeMap.size();
-            
-            nodeConnectionsWeight = new HashMap[N];
-            nodeConnectionsCount = new HashMap[N];
-            nodeCommunities = new Community[N];
-            topology = new LinkedList[N];
-            weights = new double[N];
-            map = new HashMap<Node, Integer>();
-            invMap = new HashMap<Integer, Community>();
-            communities = new LinkedList<Community>();
-            
-            int index = 0;
-            for (Node node : nodeMap.values()) {
-            	
-            	if (cancel) {
-            		setStatusWaiting();
-            		return;
+            LevelGraph graph = new LevelGraph() {
+            	@Override
+            	double getLinkWeight(Link link) {
+            		return LouvainAggregator.this.getLinkWeight(link);
             	}
             	
-                map.put(node, index);
-                nodeCommunities[index] = new Community(this);
-                nodeConnectionsWeight[index] = new HashMap<Community, Double>();
-                nodeConnectionsCount[index] = new HashMap<Community, Integer>();
-                weights[index] = 0;
-                nodeCommunities[index].seed(index);
-                Community hidden = new Community(structure);
-                hidden.nodes.add(index);
-                invMap.put(index, hidden);
-                communities.add(nodeCommunities[index]);               
-                index++;
-            } 
-            
-            double progressInterval = 89.0 / (double)nodeMap.size();
-            double progressAccumulation = 0;
-
-            for (Node node : nodeMap.values()) {
-            	
-            	progressAccumulation += progressInterval;
-            	if (progressAccumulation >= 1.0) {
-            		progress += Math.round(progressAccumulation);
-            		progressAccumulation = 0;
-            	}
-            			
-            	if (cancel) {
-            		setStatusWaiting();
-            		return;
+            	@Override
+            	boolean isCancelled() {
+            		return cancel;
             	}
             	
-                int node_index = map.get(node);
-                topology[node_index] = new LinkedList<ModEdge>();
-
-                for (Node neighbor : AggregationUtilities.getNeighbors(node, nodeMap)) {
-                	
-                	if (cancel) {
-                		setStatusWaiting();
-                		return;
-                	}
-                	
-                    if (node == neighbor) {
-                        continue;
-                    }
-                    int neighbor_index = map.get(neighbor);
-                    double weight = getLinkWeight(node, neighbor);
-                      
-                    weights[node_index] += weight;
-                    ModEdge me = new ModEdge(node_index, neighbor_index, weight);
-                    topology[node_index].add(me);
-                    Community adjCom = nodeCommunities[neighbor_index];
-                    nodeConnectionsWeight[node_index].put(adjCom, weight);
-                    nodeConnectionsCount[node_index].put(adjCom, 1);
-                    nodeCommunities[node_index].connectionsWeight.put(adjCom, weight);
-                    nodeCommunities[node_index].connectionsCount.put(adjCom, 1);
-                    nodeConnectionsWeight[neighbor_index].put(nodeCommunities[node_index], weight);
-                    nodeConnectionsCount[neighbor_index].put(nodeCommunities[node_index], 1);
-                    nodeCommunities[neighbor_index].connectionsWeight.put(nodeCommunities[node_index], weight);
-                    nodeCommunities[neighbor_index].connectionsCount.put(nodeCommunities[node_index], 1);
-                    graphWeightSum += weight;
-                }
-            }
-            graphWeightSum /= 2.0;
-        }
-        
-        
-        
-        
-		private void addNodeTo(int node, Community to) {
-            to.add(new Integer(node));
-            nodeCommunities[node] = to;
-
-            for (ModEdge e : topology[node]) {
-                int neighbor = e.getTarget();
-
-                // Remove Node Connection to this community
-                Double neighEdgesTo = nodeConnectionsWeight[neighbor].get(to);
-                if (neighEdgesTo == null) {
-                    nodeConnectionsWeight[neighbor].put(to, e.getWeight());
-                } else {
-                    nodeConnectionsWeight[neighbor].put(to, neighEdgesTo + e.getWeight());
-                }
-                
-                Integer neighCountEdgesTo = nodeConnectionsCount[neighbor].get(to);
-                if (neighCountEdgesTo == null) {
-                    nodeConnectionsCount[neighbor].put(to, 1);
-                } else {
-                    nodeConnectionsCount[neighbor].put(to, neighCountEdgesTo + 1);
-                }
-
-                Community adjCom = nodeCommunities[neighbor];
-                Double wEdgesto = adjCom.connectionsWeight.get(to);
-                if (wEdgesto == null) {
-                    adjCom.connectionsWeight.put(to, e.weight);
-                } else {
-                    adjCom.connectionsWeight.put(to, wEdgesto + e.weight);
-                }
-                
-                Integer cEdgesto = adjCom.connectionsCount.get(to);
-                if (cEdgesto == null) {
-                    adjCom.connectionsCount.put(to, 1);
-                } else {
-                    adjCom.connectionsCount.put(to, cEdgesto + 1);
-                }
-
-                Double nodeEdgesTo = nodeConnectionsWeight[node].get(adjCom);
-                if (nodeEdgesTo == null) {
-                    nodeConnectionsWeight[node].put(adjCom, e.weight);
-                } else {
-                    nodeConnectionsWeight[node].put(adjCom, nodeEdgesTo + e.weight);
-                }
-                
-                Integer nodeCountEdgesTo = nodeConnectionsCount[node].get(adjCom);
-                if (nodeCountEdgesTo == null) {
-                    nodeConnectionsCount[node].put(adjCom, 1);
-                } else {
-                    nodeConnectionsCount[node].put(adjCom, nodeCountEdgesTo + 1);
-                }
-
-                if (to != adjCom) {
-                    Double comEdgesto = to.connectionsWeight.get(adjCom);
-                    if (comEdgesto == null) {
-                        to.connectionsWeight.put(adjCom, e.weight);
-                    } else {
-                        to.connectionsWeight.put(adjCom, comEdgesto + e.weight);
-                    }
-                    
-                    Integer comCountEdgesto = to.connectionsCount.get(adjCom);
-                    if (comCountEdgesto == null) {
-                        to.connectionsCount.put(adjCom, 1);
-                    } else {
-                        to.connectionsCount.put(adjCom, comCountEdgesto + 1);
-                    }
-                }
-            }
-        }
-        
-        
-        
-        
-        private void removeNodeFrom(int node, Community from) {
-                       
-            Community community = nodeCommunities[node];
-            for (ModEdge e : topology[node]) {
-                int neighbor = e.getTarget();
-
-                // Remove Node Connection to this community
-                Double edgesTo = nodeConnectionsWeight[neighbor].get(community);
-                Integer countEdgesTo = nodeConnectionsCount[neighbor].get(community);
-                if (countEdgesTo - 1 == 0) {
-                    nodeConnectionsWeight[neighbor].remove(community);
-                    nodeConnectionsCount[neighbor].remove(community);
-                } else {
-                    nodeConnectionsWeight[neighbor].put(community, edgesTo - e.getWeight());
-                    nodeConnectionsCount[neighbor].put(community, countEdgesTo - 1);
-                }
-
-                // Remove Adjacency Community's connection to this community
-                Community adjCom = nodeCommunities[neighbor];
-                Double oEdgesto = adjCom.connectionsWeight.get(community);
-                Integer oCountEdgesto = adjCom.connectionsCount.get(community);
-                if (oCountEdgesto - 1 == 0) {
-                    adjCom.connectionsWeight.remove(community);
-                    adjCom.connectionsCount.remove(community);
-                } else {
-                    adjCom.connectionsWeight.put(community, oEdgesto - e.getWeight());
-                    adjCom.connectionsCount.put(community, oCountEdgesto - 1);
-                }
-                
-                if (node == neighbor) {
-                    continue;
-                }
-
-                if (adjCom != community) {
-                    Double comEdgesto = community.connectionsWeight.get(adjCom);
-                    Integer comCountEdgesto = community.connectionsCount.get(adjCom);
-                    if (comCountEdgesto - 1 == 0) {
-                        community.connectionsWeight.remove(adjCom);
-                        community.connectionsCount.remove(adjCom);
-                    } else {
-                        community.connectionsWeight.put(adjCom, comEdgesto - e.getWeight());
-                        community.connectionsCount.put(adjCom, comCountEdgesto - 1);
-                    }
-                }
-
-                Double nodeEgesTo = nodeConnectionsWeight[node].get(adjCom);
-                Integer nodeCountEgesTo = nodeConnectionsCount[node].get(adjCom);
-                if (nodeCountEgesTo - 1 == 0) {
-                    nodeConnectionsWeight[node].remove(adjCom);
-                    nodeConnectionsCount[node].remove(adjCom);
-                } else {
-                    nodeConnectionsWeight[node].put(adjCom, nodeEgesTo - e.getWeight());
-                    nodeConnectionsCount[node].put(adjCom, nodeCountEgesTo - 1);
-                }
+            	@Override
+            	void addProgress(long amount) {
+            		progress += amount;
+            	}
+            };
+            
+            if (!graph.build(nodeMap, linkMap, calculateLinkWeights, 89.0)) {
+            	setStatusWaiting();
+            	return;
             }
-            from.remove(new Integer(node));
-        }
-        
-        
-        
-        
-        private void moveNodeTo(int node, Community to) {
-            Community from = nodeCommunities[node];
-            removeNodeFrom(node, from);
-            addNodeTo(node, to);
-        }
-        
-        
-        
-        
-		@SuppressWarnings("unchecked")
-		private void zoomOut() {
-			if (structure == null) {
-				return;
-			}
-			
-            int M = communities.size();
-            LinkedList<ModEdge>[] newTopology = new LinkedList[M];
-            int index = 0;
-            nodeCommunities = new Community[M];
-            nodeConnectionsWeight = new HashMap[M];
-            nodeConnectionsCount = new HashMap[M];
-            HashMap<Integer, Community> newInvMap = new HashMap<Integer, Community>();
             
-            for (int i = 0; i < communities.size(); i++) {
-                Community com = communities.get(i);
-                nodeConnectionsWeight[index] = new HashMap<Community, Double>();
-                nodeConnectionsCount[index] = new HashMap<Community, Integer>();
-                newTopology[index] = new LinkedList<ModEdge>();
-                nodeCommunities[index] = new Community(com);
-                Set<Community> iter = com.connectionsWeight.keySet();
-                double weightSum = 0;
-
-                Community hidden = new Community(structure);
-                for (Integer nodeInt : com.nodes) {
-                    Community oldHidden = invMap.get(nodeInt);
-                    hidden.nodes.addAll(oldHidden.nodes);
-                }
-                
-                newInvMap.put(index, hidden);
-                for(Community adjCom : iter) {
-                    int target = communities.indexOf(adjCom);
-                    double weight = com.connectionsWeight.get(adjCom);
-                    if(target == index)
-                        weightSum += 2.*weight;
-                    else
-                        weightSum += weight;
-                    ModEdge e = new ModEdge(index, target, weight);
-                    newTopology[index].add(e);
-                }
-                
-                weights[index] = weightSum;
-                nodeCommunities[index].seed(index);
-
-                index++;
+            N = graph.N;
+            nodes = graph.nodes;
+            rowOffsets = graph.rowOffsets;
+            neighbors = graph.neighbors;
+            linkWeights = graph.linkWeights;
+            weights = graph.weights;
+            graphWeightSum = graph.graphWeightSum;
+            slots = graph.slots;
+            
+            nodeCommunities = new int[N];
+            communityWeights = new double[N];
+            leafNodes = new int[N];
+            for (int i = 0; i < N; i++) {
+            	nodeCommunities[i] = i;
+            	communityWeights[i] = weights[i];
+            	leafNodes[i] = i;
             }
-            communities.clear();
-
-            for (int i = 0; i < M; i++) {
-                Community com = nodeCommunities[i];
-                communities.add(com);
-                for (ModEdge e : newTopology[i]) {
-                    nodeConnectionsWeight[i].put(nodeCommunities[e.target], e.getWeight());
-                    nodeConnectionsCount[i].put(nodeCommunities[e.target], 1);
-                    com.connectionsWeight.put(nodeCommunities[e.target], e.getWeight());
-                    com.connectionsCount.put(nodeCommunities[e.target], 1);
-                }
-
+            
+            nextRowOffsets = new int[N + 1];
+            nextNeighbors = new int[neighbors.length];
+            nextLinkWeights = new double[linkWeights.length];
+            members = new int[N];
+            memberOffsets = new int[N + 1];
+            
+            colors = new int[N];
+            colorOffsets = new int[N + 1];
+            colorMembers = new int[N];
+            targets = new int[N];
+            targetWeights = new double[N];
+            ownWeights = new double[N];
+            
+            tables = new NeighborTable[Math.max(1, parallelism)];
+            for (int t = 0; t < tables.length; t++) {
+            	tables[t] = new NeighborTable();
             }
-
-            N = M;
-            topology = newTopology;
-            invMap = newInvMap;
         }
-		
-		
-		
-		public Map<Node, Integer> getMap() {
-			return map;
-		}
-    }
-    
-    
-    
-    
-    protected class Community {
-        double weightSum;
-        CommunityStructure structure;
-        LinkedList<Integer> nodes;
-        HashMap<Community, Double> connectionsWeight;
-        HashMap<Community, Integer> connectionsCount;
         
         
         
         
-        public int size() {
-            return nodes.size();
+        /**
+         * Greedily colours the current level in a random order, so that no two
+         * adjacent nodes share a colour, and groups the nodes by colour.
+         */
+        private void colorNodes(Random rand) {
+        	
+        	// visit in random order, using the member buffer
+        	for (int i = 0; i < N; i++) {
+        		members[i] = i;
+        	}
+        	for (int i = N - 1; i > 0; i--) {
+        		int j = rand.nextInt(i + 1);
+        		int swap = members[i];
+        		members[i] = members[j];
+        		members[j] = swap;
+        	}
+        	
+        	// stamp the colours in use around each node, using the member offset buffer
+        	Arrays.fill(colors, 0, N, -1);
+        	Arrays.fill(memberOffsets, 0, N + 1, -1);
+        	colorCount = 0;
+        	
+        	for (int m = 0; m < N; m++) {
+        		int node = members[m];
+        		
+        		for (int k = rowOffsets[node]; k < rowOffsets[node + 1]; k++) {
+        			int color = colors[neighbors[k]];
+        			if (color >= 0) {
+        				memberOffsets[color] = node;
+        			}
+        		}
+        		
+        		int color = 0;
+        		while (memberOffsets[color] == node) {
+        			color++;
+        		}
+        		colors[node] = color;
+        		colorCount = Math.max(colorCount, color + 1);
+        	}
+        	
+        	// bucket by colour, keeping the random order within each colour
+        	Arrays.fill(colorOffsets, 0, colorCount + 1, 0);
+        	for (int i = 0; i < N; i++) {
+        		colorOffsets[colors[i] + 1]++;
+        	}
+        	for (int c = 0; c < colorCount; c++) {
+        		colorOffsets[c + 1] += colorOffsets[c];
+        	}
+        	System.arraycopy(colorOffsets, 0, memberOffsets, 0, colorCount);
+        	for (int m = 0; m < N; m++) {
+        		int node = members[m];
+        		colorMembers[memberOffsets[colors[node]]++] = node;
+        	}
         }
         
         
         
         
-        public Community(Community com) {
-            structure = com.structure;
-            connectionsWeight = new HashMap<Community, Double>();
-            connectionsCount = new HashMap<Community, Integer>();
-            nodes = new LinkedList<Integer>();
+        /**
+         * Makes one pass over the nodes of the current level, colour by colour.
+         * 
+         * @return
+         * 		true if any node changed community
+         */
+        private boolean moveNodes() {
+        	boolean changed = false;
+        	
+        	for (int c = 0; c < colorCount; c++) {
+        		
+        		if (cancel) {
+        			return changed;
+        		}
+        		
+        		evaluateNodes(colorOffsets[c], colorOffsets[c + 1]);
+        		
+        		if (cancel) {
+        			return changed;
+        		}
+        		
+        		for (int m = colorOffsets[c]; m < colorOffsets[c + 1]; m++) {
+        			if (applyMove(colorMembers[m])) {
+        				changed = true;
+        			}
+        		}
+        	}
+        	
+        	return changed;
         }
         
         
         
         
-        public Community(CommunityStructure structure) {
-            this.structure = structure;
-            connectionsWeight = new HashMap<Community, Double>();
-            connectionsCount = new HashMap<Community, Integer>();
-            nodes = new LinkedList<Integer>();
+        /**
+         * Finds the best move for a range of same coloured nodes, splitting it
+         * across the shared executor when it is large enough.
+         */
+        private void evaluateNodes(int start, int end) {
+        	int tasks = Math.min(tables.length, (end - start + MIN_BATCH_SIZE - 1) / MIN_BATCH_SIZE);
+        	
+        	if (tasks <= 1) {
+        		for (int m = start; m < end; m++) {
+        			evaluateNode(colorMembers[m], tables[0]);
+        		}
+        		return;
+        	}
+        	
+        	final List<Future<?>> futures = new ArrayList<Future<?>>(tasks);
+        	final int batchSize = (end - start + tasks - 1) / tasks;
+        	
+        	for (int t = 0; t < tasks; t++) {
+        		final int from = start + t * batchSize;
+        		final int to = Math.min(end, from + batchSize);
+        		final NeighborTable table = tables[t];
+        		
+        		futures.add(executor.submit(new Runnable() {
+        			
+        			@Override
+        			public void run() {
+        				for (int m = from; m < to; m++) {
+        					evaluateNode(colorMembers[m], table);
+        				}
+        			}
+        		}));
+        	}
+        	
+        	for (Future<?> future : futures) {
+        		try {
+        			future.get();
+        		} catch (InterruptedException e) {
+        			Thread.currentThread().interrupt();
+        			requestCancel();
+        		} catch (ExecutionException e) {
+        			throw new IllegalStateException("Louvain node evaluation failed", e.getCause());
+        		}
+        	}
         }
         
         
         
         
-        public void seed(int node) {
-            nodes.add(node);
-            weightSum += structure.weights[node];
+        /**
+         * Finds the adjacent community of greatest modularity gain for a node, 
+         * without changing any shared state.
+         */
+        private void evaluateNode(int node, NeighborTable table) {
+        	int nodeCommunity = nodeCommunities[node];
+        	double nodeWeight = weights[node];
+        	
+        	table.ensureCapacity(rowOffsets[node + 1] - rowOffsets[node]);
+        	for (int k = rowOffsets[node]; k < rowOffsets[node + 1]; k++) {
+        		int neighbor = neighbors[k];
+        		if (neighbor != node) {
+        			table.add(nodeCommunities[neighbor], linkWeights[k]);
+        		}
+        	}
+        	
+        	double best = 0.;
+        	int bestCommunity = nodeCommunity;
+        	double bestWeight = 0.;
+        	double ownWeight = Double.NaN;
+        	
+        	for (int s = 0; s < table.size(); s++) {
+        		int community = table.getCommunity(s);
+        		double edgesTo = table.getWeight(s);
+        		
+        		// evaluate with the node taken out of its own community
+        		double weightSum = communityWeights[community];
+        		if (community == nodeCommunity) {
+        			weightSum -= nodeWeight;
+        			ownWeight = edgesTo;
+        		}
+        		
+        		double qValue = resolution * edgesTo - (nodeWeight * weightSum) / (2.0 * graphWeightSum);
+        		if (qValue > best) {
+        			best = qValue;
+        			bestCommunity = community;
+        			bestWeight = edgesTo;
+        		}
+        	}
+        	
+        	table.clear();
+        	
+        	targets[node] = bestCommunity;
+        	targetWeights[node] = bestWeight;
+        	ownWeights[node] = ownWeight;
         }
         
         
         
         
-        public boolean add(int node) {
-            nodes.addLast(new Integer(node));
-            weightSum += structure.weights[node];
-            return true;
+        /**
+         * Moves a node to its evaluated target, if the move still has a positive 
+         * gain once earlier moves of the same colour are taken into account.
+         * 
+         * @return
+         * 		true if the node changed community
+         */
+        private boolean applyMove(int node) {
+        	int nodeCommunity = nodeCommunities[node];
+        	int target = targets[node];
+        	if (target == nodeCommunity) {
+        		return false;
+        	}
+        	
+        	// no neighbor of this node has moved, so only the community weights can be stale
+        	double nodeWeight = weights[node];
+        	double scale = nodeWeight / (2.0 * graphWeightSum);
+        	double qTarget = resolution * targetWeights[node] - scale * communityWeights[target];
+        	double qOwn = 0.;
+        	if (!Double.isNaN(ownWeights[node])) {
+        		qOwn = Math.max(qOwn, resolution * ownWeights[node] - scale * (communityWeights[nodeCommunity] - nodeWeight));
+        	}
+        	if (qTarget <= qOwn) {
+        		return false;
+        	}
+        	
+        	communityWeights[nodeCommunity] -= nodeWeight;
+        	communityWeights[target] += nodeWeight;
+        	nodeCommunities[node] = target;
+        	
+        	return true;
         }
         
         
         
         
-        public boolean remove(int node) {
-            boolean result = nodes.remove(new Integer(node));
-            weightSum -= structure.weights[node];
-            if (nodes.size() == 0) {
-                structure.communities.remove(this);
-            }
-            return result;
+        /**
+         * Collapses each community into a single node of a new level graph. Links
+         * between members of a community become a self link of the new node.
+         */
+		private void zoomOut() {
+			
+			// number the communities in use, reusing the slot array
+			int M = 0;
+			for (int i = 0; i < N; i++) {
+				int community = nodeCommunities[i];
+				if (slots[community] < 0) {
+					slots[community] = M++;
+				}
+			}
+			
+			// bucket the level nodes by their new index
+			Arrays.fill(memberOffsets, 0, M + 1, 0);
+			for (int i = 0; i < N; i++) {
+				memberOffsets[slots[nodeCommunities[i]] + 1]++;
+			}
+			for (int c = 0; c < M; c++) {
+				memberOffsets[c + 1] += memberOffsets[c];
+			}
+			System.arraycopy(memberOffsets, 0, nextRowOffsets, 0, M);
+			for (int i = 0; i < N; i++) {
+				members[nextRowOffsets[slots[nodeCommunities[i]]]++] = i;
+			}
+			
+			for (int v = 0; v < leafNodes.length; v++) {
+				leafNodes[v] = slots[nodeCommunities[leafNodes[v]]];
+			}
+			
+			// renumber neighbors into the new level, then merge them per community
+			for (int k = 0; k < rowOffsets[N]; k++) {
+				neighbors[k] = slots[nodeCommunities[neighbors[k]]];
+			}
+			for (int i = 0; i < N; i++) {
+				slots[i] = -1;
+			}
+			
+			int write = 0;
+			for (int c = 0; c < M; c++) {
+				nextRowOffsets[c] = write;
+				
+				for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+					int i = members[m];
+					
+					for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+						int target = neighbors[k];
+						if (slots[target] < 0) {
+							slots[target] = write;
+							nextNeighbors[write] = target;
+							nextLinkWeights[write] = linkWeights[k];
+							write++;
+						} else {
+							nextLinkWeights[slots[target]] += linkWeights[k];
+						}
+					}
+				}
+				
+				for (int k = nextRowOffsets[c]; k < write; k++) {
+					slots[nextNeighbors[k]] = -1;
+				}
+			}
+			nextRowOffsets[M] = write;
+			
+			int[] swapOffsets = rowOffsets;
+			rowOffsets = nextRowOffsets;
+			nextRowOffsets = swapOffsets;
+			
+			int[] swapNeighbors = neighbors;
+			neighbors = nextNeighbors;
+			nextNeighbors = swapNeighbors;
+			
+			double[] swapWeights = linkWeights;
+			linkWeights = nextLinkWeights;
+			nextLinkWeights = swapWeights;
+			
+			N = M;
+			for (int c = 0; c < N; c++) {
+				weights[c] = 0;
+				for (int k = rowOffsets[c]; k < rowOffsets[c + 1]; k++) {
+					weights[c] += linkWeights[k];
+				}
+				nodeCommunities[c] = c;
+				communityWeights[c] = weights[c];
+			}
         }
+		
+		
+		
+		
+		/**
+		 * @return
+		 * 		a dense community number for each leaf node
+		 */
+		private int[] getCommunityStructure() {
+			int[] comStructure = new int[leafNodes.length];
+			
+			int count = 0;
+			for (int v = 0; v < leafNodes.length; v++) {
+				int community = nodeCommunities[leafNodes[v]];
+				if (slots[community] < 0) {
+					slots[community] = count++;
+				}
+				comStructure[v] = slots[community];
+			}
+			
+			Arrays.fill(slots, 0, N, -1);
+			
+			return comStructure;
+		}
+		
+		
+		
+		
+		public Node[] getNodes() {
+			return nodes;
+		}
+		
+		
+		
+		
+		public int size() {
+			return N;
+		}
     }
 
 
@@ -625,8 +659,22 @@ public class LouvainAggregator implements OculusAggregator {
 		progress = 1;
 		
 		structure = new CommunityStructure();
+		
+		if (cancel) {
+    		setStatusWaiting();
+    		return;
+    	}
     	
-        Random rand = new Random();
+		if (structure.size() == 0) {
+			parceCommunities(new int[0]);
+			setStatusWaiting();
+			progress = 100;
+			return;
+		}
+		
+        // we always use randomisation as it produces a better decomposition. However,
+        // it does increase the computation time.
+        Random rand = (seed != null)? new Random(seed.longValue()) : new Random();
 
         boolean someChange = true;
         while (someChange) {
@@ -637,6 +685,8 @@ public class LouvainAggregator implements OculusAggregator {
         	}
         	
             someChange = false;
+            structure.colorNodes(rand);
+            
             boolean localChange = true;
             while (localChange) {
             	
@@ -645,45 +695,14 @@ public class LouvainAggregator implements OculusAggregator {
             		return;
             	}
             	
-                localChange = false;
-                
-                // we always use randomisation as it produces a better decomposition. However,
-                // it does increase the computation time.
-                int start = Math.abs(rand.nextInt()) % structure.N;
-                
-                int step = 0;
-                for (int i = start; step < structure.N; i = (i + 1) % structure.N) {
-                	
-                	if (cancel) {
-                		setStatusWaiting();
-                		return;
-                	}
-                	
-                    step++;
-                    double best = 0.;
-                    Community bestCommunity = null;
-                    Community nodecom = structure.nodeCommunities[i];
-                    Set<Community> iter = structure.nodeConnectionsWeight[i].keySet();
-                    for(Community com : iter) {
-                    	
-                    	if (cancel) {
-                    		setStatusWaiting();
-                    		return;
-                    	}
-                    	
-                        double qValue = q(i, com);
-                        if (qValue > best) {
-                            best = qValue;
-                            bestCommunity = com;
-                        } 
-                    }
-                    if ((nodecom != bestCommunity) && (bestCommunity != null)) {
-                        structure.moveNodeTo(i, bestCommunity);
-                        localChange = true;
-                    }
-                }
+                localChange = structure.moveNodes();
                 someChange = localChange || someChange;
             }
+            
+            if (cancel) {
+        		setStatusWaiting();
+        		return;
+        	}
 
             if (someChange) {
                 structure.zoomOut();
@@ -692,35 +711,7 @@ public class LouvainAggregator implements OculusAggregator {
         
         progress = 95;
 
-        int[] comStructure = new int[nodeMap.size()];
-        int count = 0;
-        for (Community com : structure.communities) {
-            
-        	if (cancel) {
-        		setStatusWaiting();
-        		return;
-        	}
-        	
-        	for (Integer node : com.nodes) {
-                
-        		if (cancel) {
-            		setStatusWaiting();
-            		return;
-            	}
-            	
-            	Community hidden = structure.invMap.get(node);
-                for (Integer nodeInt : hidden.nodes) {
-                	
-                	if (cancel) {
-                		setStatusWaiting();
-                		return;
-                	}
-                    
-                	comStructure[nodeInt] = count;
-                }
-            }
-            count++;
-        }
+        int[] comStructure = structure.getCommunityStructure();
         
         progress = 98;
         
@@ -797,4 +788,26 @@ public class LouvainAggregator implements OculusAggregator {
 	public void calculateLinkWeighting(boolean calculateLinkWeights) {
 		this.calculateLinkWeights = calculateLinkWeights;
 	}
+	
+	
+	
+	
+	/**
+	 * Seeds the node visiting order, so that the same graph always 
+	 * produces the same cluster set. Unseeded runs vary.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	
+	
+	
+	
+	/**
+	 * Sets the maximum number of threads used to evaluate node moves. Defaults 
+	 * to the number of available processors. The cluster set does not depend on it.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
 }
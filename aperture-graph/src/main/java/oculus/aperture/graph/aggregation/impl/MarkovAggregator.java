@@ -25,16 +25,24 @@
 package oculus.aperture.graph.aggregation.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import net.sf.javaml.clustering.mcl.SparseMatrix;
-import net.sf.javaml.clustering.mcl.SparseVector;
 import oculus.aperture.graph.aggregation.ClusterConverter;
 import oculus.aperture.graph.aggregation.OculusAggregator;
 import oculus.aperture.spi.common.Link;
@@ -50,6 +58,20 @@ public class MarkovAggregator implements OculusAggregator {
 	
 	private final static Logger logger = LoggerFactory.getLogger(MarkovAggregator.class);
 	
+	// the number of rows a worker claims at a time
+	private final static int ROW_CHUNK_SIZE = 64;
+	
+	private final static int nThreads = Runtime.getRuntime().availableProcessors();
+	private final static ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "MarkovAggregator Pool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	protected ClusterConverter clusterer = null;
 	protected Map<String, Node> nodeMap = null;
     protected Map<String, Link> linkMap = null;
@@ -59,6 +81,8 @@ public class MarkovAggregator implements OculusAggregator {
     private volatile boolean cancel = false;
     private String status = STATUS_WAITING;
     private int progress;
+    private int parallelism = nThreads;
+    private int maxRowEntries = 1000;
 	
     
 	public MarkovAggregator() {}
@@ -81,12 +105,12 @@ public class MarkovAggregator implements OculusAggregator {
 	    	return null;
 	    }
 		
+		// members share one list per cluster, so lists are told apart by identity
 		List<Set<Node>> clusterSet =  new ArrayList<Set<Node>>();
-        Set<ArrayList<Integer>> sortedClusters = new HashSet<ArrayList<Integer>>();
+        Set<ArrayList<Integer>> sortedClusters = Collections.newSetFromMap(new IdentityHashMap<ArrayList<Integer>, Boolean>());
 		for (ArrayList<Integer> c : map.values()) {
 			
-			if (!sortedClusters.contains(c)) {
-				sortedClusters.add(c);
+			if (sortedClusters.add(c)) {
 				
 				Set<Node> cluster = new HashSet<Node>();
 				for (Integer in : c) {
@@ -94,10 +118,6 @@ public class MarkovAggregator implements OculusAggregator {
 					cluster.add(nodeMap.get(nodeId));
 				}
 				
-				if (clusterSet.contains(cluster)) {
-					continue;
-				}
-				
 				clusterSet.add(cluster);
 			}
 		}
@@ -108,7 +128,7 @@ public class MarkovAggregator implements OculusAggregator {
 
 
 
-	private SparseMatrix run(SparseMatrix a, double maxResidual, double pGamma, double loopGain, double maxZero) {
+	private SparseRowMatrix run(SparseRowMatrix a, double maxResidual, double pGamma, double loopGain, double maxZero) {
 		
         // add cycles
         addLoops(a, loopGain);
@@ -116,6 +136,11 @@ public class MarkovAggregator implements OculusAggregator {
         // make stochastic
         a.normaliseRows();
         
+        ExpansionWorker[] workers = new ExpansionWorker[Math.max(1, parallelism)];
+        for (int t = 0; t < workers.length; t++) {
+        	workers[t] = new ExpansionWorker(a.size, pGamma, maxZero);
+        }
+        
         double residual = 1.;
 
         // main iteration
@@ -126,9 +151,10 @@ public class MarkovAggregator implements OculusAggregator {
         		return null;
         	}
         	
-            a = expand(a);
-            residual = inflate(a, pGamma, maxZero);
-            logger.debug("residual energy = " + residual);
+        	SparseRowMatrix next = new SparseRowMatrix(a.size);
+            residual = expandAndInflate(a, next, workers);
+            a = next;
+            logger.debug("residual energy = " + residual + " with " + a.getNonZeroCount() + " non zero entries");
         }
         return a;
     }
@@ -136,92 +162,301 @@ public class MarkovAggregator implements OculusAggregator {
 	
 	
 	
-	private void addLoops(SparseMatrix a, double loopGain) {
+	private void addLoops(SparseRowMatrix a, double loopGain) {
         if (loopGain <= 0) {
             return;
         }
-        for (int i = 0; i < a.size(); i++) {
-            a.add(i, i, loopGain);
-        }
+        a.addToDiagonal(loopGain);
     }
 	
 	
 	
 	
-	private SparseMatrix expand(SparseMatrix m) {
-        m = m.times(m);
-        return m;
-    }
+	/**
+	 * Squares the matrix and inflates the result in a single pass over its rows, 
+	 * split across the shared executor. 
+	 * 
+	 * @return
+	 * 		the largest residual energy of any row
+	 */
+	private double expandAndInflate(
+		final SparseRowMatrix m, 
+		final SparseRowMatrix next, 
+		ExpansionWorker[] workers
+	) {
+		final AtomicInteger nextRow = new AtomicInteger(0);
+		int tasks = Math.min(workers.length, (m.size + ROW_CHUNK_SIZE - 1) / ROW_CHUNK_SIZE);
+		
+		if (tasks <= 1) {
+			return workers[0].expandRows(m, next, nextRow);
+		}
+		
+		final List<Future<Double>> futures = new ArrayList<Future<Double>>(tasks);
+		for (int t = 0; t < tasks; t++) {
+			final ExpansionWorker worker = workers[t];
+			
+			futures.add(executor.submit(new Callable<Double>() {
+				
+				@Override
+				public Double call() throws Exception {
+					return worker.expandRows(m, next, nextRow);
+				}
+			}));
+		}
+		
+		double residual = 0.;
+		for (Future<Double> future : futures) {
+			try {
+				residual = Math.max(residual, future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				requestCancel();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Markov expansion failed", e.getCause());
+			}
+		}
+		
+		return residual;
+	}
 	
 	
 	
 	
-	private double inflate(SparseMatrix m, double p, double zeromax) {
-        double res = 0.;
-
-        m.hadamardPower(p);
-        m.prune(zeromax);
-        SparseVector rowsums = m.normalise(1.);
-
-        // check if done: if the maximum element
-        for (int i : rowsums.keySet()) {
-            SparseVector row = m.get(i);
-            double max = row.max();
-            double sumsq = row.sum(2.);
-            res = Math.max(res, max - sumsq);
-        }
-        return res;
-    }
+	/**
+	 * Computes rows of the square of a row stochastic matrix, then raises each 
+	 * entry to the inflation power, prunes small entries, keeps only the largest
+	 * entries of long rows and normalises, all before the row is stored. Each 
+	 * worker owns a dense accumulator, so rows are computed without locking.
+	 */
+	private class ExpansionWorker {
+		
+		private final double p;
+		private final double zeromax;
+		private final double[] accumulator;
+		private final boolean[] touched;
+		private final int[] touchedColumns;
+		private int[] keptColumns = new int[16];
+		private double[] keptValues = new double[16];
+		
+		
+		
+		
+		ExpansionWorker(int size, double p, double zeromax) {
+			this.p = p;
+			this.zeromax = zeromax;
+			this.accumulator = new double[size];
+			this.touched = new boolean[size];
+			this.touchedColumns = new int[size];
+		}
+		
+		
+		
+		
+		double expandRows(SparseRowMatrix m, SparseRowMatrix next, AtomicInteger nextRow) {
+			double residual = 0.;
+			
+			int start;
+			while ((start = nextRow.getAndAdd(ROW_CHUNK_SIZE)) < m.size) {
+				
+				if (cancel) {
+					break;
+				}
+				
+				int end = Math.min(m.size, start + ROW_CHUNK_SIZE);
+				for (int i = start; i < end; i++) {
+					residual = Math.max(residual, expandRow(m, next, i));
+				}
+			}
+			
+			return residual;
+		}
+		
+		
+		
+		
+		private double expandRow(SparseRowMatrix m, SparseRowMatrix next, int i) {
+			
+			// expand: row i of m times m
+			int count = 0;
+			int[] rowColumns = m.columns[i];
+			double[] rowValues = m.values[i];
+			for (int a = 0; a < rowColumns.length; a++) {
+				int k = rowColumns[a];
+				double mik = rowValues[a];
+				int[] kColumns = m.columns[k];
+				double[] kValues = m.values[k];
+				
+				for (int b = 0; b < kColumns.length; b++) {
+					int j = kColumns[b];
+					if (!touched[j]) {
+						touched[j] = true;
+						touchedColumns[count++] = j;
+					}
+					accumulator[j] += mik * kValues[b];
+				}
+			}
+			
+			if (keptColumns.length < count) {
+				keptColumns = new int[count];
+				keptValues = new double[count];
+			}
+			
+			// inflate and prune
+			int kept = 0;
+			double sum = 0.;
+			for (int t = 0; t < count; t++) {
+				int j = touchedColumns[t];
+				double value = accumulator[j];
+				accumulator[j] = 0.;
+				touched[j] = false;
+				
+				value = (p == 2.0)? value * value : Math.pow(value, p);
+				if (value < zeromax) {
+					continue;
+				}
+				
+				keptColumns[kept] = j;
+				keptValues[kept] = value;
+				kept++;
+			}
+			
+			if (maxRowEntries > 0 && kept > maxRowEntries) {
+				selectLargest(kept, maxRowEntries);
+				kept = maxRowEntries;
+			}
+			
+			for (int t = 0; t < kept; t++) {
+				sum += keptValues[t];
+			}
+			
+			// normalise, and measure how far the row is from converged
+			double max = 0.;
+			double sumsq = 0.;
+			double[] values = new double[kept];
+			for (int t = 0; t < kept; t++) {
+				double value = keptValues[t] / sum;
+				values[t] = value;
+				max = Math.max(max, value);
+				sumsq += value * value;
+			}
+			
+			next.columns[i] = Arrays.copyOf(keptColumns, kept);
+			next.values[i] = values;
+			
+			return max - sumsq;
+		}
+		
+		
+		
+		
+		/**
+		 * Partially sorts the kept entries so that the largest k come first.
+		 */
+		private void selectLargest(int count, int k) {
+			int lo = 0;
+			int hi = count - 1;
+			
+			while (lo < hi) {
+				double pivot = keptValues[(lo + hi) >>> 1];
+				int a = lo;
+				int b = hi;
+				
+				while (a <= b) {
+					while (keptValues[a] > pivot) a++;
+					while (keptValues[b] < pivot) b--;
+					if (a <= b) {
+						double value = keptValues[a];
+						keptValues[a] = keptValues[b];
+						keptValues[b] = value;
+						
+						int column = keptColumns[a];
+						keptColumns[a] = keptColumns[b];
+						keptColumns[b] = column;
+						
+						a++;
+						b--;
+					}
+				}
+				
+				if (k - 1 <= b) {
+					hi = b;
+				} else if (k - 1 >= a) {
+					lo = a;
+				} else {
+					break;
+				}
+			}
+		}
+	}
 	
 	
 	
 	
-	private Map<Integer, ArrayList<Integer>> getClusters(SparseMatrix matrix) {
-		 
-        Map<Integer, ArrayList<Integer>> clusters = new HashMap<Integer, ArrayList<Integer>>();
-        double[][] mat = matrix.getDense();
-        for (int i = 0; i < mat.length; i++) {
-            for (int j = 0; j < mat[0].length; j++) {
-                double value = mat[i][j];
-                if (value != 0.0) {
-                    if (i == j) {
-                        continue;
-                    }
- 
-                    if (clusters.containsKey(j)) {
-                        ArrayList<Integer> columnCluster = clusters.get(j);
-                        if (clusters.containsKey(i)) {
-                            ArrayList<Integer> rowCluster = clusters.get(i);
-                            if (rowCluster == columnCluster) {
-                                continue;
-                            }
-                            columnCluster.addAll(rowCluster);
-                        } else {
-                            columnCluster.add(i);
-                        }
-                        for (Integer in : columnCluster) {
-                            clusters.put(in, columnCluster);
-                        }
-                    } else {
-                        ArrayList<Integer> rowCluster;
-                        if (clusters.containsKey(i)) {
-                            rowCluster = clusters.get(i);
-                            rowCluster.add(j);
-                        } else {
-                            rowCluster = new ArrayList<Integer>();
-                            rowCluster.add(j);
-                            rowCluster.add(i);
-                        }
-                        for (Integer in : rowCluster) {
-                            clusters.put(in, rowCluster);
-                        }
-                    }
-                }
-            }
-        }
- 
-        return clusters;
-    }
+	/**
+	 * Groups the nodes joined by any off diagonal entry of the converged matrix, 
+	 * reading the sparse rows directly so that memory stays proportional to the 
+	 * number of non zero entries. Each node in a cluster maps to the same list.
+	 */
+	private Map<Integer, ArrayList<Integer>> getClusters(SparseRowMatrix matrix) {
+		
+		int n = matrix.size;
+		int[] parent = new int[n];
+		boolean[] joined = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			parent[i] = i;
+		}
+		
+		for (int i = 0; i < n; i++) {
+			int[] rowColumns = matrix.columns[i];
+			double[] rowValues = matrix.values[i];
+			
+			for (int k = 0; k < rowColumns.length; k++) {
+				int j = rowColumns[k];
+				if (i == j || rowValues[k] == 0.0) {
+					continue;
+				}
+				
+				joined[i] = true;
+				joined[j] = true;
+				
+				int rootI = find(parent, i);
+				int rootJ = find(parent, j);
+				if (rootI != rootJ) {
+					parent[rootJ] = rootI;
+				}
+			}
+		}
+		
+		Map<Integer, ArrayList<Integer>> clusters = new HashMap<Integer, ArrayList<Integer>>();
+		Map<Integer, ArrayList<Integer>> roots = new HashMap<Integer, ArrayList<Integer>>();
+		for (int i = 0; i < n; i++) {
+			if (!joined[i]) {
+				continue;
+			}
+			
+			int root = find(parent, i);
+			ArrayList<Integer> cluster = roots.get(root);
+			if (cluster == null) {
+				cluster = new ArrayList<Integer>();
+				roots.put(root, cluster);
+			}
+			cluster.add(i);
+			clusters.put(i, cluster);
+		}
+		
+		return clusters;
+	}
+	
+	
+	
+	
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
 
 
 
@@ -267,9 +502,6 @@ public class MarkovAggregator implements OculusAggregator {
 		StopWatch stopWatch = new StopWatch();
 		stopWatch.start();
 		 
-		// create a sparse matrix and populate with links
-		SparseMatrix mat = new SparseMatrix();
-				
 		// create nodeId-to-index lookup table
 		Map<String, Integer> indexLookup = new HashMap<String, Integer>(nodeMap.size());
 		Map<Integer, String> idLookup = new HashMap<Integer, String>(nodeMap.size()); 
@@ -281,17 +513,17 @@ public class MarkovAggregator implements OculusAggregator {
 	    		return;
 	    	}
 			
-			mat.add(
-				index, 
-				index, 
-				0
-			);
-			
 			indexLookup.put(entry.getKey(), index);
 			idLookup.put(index, entry.getKey());
 			index++;
 		}
 		
+		// create a sparse matrix and populate with links, in both directions
+		int[] rows = new int[2 * linkMap.size()];
+		int[] columns = new int[2 * linkMap.size()];
+		double[] weights = new double[2 * linkMap.size()];
+		int count = 0;
+		
 		for (Link link : linkMap.values()) {
 			
 			if (cancel) {
@@ -299,31 +531,37 @@ public class MarkovAggregator implements OculusAggregator {
 	    		return;
 	    	}
 			
-			int row = indexLookup.get(link.getSourceId());
-			int column = indexLookup.get(link.getTargetId());
+			Integer row = indexLookup.get(link.getSourceId());
+			Integer column = indexLookup.get(link.getTargetId());
+			if (row == null || column == null) {
+				continue;
+			}
+			
 			double weight = getLinkWeight(link);
 			
-			mat.add(row, column, weight);
-			mat.add(column, row, weight);
+			rows[count] = row;
+			columns[count] = column;
+			weights[count++] = weight;
+			
+			rows[count] = column;
+			columns[count] = row;
+			weights[count++] = weight;
 		}
 		
 		indexLookup.clear();
 		indexLookup = null;
 		
+		// rows are independent, so the matrix is already in the row-major form MCL wants
+		SparseRowMatrix mat = SparseRowMatrix.fromEntries(nodeMap.size(), rows, columns, weights, count);
+		rows = null;
+		columns = null;
+		weights = null;
 		
 		stopWatch.stop();
 		logger.debug("Sparse matrix creation time: " + stopWatch.toString());
 		stopWatch.reset();
 		stopWatch.start();
 		
-		// The Markov Clustering algorithm wants the matrix in row-major format
-		mat = mat.transpose();
-		
-		stopWatch.stop();
-		logger.debug("Transpose time: " + stopWatch.toString());
-		stopWatch.reset();
-		stopWatch.start();
-		
 		logger.debug("Beginning Markov clusterer...");
 		
 		if (cancel) {
@@ -428,4 +666,26 @@ public class MarkovAggregator implements OculusAggregator {
 	public Collection<Set<Node>> getClusterSet() {
 		return this.clusterSet;
 	}
+	
+	
+	
+	
+	/**
+	 * Sets the maximum number of threads used to expand the matrix. Defaults 
+	 * to the number of available processors.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
+	
+	
+	
+	/**
+	 * Sets the maximum number of entries kept in each row after inflation. Only 
+	 * the largest entries are kept. Zero keeps every entry above the pruning threshold.
+	 */
+	public void setMaxRowEntries(int maxRowEntries) {
+		this.maxRowEntries = Math.max(0, maxRowEntries);
+	}
 }
\ No newline at end of file
@@ -32,18 +32,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import oculus.aperture.graph.aggregation.ClusterConverter;
 import oculus.aperture.graph.aggregation.OculusAggregator;
@@ -60,6 +54,20 @@ public class ModularityAggregator implements OculusAggregator {
 
 	private final static Logger logger = LoggerFactory.getLogger(ModularityAggregator.class);
 	
+	// the fewest links worth handing to another thread
+	private final static int MIN_BATCH_SIZE = 512;
+	
+	private final static int nThreads = Runtime.getRuntime().availableProcessors();
+	private final static ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ModularityAggregator Pool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	protected ClusterConverter clusterer;
     protected Map<String, Node> nodeMap;
     protected Map<String, Link> linkMap;
@@ -69,273 +77,376 @@ public class ModularityAggregator implements OculusAggregator {
     private int progress;
     
     protected volatile GraphAggregationResult result = null;
-	
-	final int nThreads = 10;
-    final ExecutorService executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
-		
-		@Override
-		public Thread newThread(Runnable r) {
-			return new Thread(r, "ModularityAggregator Pool");
-		}
-	});
     
     protected volatile Collection<Set<Node>> clusterSet = null;
     protected volatile GraphAggregationResult graphResult = null;
     
     
     protected ConcurrentLinkedQueue<ModularityNode> groups = new ConcurrentLinkedQueue<ModularityAggregator.ModularityNode>();
-    //protected ConcurrentLinkedQueue<ModularityLink> links = new ConcurrentLinkedQueue<ModularityAggregator.ModularityLink>();
     protected ArrayList<ModularityLink> links=null;
-	protected class ModularityNode implements Comparable<ModularityNode>{		
+    
+    /**
+     * A group of nodes, and the single link to each neighbouring group.
+     */
+	protected class ModularityNode {		
 		
 		public ModularityNode(){}
 		public ModularityNode(Node n){nodes.add(n);}
 		public ArrayList<Node> nodes= new ArrayList<Node>();
-		//public ArrayList<AtomicInteger>  degrees= new ArrayList<AtomicInteger>();
-		public int totalvolume=0;
-		
-		public ArrayList<ModularityLink> links = new ArrayList<ModularityAggregator.ModularityLink>();
-		public ConcurrentHashMap<ModularityNode,AtomicInteger> neighbourcounts = new ConcurrentHashMap<ModularityNode,AtomicInteger>();
-		public void addLink(ModularityLink ln){
-			links.add(ln);
-			ModularityNode s = ln.source;
-			ModularityNode t = ln.target;
-			if(s==this){
-				if(neighbourcounts.containsKey(t)){
-					neighbourcounts.get(t).incrementAndGet();
-				}else{
-					neighbourcounts.put(t, new AtomicInteger(1));
-				}
-				if(nodes.size()==1){
-					//this is first pass. counting degrees
-					totalvolume++;
-				}
-			}else if(t==this){
-				if(neighbourcounts.containsKey(s)){
-					neighbourcounts.get(s).incrementAndGet();
-				}else{
-					neighbourcounts.put(s, new AtomicInteger(1));
-					
-				}
-				if(nodes.size()==1){
-					//this is first pass. counting degrees
-					totalvolume++;
-				}
-				
-			}else{
-				System.out.println("Link being added has nothing to do with this node. Should not happen.");
+		public long totalvolume=0;
+		
+		public HashMap<ModularityNode,ModularityLink> links = new HashMap<ModularityNode,ModularityLink>();
+		
+		/**
+		 * Counts another original link from this group to a neighbour, 
+		 * creating the group link on first use.
+		 */
+		public ModularityLink addLink(ModularityNode neighbour){
+			ModularityLink ln = links.get(neighbour);
+			if(ln==null){
+				ln = new ModularityLink(this,neighbour);
+				links.put(neighbour, ln);
+				neighbour.links.put(this, ln);
 			}
+			ln.count++;
+			return ln;
 		}
-		public int compareTo(final ModularityNode arg1) {
-			if (arg1 == null) return -1;
-		    if (arg1 == this) 
-		    	return 0;
-		    else
-		    	return 1;
-		}
-		public void assimilate(ModularityNode n){
+		
+		/**
+		 * Absorbs a neighbouring group. Links the two groups shared with a third are 
+		 * combined into this group's link, which is added to the combined list, and the 
+		 * redundant ones are returned so that they can be dropped from the heap.
+		 */
+		public List<ModularityLink> assimilate(ModularityNode n, List<ModularityLink> combined){
 			//resistance is futile
+			List<ModularityLink> redundant = new ArrayList<ModularityLink>();
+			
 			nodes.addAll(n.nodes);
 			n.nodes.clear();
-			links.addAll(n.links);
-			n.links.clear();
-			for(Map.Entry<ModularityNode, AtomicInteger> nc : n.neighbourcounts.entrySet()){
-				if(nc.getKey()==this) continue;
-				if(neighbourcounts.containsKey(nc.getKey())){
-					neighbourcounts.get(nc.getKey()).addAndGet(nc.getValue().intValue());
+			totalvolume+=n.totalvolume;
+			
+			links.remove(n);
+			for(Map.Entry<ModularityNode, ModularityLink> nc : n.links.entrySet()){
+				ModularityNode x = nc.getKey();
+				ModularityLink ln = nc.getValue();
+				if(x==this) continue;
+				
+				x.links.remove(n);
+				
+				ModularityLink existing = links.get(x);
+				if(existing!=null){
+					existing.count+=ln.count;
+					combined.add(existing);
+					redundant.add(ln);
 				}else{
-					neighbourcounts.put(nc.getKey(), nc.getValue());
+					if(ln.source==n){
+						ln.source=this;
+					}else{
+						ln.target=this;
+					}
+					links.put(x, ln);
+					x.links.put(this, ln);
 				}
 			}
-			neighbourcounts.remove(n);
-			totalvolume+=n.totalvolume;
-		}
-		
-		@Override
-		public boolean equals(Object other){
-		    if (other == null) return false;
-		    if (other == this) return true;
-		   /* if(other instanceof ModularityNode){
-		    	ModularityNode arg1 = (ModularityNode)other;
-			    if((this.groupID==arg1.groupID && this.node.getId()==arg1.node.getId())) 
-			    	return true;
-			    else
-			    	return false;
-		    }*/
-		    return false;
+			n.links.clear();
+			
+			return redundant;
 		}
 	}
-	protected class ModularityLink  implements Comparable<ModularityLink>{
-		public ModularityLink(){}
+	
+	/**
+	 * The link between two groups, weighted by the number of original links 
+	 * between them.
+	 */
+	protected class ModularityLink {
 		public ModularityLink(ModularityNode s,ModularityNode t){source=s;target=t;}
 		public ModularityNode source;
 		public ModularityNode target;
-		public AtomicLong q=new AtomicLong(0);
-		
-		public int compareTo(final ModularityLink arg1) {
-			if(this.q==arg1.q)
-				return 0;
-			if(this.q.intValue()<arg1.q.intValue())
-				return 1;
-			else
-				return -1;
+		public long count=0;
+		public double q=0;
+		
+		// position in the heap, or -1 when not queued
+		int index=-1;
+		// creation order, which breaks ties between equal gains
+		int order;
+		
+		/**
+		 * The gain in modularity, scaled by the number of links, of merging the two groups.
+		 */
+		double gain(double twiceLinkCount){
+			return count-(source.totalvolume*(double)target.totalvolume)/twiceLinkCount;
+		}
+		
+		void updateQ(double twiceLinkCount){
+			q = gain(twiceLinkCount);
 		}
 	}
 	
-	public ModularityAggregator() {			
-	    Runtime.getRuntime().addShutdownHook(new Thread(){
-			public void run(){
-				try {
-					logger.debug("ModularityAggregator thread pool starting shutdown");
-					executor.shutdown();
-					try {
-						if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
-							logger.error("ModularityAggregator thread pool did not shut down gracefully");
-						}
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-					}
-					executor.shutdownNow();
+	/**
+	 * A binary max heap of links by gain that tracks the position of each link,
+	 * so that a link can be re-keyed or removed after a merge without rebuilding
+	 * the queue.
+	 */
+	private static class LinkHeap {
+		
+		private ModularityLink[] heap;
+		private int size;
+		
+		
+		
+		
+		LinkHeap(List<ModularityLink> links) {
+			heap = links.toArray(new ModularityLink[links.size()]);
+			size = heap.length;
+			for (int i = 0; i < size; i++) {
+				heap[i].index = i;
+			}
+			for (int i = (size >>> 1) - 1; i >= 0; i--) {
+				siftDown(i);
+			}
+		}
+		
+		
+		
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+		
+		
+		
+		
+		ModularityLink peek() {
+			return heap[0];
+		}
+		
+		
+		
+		
+		ModularityLink poll() {
+			ModularityLink top = heap[0];
+			remove(top);
+			return top;
+		}
+		
+		
+		
+		
+		void remove(ModularityLink ln) {
+			int i = ln.index;
+			if (i < 0) {
+				return;
+			}
+			
+			ln.index = -1;
+			size--;
+			
+			if (i != size) {
+				ModularityLink last = heap[size];
+				heap[i] = last;
+				last.index = i;
+				heap[size] = null;
+				update(last);
+			} else {
+				heap[size] = null;
+			}
+		}
+		
+		
+		
+		
+		/**
+		 * Restores the heap order after the gain of a queued link changes.
+		 */
+		void update(ModularityLink ln) {
+			int i = ln.index;
+			if (i < 0) {
+				return;
+			}
+			if (i > 0 && before(ln, heap[(i - 1) >>> 1])) {
+				siftUp(i);
+			} else {
+				siftDown(i);
+			}
+		}
+		
+		
+		
+		
+		private boolean before(ModularityLink a, ModularityLink b) {
+			return a.q > b.q || (a.q == b.q && a.order < b.order);
+		}
+		
+		
+		
+		
+		private void siftUp(int i) {
+			ModularityLink ln = heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!before(ln, heap[parent])) {
+					break;
+				}
+				heap[i] = heap[parent];
+				heap[i].index = i;
+				i = parent;
+			}
+			heap[i] = ln;
+			ln.index = i;
+		}
+		
+		
+		
+		
+		private void siftDown(int i) {
+			ModularityLink ln = heap[i];
+			int half = size >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && before(heap[child + 1], heap[child])) {
+					child++;
 				}
-				catch (Exception e) {
-					logger.error("ModularityAggregator thread pool did not shut down gracefully");
+				if (!before(heap[child], ln)) {
+					break;
 				}
+				heap[i] = heap[child];
+				heap[i].index = i;
+				i = child;
 			}
-		});
+			heap[i] = ln;
+			ln.index = i;
+		}
 	}
 	
+	
+	
+	
+	public ModularityAggregator() {}
+	
+	
+	
+	
 	@Override
 	public void run() {
+		progress = 0;
+		this.clusterSet = null;
+		this.graphResult = null;
+		this.result = null;
+		cancel = false;
+		status = STATUS_AGGREGATING;
 		
-		logger.debug("Running kSnap clustering algorithm on " + nodeMap.size() + " nodes and " + linkMap.size() + " links...");
+		logger.debug("Running Modularity clustering algorithm on " + nodeMap.size() + " nodes and " + linkMap.size() + " links...");
 		
 		StopWatch stopWatch = new StopWatch();
 		stopWatch.start();
 		HashMap<String,ModularityNode> linklookup=new HashMap<String, ModularityAggregator.ModularityNode>();
 		
+		groups = new ConcurrentLinkedQueue<ModularityAggregator.ModularityNode>();
 		for(Node n: nodeMap.values()){
 			ModularityNode mn=new ModularityNode(n);			
 			linklookup.put(n.getId(),mn);		
 			groups.add(mn);
-
 		}
 		links = new ArrayList<ModularityLink>();
 		
+		long linkcount=0;
 		for(Link l: linkMap.values()){
-			if(linklookup.containsKey(l.getSourceId()) && linklookup.containsKey(l.getTargetId())){
-				//if this is not true we have links pointing to an invalid node...
-				ModularityLink ml =new ModularityLink(linklookup.get(l.getSourceId()),linklookup.get(l.getTargetId()));
-				links.add(ml);
-				
-				ModularityNode start= linklookup.get(l.getSourceId());
-				ModularityNode end= linklookup.get(l.getSourceId());
-				start.addLink(ml);
-				end.addLink(ml);
+			ModularityNode start= linklookup.get(l.getSourceId());
+			ModularityNode end= linklookup.get(l.getTargetId());
+			if(start==null || end==null){
+				//links pointing to an invalid node are ignored
+				continue;
 			}
 			
+			start.totalvolume++;
+			end.totalvolume++;
+			linkcount++;
+			
+			if(start==end) continue;
+			
+			ModularityLink ml = start.addLink(end);
+			if(ml.count==1){
+				ml.order=links.size();
+				links.add(ml);
+			}
 		}
 		
-		boolean notterminate = true;
-
-		int linksize;
-		
-		while(notterminate){			
-			final List<Future<?>> futures = new ArrayList<Future<?>>();
-			notterminate = false;
-			final PriorityBlockingQueue<ModularityLink> linksort = new PriorityBlockingQueue<ModularityLink>();
-			linksize= links.size();
-			final int itrsize=linksize/nThreads;
-			for(int i = 0;i<nThreads;i++){
-				
-				final int passval =i; 
-				
-				Future<?> foo = executor.submit(new Callable<Boolean>(){
-					@Override
-					public Boolean call() throws Exception {
-						boolean nt=false;
-						for(int lnknum=0;lnknum<itrsize;lnknum++){							
-							ModularityLink ln = links.get(passval*itrsize + lnknum);
-							long nc=0;
-							if(ln.source.neighbourcounts.containsKey(ln.target)){
-							 nc=ln.source.neighbourcounts.get(ln.target).intValue();
-							}
-							else{
-								System.out.println("Oooops");
-							}
-							
-							long q = nc-(ln.source.totalvolume*ln.target.totalvolume)/2;
-							
-							if(q>0)nt=true;
-							ln.q.set(q);
-							linksort.add(ln);							
-						}
-						return nt;
-					}
-					});
-				
-				futures.add(foo);
-
-				
+		if (cancel) {
+    		setStatusWaiting();
+    		return;
+    	}
+		
+		progress = 10;
+		
+		final double twiceLinkCount = 2.0*linkcount;
+		updateGains(twiceLinkCount);
+		
+		if (cancel) {
+    		setStatusWaiting();
+    		return;
+    	}
+		
+		progress = 20;
+		
+		//Greedily merge the pair of groups with the largest gain. A merge only raises the 
+		//gain of links whose counts were combined, so those are re-keyed straight away, 
+		//while links whose gain fell because a group grew are re-keyed when they reach the top.
+		LinkHeap linksort = new LinkHeap(links);
+		int initialGroups = groups.size();
+		int merges = 0;
+		List<ModularityLink> combined = new ArrayList<ModularityLink>();
+		
+		while(!linksort.isEmpty()){
+			
+			if (cancel) {
+	    		setStatusWaiting();
+	    		return;
+	    	}
+			
+			ModularityLink top = linksort.peek();
+			double q = top.gain(twiceLinkCount);
+			if(q!=top.q){
+				top.q=q;
+				linksort.update(top);
+				continue;
 			}
+			if(q<=0) break;
 			
-			for (Future<?> foo : futures) {
-				try {
-					notterminate=(Boolean)foo.get();
-				} catch (InterruptedException interruptedCancellingAndSignalling) {
-					Thread.currentThread().interrupt();
-				} catch (ExecutionException wtf) {
-					wtf.printStackTrace();
-				}
+			linksort.poll();
+			
+			// merge the group with fewer neighbours into the other, to touch fewer links
+			ModularityNode so = top.source;
+			ModularityNode tr = top.target;
+			if(so.links.size()<tr.links.size()){
+				ModularityNode tmp=so;
+				so=tr;
+				tr=tmp;
 			}
 			
-			if(!notterminate)break;
-			//Now we take each link in the queue and add it to maximal matching 
-			ConcurrentLinkedQueue<ModularityLink> maximalmatching =  new ConcurrentLinkedQueue<ModularityAggregator.ModularityLink>();
-			ConcurrentSkipListSet<ModularityNode> vertexcheck =  new ConcurrentSkipListSet<ModularityAggregator.ModularityNode>();
-			ModularityLink top=linksort.poll();
-			maximalmatching.add(top);
-			vertexcheck.add(top.source);
-			vertexcheck.add(top.target);
-			while(!linksort.isEmpty()){
-				ModularityLink nlnk=linksort.poll();
-				if(nlnk.q.intValue()<0)continue;
-				
-				if(vertexcheck.contains(nlnk.source) || vertexcheck.contains(nlnk.target)) 
-					continue;
-				maximalmatching.add(nlnk);
-				vertexcheck.add(nlnk.source);
-				vertexcheck.add(nlnk.target);
+			for(ModularityLink ln : so.assimilate(tr, combined)){
+				linksort.remove(ln);
 			}
-
-			//Now we take all the pairs in maximal matching and fuse them
-			for(ModularityLink ln : maximalmatching){
-				ModularityNode so = ln.source;
-				ModularityNode tr = ln.target;
-				so.assimilate(tr);
-				groups.remove(tr);
-				
-				
-				links.remove(ln);
+			
+			for(ModularityLink ln : combined){
+				ln.updateQ(twiceLinkCount);
+				linksort.update(ln);
 			}
-			linksize= links.size();
-			if(linksize==1) 
-				notterminate=false;
+			combined.clear();
+			
+			merges++;
+			progress = 20 + (int)(75L*merges/Math.max(1, initialGroups));
 		}
 		
-		/*
-		final List<Future<?>> futures = new ArrayList<Future<?>>();
-		
-		Future<?> foo = executor.submit(new Runnable(){
-
-			@Override
-			public void run() {
-
-			}});
+		//drop the groups that were absorbed
+		ConcurrentLinkedQueue<ModularityNode> remaining = new ConcurrentLinkedQueue<ModularityAggregator.ModularityNode>();
+		for (ModularityNode g : groups) {
+			if (!g.nodes.isEmpty()) {
+				remaining.add(g);
+			}
+		}
+		groups = remaining;
 		
-		futures.add(foo);
-		*/
 		clusterSet = new ArrayList<Set<Node>>();
-
 		
 		for (ModularityNode g : groups) {
 			
@@ -354,20 +465,73 @@ public class ModularityAggregator implements OculusAggregator {
 		    	}
 				
 				set.add(n);
-
-				
 			}
-
 		}
+		
+		progress = 98;
+		
 		if (clusterer != null) {
 			graphResult = clusterer.convertClusterSet(clusterSet);
 		}
 		stopWatch.stop();
-		System.out.println("Finished Modularity clustering algorithm.");
-		System.out.println("Algorithm took " + stopWatch.toString());//30 = 33.487
+		logger.debug("Finished Modularity clustering algorithm.");
+		logger.debug("Algorithm took " + stopWatch.toString());
 		stopWatch.reset();
-		this.result=result;
+		this.result=graphResult;
+		
+		setStatusWaiting();
+		progress = 100;
 	}
+	
+	
+	
+	
+	/**
+	 * Computes the gain of every link, splitting the links into contiguous ranges 
+	 * across the shared executor. The last range takes any remainder.
+	 */
+	private void updateGains(final double twiceLinkCount) {
+		final int linksize = links.size();
+		int tasks = Math.min(nThreads, (linksize + MIN_BATCH_SIZE - 1) / MIN_BATCH_SIZE);
+		
+		if (tasks <= 1) {
+			for (ModularityLink ln : links) {
+				ln.updateQ(twiceLinkCount);
+			}
+			return;
+		}
+		
+		final List<Future<?>> futures = new ArrayList<Future<?>>(tasks);
+		for (int i = 0; i < tasks; i++) {
+			final int start = (int)((long)linksize * i / tasks);
+			final int end = (int)((long)linksize * (i + 1) / tasks);
+			
+			futures.add(executor.submit(new Callable<Boolean>(){
+				@Override
+				public Boolean call() throws Exception {
+					for (int lnknum = start; lnknum < end; lnknum++) {
+						links.get(lnknum).updateQ(twiceLinkCount);
+					}
+					return true;
+				}
+			}));
+		}
+		
+		for (Future<?> foo : futures) {
+			try {
+				foo.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				requestCancel();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Modularity gain computation failed", e.getCause());
+			}
+		}
+	}
+	
+	
+	
+	
 	@Override
 	public void requestCancel() {
 		cancel = true;
@@ -425,4 +589,3 @@ public class ModularityAggregator implements OculusAggregator {
 	}
 
 }
-	
\ No newline at end of file
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.graph.aggregation.impl;
+
+import java.util.Arrays;
+
+/**
+ * An open addressed map from community to link weight, holding the 
+ * communities adjacent to a single node in the order first seen.
+ */
+class NeighborTable {
+	private int[] keys = new int[0];
+	private double[] values = new double[0];
+	private int[] order = new int[0];
+	private int count = 0;
+	private int mask = -1;
+	
+	
+	
+	
+	void ensureCapacity(int degree) {
+		if (2 * degree <= keys.length) {
+			return;
+		}
+		
+		int capacity = Integer.highestOneBit(Math.max(4, 2 * degree) - 1) << 1;
+		keys = new int[capacity];
+		values = new double[capacity];
+		order = new int[capacity];
+		mask = capacity - 1;
+		Arrays.fill(keys, -1);
+	}
+	
+	
+	
+	
+	void add(int community, double weight) {
+		int h = (community * 0x9E3779B1) & mask;
+		while (keys[h] != community) {
+			if (keys[h] < 0) {
+				keys[h] = community;
+				values[h] = 0;
+				order[count++] = h;
+				break;
+			}
+			h = (h + 1) & mask;
+		}
+		values[h] += weight;
+	}
+	
+	
+	
+	
+	int size() {
+		return count;
+	}
+	
+	
+	
+	
+	int getCommunity(int s) {
+		return keys[order[s]];
+	}
+	
+	
+	
+	
+	double getWeight(int s) {
+		return values[order[s]];
+	}
+	
+	
+	
+	
+	void clear() {
+		for (int s = 0; s < count; s++) {
+			keys[order[s]] = -1;
+		}
+		count = 0;
+	}
+}
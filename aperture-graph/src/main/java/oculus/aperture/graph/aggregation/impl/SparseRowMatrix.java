@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.graph.aggregation.impl;
+
+import java.util.Arrays;
+
+
+/**
+ * A square sparse matrix stored as one array of column indices and one array 
+ * of values per row. Rows are independent, so each row of a product can be 
+ * computed and stored by a different thread.
+ */
+class SparseRowMatrix {
+
+	final int size;
+	final int[][] columns;
+	final double[][] values;
+	
+	
+	
+	
+	SparseRowMatrix(int size) {
+		this.size = size;
+		this.columns = new int[size][];
+		this.values = new double[size][];
+	}
+	
+	
+	
+	
+	/**
+	 * Builds a matrix from a list of entries, summing any entries that share 
+	 * a row and column.
+	 */
+	static SparseRowMatrix fromEntries(
+		int size,
+		int[] rows,
+		int[] cols,
+		double[] amounts,
+		int count
+	) {
+		int[] lengths = new int[size];
+		for (int e = 0; e < count; e++) {
+			lengths[rows[e]]++;
+		}
+		
+		SparseRowMatrix matrix = new SparseRowMatrix(size);
+		for (int i = 0; i < size; i++) {
+			matrix.columns[i] = new int[lengths[i]];
+			matrix.values[i] = new double[lengths[i]];
+			lengths[i] = 0;
+		}
+		
+		for (int e = 0; e < count; e++) {
+			int i = rows[e];
+			int k = lengths[i]++;
+			matrix.columns[i][k] = cols[e];
+			matrix.values[i][k] = amounts[e];
+		}
+		
+		// merge repeated columns of each row in place
+		int[] slots = new int[size];
+		Arrays.fill(slots, -1);
+		
+		for (int i = 0; i < size; i++) {
+			int[] rowColumns = matrix.columns[i];
+			double[] rowValues = matrix.values[i];
+			
+			int write = 0;
+			for (int k = 0; k < rowColumns.length; k++) {
+				int j = rowColumns[k];
+				if (slots[j] < 0) {
+					slots[j] = write;
+					rowColumns[write] = j;
+					rowValues[write] = rowValues[k];
+					write++;
+				} else {
+					rowValues[slots[j]] += rowValues[k];
+				}
+			}
+			
+			for (int k = 0; k < write; k++) {
+				slots[rowColumns[k]] = -1;
+			}
+			
+			if (write < rowColumns.length) {
+				matrix.columns[i] = Arrays.copyOf(rowColumns, write);
+				matrix.values[i] = Arrays.copyOf(rowValues, write);
+			}
+		}
+		
+		return matrix;
+	}
+	
+	
+	
+	
+	/**
+	 * Adds an amount to every diagonal entry.
+	 */
+	void addToDiagonal(double amount) {
+		for (int i = 0; i < size; i++) {
+			int[] rowColumns = columns[i];
+			
+			int k = 0;
+			while (k < rowColumns.length && rowColumns[k] != i) {
+				k++;
+			}
+			
+			if (k == rowColumns.length) {
+				columns[i] = Arrays.copyOf(rowColumns, k + 1);
+				columns[i][k] = i;
+				values[i] = Arrays.copyOf(values[i], k + 1);
+			}
+			values[i][k] += amount;
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * Scales each row to sum to one. Empty rows are left empty.
+	 */
+	void normaliseRows() {
+		for (int i = 0; i < size; i++) {
+			double[] row = values[i];
+			
+			double sum = 0;
+			for (int k = 0; k < row.length; k++) {
+				sum += row[k];
+			}
+			if (sum == 0) {
+				continue;
+			}
+			
+			for (int k = 0; k < row.length; k++) {
+				row[k] /= sum;
+			}
+		}
+	}
+	
+	
+	
+	
+	int getNonZeroCount() {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			count += columns[i].length;
+		}
+		return count;
+	}
+}
@@ -29,7 +29,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import oculus.aperture.common.data.BoundedLinearQuantizedRange;
 import oculus.aperture.spi.common.Link;
@@ -37,9 +36,6 @@ import oculus.aperture.spi.common.Node;
 import oculus.aperture.spi.common.data.QuantizedRange;
 
 import org.apache.commons.lang3.time.StopWatch;
-import org.jgrapht.DirectedGraph;
-import org.jgrapht.alg.ConnectivityInspector;
-import org.jgrapht.graph.DefaultDirectedGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,20 +59,27 @@ public class AggregationUtilities {
 		StopWatch stopWatch = new StopWatch();
 		stopWatch.start();
 	
-		// create a JGraphT graph
-		DirectedGraph<Node, Link> graph = new DefaultDirectedGraph<Node, Link>(Link.class);
-			
-		// populate the graph with our nodes and links
-		for (Node node : nodeMap.values()) {
-			graph.addVertex(node);
+		// index the nodes, each in its own set to begin with
+		Node[] nodes = nodeMap.values().toArray(new Node[nodeMap.size()]);
+		Map<String, Integer> indices = new HashMap<String, Integer>(nodes.length);
+		int[] parents = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			indices.put(nodes[i].getId(), i);
+			parents[i] = i;
 		}
 		
-		for (Link link : linkMap.values()) {
-			graph.addEdge( 
-				nodeMap.get(link.getSourceId()), 
-				nodeMap.get(link.getTargetId()),
-				link
-			);
+		// resolve the endpoints of each link once, ignoring links to missing nodes
+		Link[] links = linkMap.values().toArray(new Link[linkMap.size()]);
+		int[] linkSources = new int[links.length];
+		for (int l = 0; l < links.length; l++) {
+			Integer source = indices.get(links[l].getSourceId());
+			Integer target = indices.get(links[l].getTargetId());
+			if (source == null || target == null) {
+				linkSources[l] = -1;
+				continue;
+			}
+			linkSources[l] = source;
+			union(parents, source, target);
 		}
 		
 		stopWatch.stop();
@@ -84,9 +87,21 @@ public class AggregationUtilities {
 		stopWatch.reset();
 		stopWatch.start();
 		
-		// using the JGraphT 
-		ConnectivityInspector<Node, Link> inspector = new ConnectivityInspector<Node, Link>(graph);
-		List<Set<Node>> connectedSets = inspector.connectedSets();
+		// number the components in order of their first node
+		int[] components = new int[nodes.length];
+		int[] componentSizes = new int[nodes.length];
+		int componentCount = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			int root = find(parents, i);
+			if (root == i) {
+				componentSizes[componentCount] = 0;
+				components[i] = componentCount++;
+			}
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			components[i] = components[find(parents, i)];
+			componentSizes[components[i]]++;
+		}
 		
 		stopWatch.stop();
 		logger.debug("Connectivity calculation time: " + stopWatch.toString());
@@ -94,34 +109,18 @@ public class AggregationUtilities {
 		stopWatch.start();
 		
 		// If the original graph is a fully connected graph then we simply return the original graph
-		if (connectedSets.size() == 1) {
+		if (componentCount == 1) {
 			Pair<Map<String, Node>, Map<String, Link>> full_graph = new Pair<Map<String, Node>, Map<String, Link>>(nodeMap, linkMap);
 			List<Pair<Map<String, Node>, Map<String, Link>>> returnList = new ArrayList<Pair<Map<String, Node>, Map<String, Link>>>(1);
 			returnList.add(full_graph);
 			return returnList;
 		}
 		
-		// Iterate over the connected sets and create new subgraphs
-		List<Pair<Map<String, Node>, Map<String, Link>>> returnList = new ArrayList<Pair<Map<String, Node>, Map<String, Link>>>(connectedSets.size());
-		for (Set<Node> subgraph : connectedSets) {
-			Map<String, Node> subgraphNodeMap = new HashMap<String, Node>(subgraph.size());
-			Map<String, Link> subgraphLinkMap = new HashMap<String, Link>(subgraph.size());
-			
-			for (Node source : subgraph) {
-				
-				subgraphNodeMap.put(source.getId(), source);
-				
-				for (Node target : subgraph) {
-					Set<Link> links = graph.getAllEdges(source, target);
-					if (links == null || links.isEmpty()) {
-						continue;
-					}
-					
-					for (Link link : links) {
-						subgraphLinkMap.put(link.getId(), link);
-					}
-				}
-			}
+		// Create the subgraphs, then bucket the nodes and links into them in one pass each
+		List<Pair<Map<String, Node>, Map<String, Link>>> returnList = new ArrayList<Pair<Map<String, Node>, Map<String, Link>>>(componentCount);
+		for (int c = 0; c < componentCount; c++) {
+			Map<String, Node> subgraphNodeMap = new HashMap<String, Node>(componentSizes[c]);
+			Map<String, Link> subgraphLinkMap = new HashMap<String, Link>(componentSizes[c]);
 			
 			Pair<Map<String, Node>, Map<String, Link>> subgraphPair = new Pair<Map<String, Node>, Map<String, Link>>(
 				subgraphNodeMap, 
@@ -130,6 +129,17 @@ public class AggregationUtilities {
 			returnList.add(subgraphPair);
 		}
 		
+		for (int i = 0; i < nodes.length; i++) {
+			returnList.get(components[i]).getFirst().put(nodes[i].getId(), nodes[i]);
+		}
+		
+		for (int l = 0; l < links.length; l++) {
+			if (linkSources[l] < 0) {
+				continue;
+			}
+			returnList.get(components[linkSources[l]]).getSecond().put(links[l].getId(), links[l]);
+		}
+		
 		stopWatch.stop();
 		logger.debug("Subgraph partitioning time: " + stopWatch.toString());
 		stopWatch.reset();
@@ -146,6 +156,35 @@ public class AggregationUtilities {
 	
 	
 	
+	/**
+	 * Finds the root of a node's set, halving the path along the way.
+	 */
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+	
+	
+	
+	
+	private static void union(int[] parents, int a, int b) {
+		int rootA = find(parents, a);
+		int rootB = find(parents, b);
+		
+		// keep the earlier node as the root, so components keep their first node's order
+		if (rootA < rootB) {
+			parents[rootB] = rootA;
+		} else if (rootB < rootA) {
+			parents[rootA] = rootB;
+		}
+	}
+	
+	
+	
+	
 	public static Collection<Node> getNeighbors(
     	Node node,
 		Map<String, Node> nodeMap
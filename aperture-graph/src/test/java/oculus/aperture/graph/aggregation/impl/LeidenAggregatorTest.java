@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.graph.aggregation.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import oculus.aperture.common.BasicLink;
+import oculus.aperture.common.BasicNode;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+
+import org.junit.Test;
+
+/**
+ * Checks that Leiden never reports a community in pieces.
+ */
+public class LeidenAggregatorTest {
+
+	private static void addNode(Map<String, Node> nodes, String id) {
+		nodes.put(id, new BasicNode(id, "node"));
+	}
+	
+	private static void addLink(Map<String, Link> links, String source, String target) {
+		final BasicLink link = new BasicLink("l" + links.size(), source, target);
+		link.setWeight(1.0);
+		links.put(link.getId(), link);
+	}
+	
+	private static LevelGraph createLevelGraph(Map<String, Node> nodes, Map<String, Link> links) {
+		final LevelGraph graph = new LevelGraph() {
+			@Override
+			double getLinkWeight(Link link) {
+				return link.getWeight();
+			}
+			
+			@Override
+			boolean isCancelled() {
+				return false;
+			}
+			
+			@Override
+			void addProgress(long amount) {
+			}
+		};
+		
+		assertTrue(graph.build(nodes, links, true, 0));
+		
+		return graph;
+	}
+	
+	private static boolean isConnected(Set<Node> cluster, Map<String, Link> links) {
+		final Map<String, List<String>> adjacency = new HashMap<String, List<String>>();
+		for (Node node : cluster) {
+			adjacency.put(node.getId(), new ArrayList<String>());
+		}
+		for (Link link : links.values()) {
+			if (adjacency.containsKey(link.getSourceId()) && adjacency.containsKey(link.getTargetId())) {
+				adjacency.get(link.getSourceId()).add(link.getTargetId());
+				adjacency.get(link.getTargetId()).add(link.getSourceId());
+			}
+		}
+		
+		final String first = cluster.iterator().next().getId();
+		final Set<String> reached = new HashSet<String>();
+		final List<String> stack = new ArrayList<String>();
+		reached.add(first);
+		stack.add(first);
+		
+		while (!stack.isEmpty()) {
+			for (String neighbor : adjacency.get(stack.remove(stack.size() - 1))) {
+				if (reached.add(neighbor)) {
+					stack.add(neighbor);
+				}
+			}
+		}
+		
+		return reached.size() == cluster.size();
+	}
+	
+	/**
+	 * Two triangles bridged by a node that has left their community, which 
+	 * is how the move phase can leave a community in pieces.
+	 */
+	@Test
+	public void testSplitCommunities() {
+		final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+		final Map<String, Link> links = new LinkedHashMap<String, Link>();
+		
+		for (String id : new String[] {"a", "b", "c", "d", "e", "f", "bridge"}) {
+			addNode(nodes, id);
+		}
+		addLink(links, "a", "b");
+		addLink(links, "b", "c");
+		addLink(links, "c", "a");
+		addLink(links, "d", "e");
+		addLink(links, "e", "f");
+		addLink(links, "f", "d");
+		addLink(links, "c", "bridge");
+		addLink(links, "bridge", "d");
+		
+		final LevelGraph graph = createLevelGraph(nodes, links);
+		final int[] communities = {0, 0, 0, 0, 0, 0, 6};
+		
+		LevelGraph.splitCommunities(graph.N, graph.rowOffsets, graph.neighbors, 
+				communities, new int[graph.N], new boolean[graph.N]);
+		
+		assertEquals(communities[0], communities[1]);
+		assertEquals(communities[0], communities[2]);
+		assertEquals(communities[3], communities[4]);
+		assertEquals(communities[3], communities[5]);
+		assertFalse(communities[0] == communities[3]);
+		assertFalse(communities[6] == communities[0]);
+		assertFalse(communities[6] == communities[3]);
+	}
+	
+	@Test
+	public void testCommunitiesConnected() {
+		final Random random = new Random(42);
+		final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+		final Map<String, Link> links = new LinkedHashMap<String, Link>();
+		
+		// sparse planted groups, which leave the move phase plenty of bridges to cut
+		final int count = 400;
+		for (int i = 0; i < count; i++) {
+			addNode(nodes, "n" + i);
+		}
+		for (int i = 0; i < count; i++) {
+			for (int j = i + 1; j < count; j++) {
+				if (random.nextDouble() < ((i % 8 == j % 8)? 0.05 : 0.005)) {
+					addLink(links, "n" + i, "n" + j);
+				}
+			}
+		}
+		
+		for (long seed = 1; seed <= 5; seed++) {
+			final LeidenAggregator aggregator = new LeidenAggregator(1.0);
+			aggregator.setSeed(seed);
+			aggregator.setGraph(nodes, links);
+			aggregator.run();
+			
+			for (Set<Node> cluster : aggregator.getClusterSet()) {
+				assertTrue(isConnected(cluster, links));
+			}
+		}
+	}
+}
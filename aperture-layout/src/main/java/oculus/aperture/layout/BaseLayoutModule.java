@@ -26,6 +26,7 @@ package oculus.aperture.layout;
 
 import oculus.aperture.common.rest.ResourceDefinition;
 import oculus.aperture.layout.ffd.FFDLayoutFactory;
+import oculus.aperture.layout.ffd.MultilevelLayoutFactory;
 import oculus.aperture.layout.jgraph.JGraphFactory;
 import oculus.aperture.layout.rest.LayoutResource;
 import oculus.aperture.layout.tag.TrellisDeconflictionFactory;
@@ -48,6 +49,9 @@ public class BaseLayoutModule extends AbstractModule{
 		// should any of these be optional?
 		binder.addBinding().to(FFDLayoutFactory.class);
 		binder.addBinding().to(JGraphFactory.class);
+		
+		// bound after the others so that it is offered large organic layouts first.
+		binder.addBinding().to(MultilevelLayoutFactory.class);
 		binder.addBinding().to(TrellisDeconflictionFactory.class);
 
 		// rest
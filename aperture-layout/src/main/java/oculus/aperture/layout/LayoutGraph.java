@@ -29,6 +29,7 @@ import java.util.Collection;
 import oculus.aperture.spi.common.Extents;
 import oculus.aperture.spi.common.Link;
 import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.LayoutStatistics;
 import oculus.aperture.spi.layout.options.LayoutOptions;
 
 /**
@@ -46,5 +47,10 @@ public interface LayoutGraph {
 	 * Executes the layout.
 	 */
 	public Extents layout(LayoutOptions options);
+	
+	/**
+	 * Returns measures of the last layout, or null if not supported.
+	 */
+	public LayoutStatistics getStatistics();
 
 }
@@ -95,7 +95,7 @@ public class LayoutServices implements LayoutService {
 					
 					final Extents extents = graph.layout(options);
 					
-					return new BasicLayoutResults(nodes, links, extents);
+					return new BasicLayoutResults(nodes, links, extents, graph.getStatistics());
 				}
 			}
 			
@@ -24,7 +24,12 @@
  */
 package oculus.aperture.layout.ffd;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import oculus.aperture.layout.impl.BasicLayoutGraph;
+import oculus.aperture.spi.common.Properties;
+import oculus.aperture.spi.layout.options.GraphLayoutOptions;
 import oculus.aperture.spi.layout.options.LayoutOptions;
 
 /**
@@ -41,11 +46,37 @@ public class FFDLayoutService extends BasicLayoutGraph {
 	 */
 	@Override
 	protected void doLayout(LayoutOptions options) {
-		FFDMultigraphLayouter layouter = new FFDMultigraphLayouter();
+		FFDMultigraphLayouter layouter = createLayouter();
+		
+		// warm start from the positions the nodes arrive with, if asked to, which may be only some of them
+		Properties hints = options.getHints();
+		if (hints != null) {
+			layouter.setIncremental(hints.getBoolean("incremental", false));
+			layouter.setMeasured(hints.getBoolean("statistics", layouter.isMeasured()));
+			
+			if (hints.getObject("positioned") != null) {
+				Set<String> positioned = new HashSet<String>();
+				for (String id : hints.getStrings("positioned")) {
+					positioned.add(id);
+				}
+				layouter.setPositionedNodeIds(positioned);
+			}
+		}
+		if (options instanceof GraphLayoutOptions) {
+			layouter.setSeed(((GraphLayoutOptions)options).getSeed());
+		}
+		
 		try {
-			layouter.determineLayout(getNodes(), getLinks());
+			setStatistics(layouter.determineLayout(getNodes(), getLinks()).getStatistics());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Creates the layouter to use.
+	 */
+	protected FFDMultigraphLayouter createLayouter() {
+		return new FFDMultigraphLayouter();
+	}
 }
@@ -26,22 +26,22 @@ package oculus.aperture.layout.ffd;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 
+import oculus.aperture.layout.impl.BasicLayoutStatistics;
 import oculus.aperture.spi.common.Link;
 import oculus.aperture.spi.common.Node;
 
@@ -55,120 +55,269 @@ import org.apache.log4j.Logger;
  */
 public class FFDLayouter {
 	private static final Logger logger = Logger.getLogger(FFDLayouter.class.getName());
-
+	
+	// the fewest nodes worth handing to another thread
+	private static final int MIN_CHUNK_SIZE = 256;
+	
+	// shared by every layout, rather than a pool per call
+	private static final int nThreads = Integer.parseInt(System.getProperty("dashboard.layouts.FFD.threads", 
+			String.valueOf(Runtime.getRuntime().availableProcessors())));
+	private static final ExecutorService threadPool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "FFDLayouter Pool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	// how hot an incremental layout starts, as a fraction of the temperature of a full layout
+	private static final double INCREMENTAL_TEMPERATURE = Double.parseDouble(System.getProperty("dashboard.layouts.FFD.incremental.temperature", "0.02"));
+	
+	// how much an incremental layout cools with each iteration
+	private static final double INCREMENTAL_COOLING = Double.parseDouble(System.getProperty("dashboard.layouts.FFD.incremental.cooling", "0.9"));
+	
+	// how much the temperature of an adaptive layout changes, and how many improving iterations it takes to warm up
+	private static final double ADAPTIVE_COOLING = 0.9;
+	private static final int ADAPTIVE_PATIENCE = 5;
+	
+	private boolean incremental = false;
+	private NodesPositionState previousPositions;
+	private Set<String> positionedNodeIds;
+	private Long seed;
+	private Set<String> fixedNodeIds;
+	private boolean measured = Boolean.parseBoolean(System.getProperty("dashboard.layouts.FFD.statistics", "false"));
+	
 	/**
-	 * Given a graph and a node, does a depth first search to find all connected nodes.  Connected nodes
-	 * are placed into the foundNodes set.
-	 * @param inModel
-	 * @param node
-	 * @param foundNodes
+	 * In incremental mode nodes which already have a position start from it, new nodes are 
+	 * seeded near their positioned neighbours, and the layout starts cold, so that an expanded 
+	 * graph keeps the shape it had before rather than being laid out again from scratch.
 	 */
-	private void depthFirstSearch(Map<String, Node> nodeMap,
-			Map<String, Collection<Link>> linkMap,
-			Node refNode, 
-			LinkedHashSet<Node> foundNodes) {
-		//Make sure node is in foundNodes
-		foundNodes.add(refNode);
-		
-		//Collection<LayoutLink> edges = inModel.getIncidentEdges(node);  //better be quick
-		Collection<Link> edges = linkMap.get(refNode.getId());
-		if (edges == null){
-			return;
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	public boolean isIncremental() {
+		return incremental;
+	}
+	
+	/**
+	 * The positions of nodes from a previous layout, used in incremental mode. If not set, nodes
+	 * start from the position they arrive with, if positioned.
+	 * @see #setPositionedNodeIds(Set)
+	 */
+	public void setPreviousPositions(NodesPositionState previousPositions) {
+		this.previousPositions = previousPositions;
+	}
+	
+	public NodesPositionState getPreviousPositions() {
+		return previousPositions;
+	}
+	
+	/**
+	 * The ids of the nodes which arrive already positioned in incremental mode, the rest being 
+	 * new. If null, every node is taken to be positioned. Ignored if there are previous positions.
+	 */
+	public void setPositionedNodeIds(Set<String> positionedNodeIds) {
+		this.positionedNodeIds = positionedNodeIds;
+	}
+	
+	public Set<String> getPositionedNodeIds() {
+		return positionedNodeIds;
+	}
+	
+	/**
+	 * Pins the nodes with the given ids, so that they keep the position they arrive with.
+	 */
+	public void setFixedNodeIds(Set<String> fixedNodeIds) {
+		this.fixedNodeIds = fixedNodeIds;
+	}
+	
+	public Set<String> getFixedNodeIds() {
+		return fixedNodeIds;
+	}
+	
+	/**
+	 * Measures the stress and edge crossings of each layout, returned as its statistics, which 
+	 * is left null otherwise. Measuring takes time, so is off unless dashboard.layouts.FFD.statistics 
+	 * is set to true.
+	 */
+	public void setMeasured(boolean measured) {
+		this.measured = measured;
+	}
+	
+	public boolean isMeasured() {
+		return measured;
+	}
+	
+	/**
+	 * Seeds the random initial placement, so that the same graph is always laid out the same 
+	 * way. If null, each layout is different.
+	 */
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+	
+	public Long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * Creates the random number generator for a layout, from the seed if there is one.
+	 */
+	protected Random createRandom() {
+		return seed != null ? new Random(seed) : new Random();
+	}
+	
+	/**
+	 * Returns the known position of a node in incremental mode, or null if it is new.
+	 */
+	Point2D getKnownPosition(Node node) {
+		if (previousPositions != null) {
+			return previousPositions.getPositionForId(node.getId());
 		}
-		for (Link edge : edges) {
-			Node node = nodeMap.get(edge.getSourceId());
-			if (node == refNode){
-				node = nodeMap.get(edge.getTargetId());
-			}
-			
-			//Node already found
-			if (foundNodes.contains(node)) continue;
-			
-			depthFirstSearch(nodeMap, linkMap, node, foundNodes);
+		if (positionedNodeIds == null || positionedNodeIds.contains(node.getId())) {
+			return new Point2D.Double(node.getX(), node.getY());
 		}
-		
+		return null;
 	}
 
 	/**
-	 * Given a graph, return a set of subgraphs, where each subgraph is a connected component of the
-	 * input graph.
+	 * Given a graph, return a list of subgraphs, where each subgraph is a connected component of 
+	 * the input graph. Components are found iteratively, so long chains do not exhaust the stack.
 	 */
-	protected Set<Set<Node>> getConnectedComponents(Collection<? extends Node> nodes,
-			Map<String, Node> nodeMap,
-			Map<String, Collection<Link>> linkMap) {
+	protected List<Set<Node>> getConnectedComponents(Collection<? extends Node> nodeList,
+			Collection<? extends Link> edgeList) {
+		Node[] nodes = nodeList.toArray(new Node[nodeList.size()]);
+		Map<String, Integer> indices = new HashMap<String, Integer>(nodes.length);
+		for (int i = 0; i < nodes.length; i++) {
+			indices.put(nodes[i].getId(), i);
+		}
+		int[][] adjacency = createAdjacency(indices, nodes.length, edgeList);
 		
-		//Keeps track of visited nodes.
-		Set<Node> unvisitedNodes = new HashSet<Node>();
+		int[] labels = new int[nodes.length];
+		int count = labelComponents(nodes.length, adjacency[0], adjacency[1], labels);
 		
-		//Resulting graphs
-		Set<Set<Node>> components = new HashSet<Set<Node>>();
-
-		unvisitedNodes.addAll(nodes);
-		while(!unvisitedNodes.isEmpty()) {
-			Node refNode = unvisitedNodes.iterator().next();
-			LinkedHashSet<Node> componentNodes = new LinkedHashSet<Node>();
-			depthFirstSearch(nodeMap, linkMap, refNode, componentNodes);
-			unvisitedNodes.removeAll(componentNodes);
-			components.add(componentNodes);
-			//System.out.println("["+componentNodes.size()+"] "+unvisitedNodes.size()+"/"+inGraph.getNodes().size());
+		List<Set<Node>> components = new ArrayList<Set<Node>>(count);
+		for (int c = 0; c < count; c++) {
+			components.add(new LinkedHashSet<Node>());
 		}
-
+		for (int i = 0; i < nodes.length; i++) {
+			components.get(labels[i]).add(nodes[i]);
+		}
+		
 		return components;
 	}
-	public NodesPositionState determineLayout(Collection<Node> nodeList, Collection<Link> edgeList) throws Exception {
-		logger.info("Performing Oculus force layout...");
-		
-		// Set initial positions, calculate bounds
-		// Create a node hashmap for quick look-up.
-		Map<String, Node> nodeMap = new HashMap<String, Node>();
-
-		ArrayList<String> fixedNodes = new ArrayList<String>();
-		for (Node node : nodeList){
-			fixedNodes.add(node.getId());
-			nodeMap.put(node.getId(), node);
+	
+	/**
+	 * Resolves link endpoints into an adjacency array indexed by node, dropping loops and links 
+	 * to missing nodes. The neighbours of node i are neighbors[neighborOffsets[i]] up to 
+	 * neighbors[neighborOffsets[i+1]].
+	 * @return the neighbour offsets and the neighbours
+	 */
+	public static int[][] createAdjacency(Map<String, Integer> indices, int nodeCount, Collection<? extends Link> edgeList) {
+		int[] linkSources = new int[edgeList.size()];
+		int[] linkTargets = new int[edgeList.size()];
+		int[] neighborOffsets = new int[nodeCount + 1];
+		int linkCount = 0;
+		for (Link em : edgeList) {
+			Integer source = indices.get(em.getSourceId());
+			Integer target = indices.get(em.getTargetId());
+			if (source == null || target == null || source.intValue() == target.intValue()) continue;
+			linkSources[linkCount] = source;
+			linkTargets[linkCount] = target;
+			neighborOffsets[source + 1]++;
+			neighborOffsets[target + 1]++;
+			linkCount++;
 		}
+		for (int i = 0; i < nodeCount; i++) {
+			neighborOffsets[i + 1] += neighborOffsets[i];
+		}
+		int[] neighbors = new int[neighborOffsets[nodeCount]];
+		int[] fill = Arrays.copyOf(neighborOffsets, nodeCount);
+		for (int l = 0; l < linkCount; l++) {
+			neighbors[fill[linkSources[l]]++] = linkTargets[l];
+			neighbors[fill[linkTargets[l]]++] = linkSources[l];
+		}
+		return new int[][] {neighborOffsets, neighbors};
+	}
+	
+	/**
+	 * Labels each node with the index of its connected component, using an explicit stack 
+	 * rather than recursion. Components are numbered in order of their first node.
+	 * @return the number of components
+	 */
+	static int labelComponents(int nodeCount, int[] neighborOffsets, int[] neighbors, int[] labels) {
+		Arrays.fill(labels, -1);
+		int[] stack = new int[nodeCount];
+		int count = 0;
 		
-		Map<String, Collection<Link>> linkMap = new HashMap<String, Collection<Link>>();		
-		Collection<Link> linkList = null;
-		
-		for (Link link : edgeList){
-			String sourceId = link.getSourceId();
-			String targetId = link.getTargetId();
-
-			linkList = linkMap.get(sourceId);
-			if (linkList == null){
-				linkList = new ArrayList<Link>();
-			}
-			if (!linkList.contains(link)){
-				linkList.add(link);
-				linkMap.put(sourceId, linkList);
-			}
-
-			linkList = linkMap.get(targetId);
-			if (linkList == null){
-				linkList = new ArrayList<Link>();
+		for (int root = 0; root < nodeCount; root++) {
+			if (labels[root] != -1) continue;
+			
+			int top = 0;
+			stack[top++] = root;
+			labels[root] = count;
+			while (top > 0) {
+				int current = stack[--top];
+				for (int n = neighborOffsets[current]; n < neighborOffsets[current + 1]; n++) {
+					int neighbor = neighbors[n];
+					if (labels[neighbor] == -1) {
+						labels[neighbor] = count;
+						stack[top++] = neighbor;
+					}
+				}
 			}
-			if (!linkList.contains(link)){
-				linkList.add(link);
-				linkMap.put(targetId, linkList);
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the indices of the pinned nodes, which keep the position they arrive with, 
+	 * unless all of them are pinned.
+	 */
+	protected BitSet getFixedNodes(Node[] nodes) {
+		BitSet fixed = new BitSet(nodes.length);
+		if (fixedNodeIds != null) {
+			for (int i = 0; i < nodes.length; i++) {
+				if (fixedNodeIds.contains(nodes[i].getId())) {
+					fixed.set(i);
+				}
 			}
+			if (fixed.cardinality() == nodes.length) fixed.clear();
 		}
+		return fixed;
+	}
+	
+	public NodesPositionState determineLayout(Collection<Node> nodeList, Collection<Link> edgeList) throws Exception {
+		logger.info("Performing Oculus force layout...");
 		
+		long startms = System.currentTimeMillis();
 		
-//		fixedNodes.removeAll(Application.getInstance().getGraphViewer().getNodeSelectionModel().getAllSelectedParts());
-		if (fixedNodes.size() == nodeList.size()) fixedNodes.clear();
+		// index the nodes, so that positional state can be held in arrays
+		Node[] nodes = nodeList.toArray(new Node[nodeList.size()]);
+		Map<String, Integer> indices = new HashMap<String, Integer>(nodes.length);
+		for (int i = 0; i < nodes.length; i++) {
+			indices.put(nodes[i].getId(), i);
+		}
+		double[] xs = new double[nodes.length]; // initial positional state
+		double[] ys = new double[nodes.length];
 		
-		long startms = System.currentTimeMillis();
-		Map<String, Point2D> graphNodes = new HashMap<String, Point2D>(); // initial positional state
+		int[][] adjacency = createAdjacency(indices, nodes.length, edgeList);
+		int[] neighborOffsets = adjacency[0];
+		int[] neighbors = adjacency[1];
 		
-		//Find subgraphs
+		BitSet fixed = getFixedNodes(nodes);
 		
-		Set<Set<Node>> subgraphs = getConnectedComponents(nodeList, nodeMap, linkMap);
-		//Set<IGraphModel> subgraphs = Collections.singleton(inModel);
+		//Find subgraphs
+		int[] subgraphs = new int[nodes.length];
+		int subgraphCount = labelComponents(nodes.length, neighborOffsets, neighbors, subgraphs);
 		
-		logger.info("Found "+subgraphs.size()+" connected components in "+(System.currentTimeMillis()-startms)/1000+"s");
+		logger.info("Found "+subgraphCount+" connected components in "+(System.currentTimeMillis()-startms)/1000+"s");
 		
-		Random generator = new Random();
+		Random generator = createRandom();
 
 		double newX, newY;
 		double minX = Double.MAX_VALUE;
@@ -176,110 +325,117 @@ public class FFDLayouter {
 		double minY = Double.MAX_VALUE;
 		double maxY = -Double.MAX_VALUE;
 		
-		int randomDim = (int)Math.sqrt(subgraphs.size());
-		int offx = 0;
-		int offy = 0;
+		// start from any known positions
+		boolean[] positioned = new boolean[nodes.length];
+		int positionedCount = 0;
+		if (incremental) {
+			for (int i = 0; i < nodes.length; i++) {
+				Point2D known = getKnownPosition(nodes[i]);
+				if (known != null) {
+					xs[i] = known.getX();
+					ys[i] = known.getY();
+					positioned[i] = true;
+					positionedCount++;
+				}
+			}
+		}
+		boolean warm = positionedCount > 0;
 		
-		for (Set<Node> subgraph : subgraphs) {
+		if (warm) {
+			seedNewNodes(neighborOffsets, neighbors, xs, ys, positioned, positionedCount, generator);
+			
+			for (int i = 0; i < nodes.length; i++) {
+				if (xs[i] < minX)	minX = xs[i];
+				if (xs[i] > maxX)	maxX = xs[i];
+				if (ys[i] < minY)	minY = ys[i];
+				if (ys[i] > maxY)	maxY = ys[i];
+			}
 			
+			logger.info("Warm starting from "+positionedCount+" of "+nodes.length+" positioned nodes");
 			
-			for (Node nm: subgraph) {
-				if (fixedNodes.contains(nm)) {
+		} else {
+			int randomDim = (int)Math.sqrt(subgraphCount);
+			
+			// give each subgraph a cell of its own, drawing in node order so that a seeded layout is repeatable
+			for (int index = 0; index < nodes.length; index++) {
+				Node nm = nodes[index];
+				if (fixed.get(index)) {
 					newX = nm.getX();
 					newY = nm.getY();
 				} else {
-					newX = generator.nextDouble()+offx;
-					newY = generator.nextDouble()+offy;
+					newX = generator.nextDouble()+subgraphs[index]%randomDim;
+					newY = generator.nextDouble()+subgraphs[index]/randomDim;
 				}
-				graphNodes.put(nm.getId(), new Point2D.Double(newX, newY));
+				xs[index] = newX;
+				ys[index] = newY;
 				if (newX < minX)	minX = newX;
 				if (newX > maxX)	maxX = newX;
 				if (newY < minY)	minY = newY;
 				if (newY > maxY)	maxY = newY;
 			}
-
-			offx++;
-			if (offx >= randomDim) {
-				offx = 0;
-				offy ++;
-			}
 		}
 		
-		// for termination tests
-		double width = maxX - minX;
-		double height = maxY - minY;
+		// for termination tests, with room to move however the nodes start, in a line or at a point
+		double minExtent = Math.max(maxX - minX, maxY - minY) / nodes.length;
+		if (minExtent <= 0) {
+			minExtent = 1; // a cell of a cold start
+		}
+		double width = Math.max(maxX - minX, minExtent);
+		double height = Math.max(maxY - minY, minExtent);
 		double area = width * height;
 		double k = Math.sqrt(area/nodeList.size()); // used to scale the vectors
 		double temperature = 0.5*Math.min(width, height); // initially you cant take steps larger than 15% of the total view
-		double stepLimit = Math.min(maxX - minX, maxY - minY)/1000;
+		double stepLimit = Math.min(width, height)/1000;
+		if (warm) {
+			temperature *= INCREMENTAL_TEMPERATURE; // mostly settled already, so only allow small adjustments
+		}
 		
-		double step = Double.MAX_VALUE;
-		double theta = Double.parseDouble(System.getProperty("dashboard.layouts.FFD.theta", "1.0")); // theta parameter for the Quigley-Eades algorithm, used to choose node/pseudo-node comparison
-		int iteration = 0;
-
-		// create threads
-		int nProcessors = Runtime.getRuntime().availableProcessors();
-		final ExecutorService threadPool = Executors.newFixedThreadPool(nProcessors, new ThreadFactory() {
-			
-			@Override
-			public Thread newThread(Runnable r) {
-				return new Thread(r, "FFDLayouter Pool");
+		double[] progress = new double[2];
+		int iteration = iterate(nodes.length, neighborOffsets, neighbors, fixed, null, xs, ys, k, temperature, stepLimit, 
+				warm ? INCREMENTAL_COOLING : 0, progress);
+		BasicLayoutStatistics statistics = measured ? 
+				LayoutMeasures.measure(neighborOffsets, neighbors, xs, ys, iteration, progress[1], generator) : null;
+		
+		// an incremental layout stays in the space of the positions it started from
+		if (warm) {
+			NodesPositionState nps = new NodesPositionState();
+			for (int i = 0; i < nodes.length; i++) {
+				Node layoutNode = nodes[i];
+				layoutNode.setX((int) xs[i]);
+				layoutNode.setY((int) ys[i]);
+				nps.setPosition(layoutNode.getId(), xs[i], ys[i]);
 			}
-		});
-		
-		Runtime.getRuntime().addShutdownHook(new Thread(){
-			public void run(){
-				try {
-					logger.debug("FFDLayouter thread pool starting shutdown");
-					threadPool.shutdown();
-					try {
-						if (!threadPool.awaitTermination(10, TimeUnit.SECONDS)) {
-							logger.error("FFDLayouter thread pool did not shut down gracefully");
-						}
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-					}
-					threadPool.shutdownNow();
-				}
-				catch (Exception e) {
-					logger.error("FFDLayouter thread pool did not shut down gracefully");
-				}
-			}
-		});
-		
-		int max_iterations = Integer.parseInt(System.getProperty("dashboard.layouts.FFD.max.iterations", "10000"));
-		do {
-			step = doForceLayoutStep(threadPool, nodeList, edgeList, fixedNodes, graphNodes, k, theta, temperature);
-			iteration++;
-			temperature *= (1 - (double)iteration/max_iterations); // RHS approaches 1 as you iterate making the scale 0
-		} while (step > stepLimit && temperature > 0d);
+			nps.setStatistics(statistics);
+			
+			logger.debug("Oculus incremental force layout completed in  " + ((double)System.currentTimeMillis()-startms)/1000+"s and using " + iteration + " iterations.");
+			
+			return nps;
+		}
 		
 		//Do final scaling of result to -10,10
-		for (Node nm: nodeList) {
-			Point2D xy = graphNodes.get(nm.getId());
-			if (xy.getX() < minX)
-				minX = xy.getX();
-			if (xy.getX() > maxX)
-				maxX = xy.getX();
-			if (xy.getY() < minY)
-				minY = xy.getY();
-			if (xy.getY() > maxY)
-				maxY = xy.getY();
+		for (int i = 0; i < nodes.length; i++) {
+			if (xs[i] < minX)
+				minX = xs[i];
+			if (xs[i] > maxX)
+				maxX = xs[i];
+			if (ys[i] < minY)
+				minY = ys[i];
+			if (ys[i] > maxY)
+				maxY = ys[i];
 		}
 
 		double sx = 100d/(maxX-minX);
 		double sy = 100d/(maxY-minY);
 
 		// Convert the calculated points back into a list of nodes.
-		nodeMap.clear();
-		
 		NodesPositionState nps = new NodesPositionState();
-		for (Node layoutNode: nodeList) {
-			Point2D xy = graphNodes.get(layoutNode.getId());
-			layoutNode.setX((int) ((xy.getX()-minX)*sx));
-			layoutNode.setY((int) ((xy.getY()-minY)*sy));
-			nps.setPosition(layoutNode.getId(), (xy.getX()-minX)*sx, (xy.getY()-minY)*sy);
+		for (int i = 0; i < nodes.length; i++) {
+			Node layoutNode = nodes[i];
+			layoutNode.setX((int) ((xs[i]-minX)*sx));
+			layoutNode.setY((int) ((ys[i]-minY)*sy));
+			nps.setPosition(layoutNode.getId(), (xs[i]-minX)*sx, (ys[i]-minY)*sy);
 		}		
+		nps.setStatistics(statistics);
 
 		logger.debug("Oculus force layout completed in  " + ((double)System.currentTimeMillis()-startms)/1000+"s and using " + iteration + " iterations.");
 
@@ -287,155 +443,318 @@ public class FFDLayouter {
 	}
 	
 	/**
-	 * using the nodes and edges/perform one step of a force-directed layout
-	 * - find the bounding box and create a quadtree
-	 * - for each edge, contract the nodes as if they were connected by a spring
-	 * - for each node, find a relevant node or pseudonode (if the nodes are far away) and calculate a repulsion like electron particles
-	 * - update the system downplaying any huge changes
-	 * @param threadPool 
-	 * @param nodeList
-	 * @param edgeList
-	 * @param origNPS
-	 * @return
+	 * Runs force layout steps from the given positions until the layout converges. With a 
+	 * cooling factor the temperature falls geometrically, which suits a layout that is nearly 
+	 * settled. Otherwise the temperature adapts to the progress of the layout, falling while the 
+	 * energy rises and rising again while it falls steadily, after Hu. The original fixed 
+	 * schedule can be restored by setting dashboard.layouts.FFD.adaptive to false.
+	 * 
+	 * The layout has converged when the largest step taken falls below the step limit. An 
+	 * adaptive layout has also converged when the mean step falls below a tolerance relative to 
+	 * the ideal link length, which ends the long tail of iterations in which a few nodes keep 
+	 * oscillating while the rest are settled.
+	 * @param masses the repulsion mass of each node, or null if every node has a mass of one
+	 * @param progress receives the total displacement and the energy of the last step
+	 * @return the number of iterations run
 	 */
-	public double doForceLayoutStep(ExecutorService threadPool, Collection<Node> nodeList,
-			Collection<Link> edgeList, Collection<String> fixedNodes,
-			Map<String, Point2D> origNPS, 
-			double k, double theta, double temperature) {
-		// get a bounding box for the points
+	int iterate(int nodeCount, int[] neighborOffsets, int[] neighbors, BitSet fixed, int[] masses,
+			double[] xs, double[] ys, double k, double temperature, double stepLimit, double cooling, 
+			double[] progress) throws InterruptedException {
+		double step = Double.MAX_VALUE;
+		double theta = Double.parseDouble(System.getProperty("dashboard.layouts.FFD.theta", "1.0")); // theta parameter for the Quigley-Eades algorithm, used to choose node/pseudo-node comparison
+		int iteration = 0;
+
+		QuadTree qt = new QuadTree();
+		double[] dx = new double[nodeCount];
+		double[] dy = new double[nodeCount];
+		
+		int max_iterations = Integer.parseInt(System.getProperty("dashboard.layouts.FFD.max.iterations", "10000"));
+		double tolerance = Double.parseDouble(System.getProperty("dashboard.layouts.FFD.tolerance", "0.001"));
+		boolean adaptive = Boolean.parseBoolean(System.getProperty("dashboard.layouts.FFD.adaptive", "true"));
+		double maxTemperature = temperature;
+		double lastEnergy = Double.MAX_VALUE;
+		int improved = 0;
+		do {
+			step = doForceLayoutStep(nodeCount, neighborOffsets, neighbors, fixed, masses, xs, ys, dx, dy, qt, k, theta, temperature, progress);
+			iteration++;
+			if (cooling > 0) {
+				temperature *= cooling;
+			} else if (adaptive) {
+				// cool when the energy rises, and warm again after a run of improvements
+				if (progress[1] < lastEnergy) {
+					if (++improved >= ADAPTIVE_PATIENCE) {
+						improved = 0;
+						temperature = Math.min(maxTemperature, temperature / ADAPTIVE_COOLING);
+					}
+				} else {
+					improved = 0;
+					temperature *= ADAPTIVE_COOLING;
+				}
+				lastEnergy = progress[1];
+			} else {
+				temperature *= (1 - (double)iteration/max_iterations); // RHS approaches 1 as you iterate making the scale 0
+			}
+			
+			// settled, in that nodes are moving only a little on the whole
+			if (adaptive && progress[0] / nodeCount < tolerance * k) break;
+		} while (step > stepLimit && temperature > 0d && iteration < max_iterations);
+		
+		return iteration;
+	}
+	
+	/**
+	 * Places each new node at the barycentre of its positioned neighbours, plus a little jitter
+	 * so that siblings do not coincide, working outward from the positioned nodes a ring at a time.
+	 * Nodes which cannot be reached from a positioned node are scattered over the known area.
+	 */
+	private void seedNewNodes(int[] neighborOffsets, int[] neighbors, double[] xs, double[] ys, 
+			boolean[] positioned, int positionedCount, Random generator) {
+		int n = positioned.length;
+		
 		double minX = Double.MAX_VALUE;
-		double maxX = Double.MIN_VALUE;
+		double maxX = -Double.MAX_VALUE;
 		double minY = Double.MAX_VALUE;
-		double maxY = Double.MIN_VALUE;
-		for (Node nm: nodeList) {
-			Point2D xy = origNPS.get(nm.getId());
-			if (xy.getX() < minX)
-				minX = xy.getX();
-			if (xy.getX() > maxX)
-				maxX = xy.getX();
-			if (xy.getY() < minY)
-				minY = xy.getY();
-			if (xy.getY() > maxY)
-				maxY = xy.getY();
+		double maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			if (!positioned[i]) continue;
+			if (xs[i] < minX)	minX = xs[i];
+			if (xs[i] > maxX)	maxX = xs[i];
+			if (ys[i] < minY)	minY = ys[i];
+			if (ys[i] > maxY)	maxY = ys[i];
 		}
 		
-		// create quadtree decomposition
-		double boundingBoxBuffer = 0.05 * Math.max(maxX - minX, maxY - minY);
-		QuadTree qt = new QuadTree(minX-boundingBoxBuffer, minY-boundingBoxBuffer, maxX - minX + 2*boundingBoxBuffer, maxY - minY + 2*boundingBoxBuffer);
-		for (Node nm: nodeList) {
-			Point2D xy = origNPS.get(nm.getId());
-			qt.insert(xy.getX(), xy.getY(), nm);
+		// the typical spacing of the positioned nodes
+		double spacing = Math.sqrt((maxX - minX) * (maxY - minY) / positionedCount);
+		if (spacing <= 0) {
+			spacing = Math.max(maxX - minX, maxY - minY) / Math.sqrt(positionedCount);
 		}
-
-		// for tracking the aggregate displacements
-		ConcurrentHashMap<String, MyPoint> displacements = new ConcurrentHashMap<String, FFDLayouter.MyPoint>();
-		for (Node nm: nodeList) {
-			displacements.put(nm.getId(), new MyPoint(0, 0));
+		if (spacing <= 0) {
+			spacing = 1;
 		}
 		
-		// TYPE 1: Calculate attractive forces
-		// For each edge, create a spring attraction
-		for (Link em: edgeList) {
-			String srcID = em.getSourceId();
-			String destID = em.getTargetId();
-			if (srcID.equals(destID)) continue;
-			Point2D srcPt = origNPS.get(srcID);
-			Point2D dstPt = origNPS.get(destID);
-			if (srcPt == null || dstPt == null) continue;
-			MyPoint vectSrcToDest = getAttractionVector(srcPt, dstPt, k);
-			
-			if (!fixedNodes.contains(em.getSourceId())) {
-				displacements.get(srcID).addVectorInPlace(vectSrcToDest);
+		int[] ring = new int[n];
+		double[] ringX = new double[n];
+		double[] ringY = new double[n];
+		int remaining = n - positionedCount;
+		
+		while (remaining > 0) {
+			int ringSize = 0;
+			for (int i = 0; i < n; i++) {
+				if (positioned[i]) continue;
+				
+				double sumX = 0, sumY = 0;
+				int count = 0;
+				for (int a = neighborOffsets[i]; a < neighborOffsets[i + 1]; a++) {
+					int j = neighbors[a];
+					if (positioned[j]) {
+						sumX += xs[j];
+						sumY += ys[j];
+						count++;
+					}
+				}
+				if (count > 0) {
+					ring[ringSize] = i;
+					ringX[ringSize] = sumX / count + (generator.nextDouble() - 0.5) * spacing;
+					ringY[ringSize] = sumY / count + (generator.nextDouble() - 0.5) * spacing;
+					ringSize++;
+				}
 			}
-			if (!fixedNodes.contains(em.getTargetId())) {
-				displacements.get(destID).addScaledVectorInPlace(-1, vectSrcToDest);
+			if (ringSize == 0) break;
+			
+			// only mark the ring once it is complete, so that placement does not depend on node order
+			for (int r = 0; r < ringSize; r++) {
+				int i = ring[r];
+				xs[i] = ringX[r];
+				ys[i] = ringY[r];
+				positioned[i] = true;
 			}
+			remaining -= ringSize;
 		}
 		
-		// TYPE 2: Calculate repulsive forces
-		// split the nodes up into #thread groups
-		Map<String, Future<MyPoint>> futures = new HashMap<String, Future<MyPoint>>();
-		for (Node nm : nodeList) {
-			if (!fixedNodes.contains(nm.getId())) {
-				futures.put(nm.getId(), threadPool.submit(new RepulsionCalculator(nm, qt, origNPS, k, theta)));
+		if (remaining > 0) {
+			for (int i = 0; i < n; i++) {
+				if (positioned[i]) continue;
+				xs[i] = minX - spacing + generator.nextDouble() * (maxX - minX + 2 * spacing);
+				ys[i] = minY - spacing + generator.nextDouble() * (maxY - minY + 2 * spacing);
 			}
 		}
+	}
+	
+	/**
+	 * using the nodes and edges/perform one step of a force-directed layout
+	 * - find the bounding box and rebuild the quadtree
+	 * - for each edge, contract the nodes as if they were connected by a spring
+	 * - for each node, find a relevant node or pseudonode (if the nodes are far away) and calculate a repulsion like electron particles
+	 * - update the system downplaying any huge changes
+	 * The forces on ranges of nodes are computed in parallel on the shared thread pool.
+	 * @param nodeCount the number of nodes
+	 * @param neighborOffsets where the neighbours of each node start in neighbors
+	 * @param neighbors the index of the node at the other end of each link, by node
+	 * @param fixed the indices of nodes which do not move
+	 * @param masses the repulsion mass of each node, or null if every node has a mass of one
+	 * @param xs the x position of each node, updated in place
+	 * @param ys the y position of each node, updated in place
+	 * @param dx scratch space for the x displacement of each node
+	 * @param dy scratch space for the y displacement of each node
+	 * @param qt the quadtree to rebuild
+	 * @param progress if not null, receives the total displacement and the energy of the step
+	 * @return the largest displacement of any node
+	 */
+	public double doForceLayoutStep(final int nodeCount,
+			final int[] neighborOffsets, final int[] neighbors, final BitSet fixed, final int[] masses,
+			final double[] xs, final double[] ys, final double[] dx, final double[] dy, final QuadTree qt,
+			final double k, final double theta, double temperature, double[] progress) throws InterruptedException {
+		// get a bounding box for the points
+		double minX = Double.MAX_VALUE;
+		double maxX = Double.MIN_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxY = Double.MIN_VALUE;
+		for (int i = 0; i < nodeCount; i++) {
+			if (xs[i] < minX)
+				minX = xs[i];
+			if (xs[i] > maxX)
+				maxX = xs[i];
+			if (ys[i] < minY)
+				minY = ys[i];
+			if (ys[i] > maxY)
+				maxY = ys[i];
+		}
 		
-		for (String s : futures.keySet()) {
-			try {
-				MyPoint res = futures.get(s).get(); // get the result
-				displacements.get(s).addVectorInPlace(res);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-			} catch (ExecutionException e) {
-				e.printStackTrace();
+		// rebuild quadtree decomposition
+		double boundingBoxBuffer = 0.05 * Math.max(maxX - minX, maxY - minY);
+		qt.build(xs, ys, masses, nodeCount, minX-boundingBoxBuffer, minY-boundingBoxBuffer, maxX - minX + 2*boundingBoxBuffer, maxY - minY + 2*boundingBoxBuffer);
+		
+		// calculate the attractive and repulsive forces on each range of nodes
+		int chunks = Math.min(4 * nThreads, (nodeCount + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+		if (chunks <= 1) {
+			computeForces(0, nodeCount, neighborOffsets, neighbors, fixed, masses, xs, ys, dx, dy, qt, k, theta);
+		} else {
+			List<Future<?>> futures = new ArrayList<Future<?>>(chunks);
+			for (int c = 0; c < chunks; c++) {
+				final int start = (int)((long)nodeCount * c / chunks);
+				final int end = (int)((long)nodeCount * (c + 1) / chunks);
+				
+				futures.add(threadPool.submit(new Runnable() {
+					
+					@Override
+					public void run() {
+						computeForces(start, end, neighborOffsets, neighbors, fixed, masses, xs, ys, dx, dy, qt, k, theta);
+					}
+				}));
+			}
+			
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Force calculation failed", e.getCause());
+				}
 			}
 		}
 	
 		// apply displacements, limiting step size to temperature
 		// track the biggest change we make
 		double largestStep = Double.MIN_VALUE;
-		for (String id: origNPS.keySet()) {
-			Point2D oldPosition = origNPS.get(id);
-			MyPoint proposedDisplacement = displacements.get(id);
-			double norm = proposedDisplacement.getNorm();
+		double totalStep = 0;
+		double energy = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			double squared = dx[i]*dx[i] + dy[i]*dy[i];
+			double norm = Math.sqrt(squared);
+			energy += squared;
+			double scale = 1;
 			if (norm > temperature) {
 				// too big, scale the step to temp
-				proposedDisplacement.scaleInPlace(temperature/norm);
+				scale = temperature/norm;
 				norm = temperature;
 			}
 			if (largestStep < norm)
 				largestStep = norm;
-			origNPS.put(id, new Point2D.Double(oldPosition.getX() + proposedDisplacement.getX(), oldPosition.getY() + proposedDisplacement.getY()));
+			totalStep += norm;
+			xs[i] += scale * dx[i];
+			ys[i] += scale * dy[i];
+		}
+		
+		if (progress != null) {
+			progress[0] = totalStep;
+			progress[1] = energy;
 		}
 		
 		return largestStep;
 	}
 	
 	/**
-	 * Calculate the contribution from all the nodes in qn to the node with the id 'currentID'
+	 * Writes the displacement of each node in a range into dx and dy: a spring attraction 
+	 * toward each neighbour, plus the repulsion from all other nodes.
 	 */
-	private MyPoint getRepulsionContribution(QuadNode qn, String currentID, Map<String, Point2D> nps, double k, double theta) {
-		Point2D currentPosition = nps.get(currentID);
-		
-		if (qn.getnChildren() == 0)  // nothing to compute
-			return null;
-		if (qn.getnChildren() == 1) { // leaf
-			Object uncastNode = qn.getData().getValue();
-			if (!(uncastNode instanceof Node)) {
-				System.err.println("Failed to find proper data in quadtree");
+	private void computeForces(int start, int end, 
+			int[] neighborOffsets, int[] neighbors, BitSet fixed, int[] masses,
+			double[] xs, double[] ys, double[] dx, double[] dy, QuadTree qt,
+			double k, double theta) {
+		int[] stack = new int[QuadTree.MAX_STACK_SIZE];
+		double[] force = new double[2];
+		
+		for (int i = start; i < end; i++) {
+			force[0] = 0;
+			force[1] = 0;
+			
+			if (!fixed.get(i)) {
+				// TYPE 1: attractive forces
+				for (int a = neighborOffsets[i]; a < neighborOffsets[i + 1]; a++) {
+					int j = neighbors[a];
+					addAttractionVector(xs[i], ys[i], xs[j], ys[j], k, force);
+				}
+				
+				// TYPE 2: repulsive forces
+				getRepulsionContribution(qt, i, xs, ys, masses, k, theta, stack, force);
 			}
-			Node nm = (Node)uncastNode;
-			if (nm.getId().equals(currentID))
-				return null;
-			Point2D currentLeafPosition = nps.get(nm.getId());
-			MyPoint repulsion = getRepulsionVector(currentPosition, currentLeafPosition.getX(), currentLeafPosition.getY(), k);
-//			if (nm instanceof IGroupNodeModel) {		//Scale repulsion for group nodes based on number of contained nodes
-//				int containedNodes = ((IGroupNodeModel)nm).getChildren().size();
-//				repulsion.setXY(repulsion.getX()*containedNodes, repulsion.getY()*containedNodes);
-//			}
-			return repulsion;
-		}
-		if (shouldCompareAsPseudoNode(qn, nps.get(currentID), theta)) {
-			Point2D com = qn.getCenterOfMass();
-			MyPoint repulsion = getRepulsionVector(currentPosition, com.getX(), com.getY(), k);
-			repulsion.setXY(repulsion.getX() * qn.getnChildren(), repulsion.getY() * qn.getnChildren());
-			return repulsion;
+			
+			dx[i] = force[0];
+			dy[i] = force[1];
 		}
+	}
+	
+	/**
+	 * Calculate the contribution from all the nodes in the tree to the node with the index 
+	 * 'current', adding it to the force vector. Each node repels in proportion to its mass, 
+	 * as a coarse node does to the weight it stands for in Walshaw's multilevel scheme. The 
+	 * tree is walked iteratively, using the given stack, which must hold at least 
+	 * QuadTree.MAX_STACK_SIZE cells.
+	 */
+	private void getRepulsionContribution(QuadTree qt, int current, double[] xs, double[] ys, int[] masses, double k, double theta, int[] stack, double[] force) {
+		double x = xs[current];
+		double y = ys[current];
 		
-		// failed to resolve a repulsion, try the children
-		MyPoint nwVector = getRepulsionContribution(qn.getNW(), currentID, nps, k, theta);
-		MyPoint neVector = getRepulsionContribution(qn.getNE(), currentID, nps, k, theta);
-		MyPoint swVector = getRepulsionContribution(qn.getSW(), currentID, nps, k, theta);
-		MyPoint seVector = getRepulsionContribution(qn.getSE(), currentID, nps, k, theta);
-		
-		MyPoint out = new MyPoint(0, 0);
-		if (nwVector != null) out.addVectorInPlace(nwVector);
-		if (neVector != null) out.addVectorInPlace(neVector);
-		if (swVector != null) out.addVectorInPlace(swVector);
-		if (seVector != null) out.addVectorInPlace(seVector);
+		int top = 0;
+		stack[top++] = 0;
 		
-		return out;
+		while (top > 0) {
+			int cell = stack[--top];
+			int n = qt.count[cell];
+			
+			if (n == 0)  // nothing to compute
+				continue;
+			
+			if (qt.firstChild[cell] < 0) { // leaf
+				for (int p = qt.firstPoint[cell]; p >= 0; p = qt.nextPoint[p]) {
+					if (p != current) {
+						addRepulsionVector(x, y, xs[p], ys[p], k, masses == null? 1 : masses[p], force);
+					}
+				}
+				continue;
+			}
+			
+			if (shouldCompareAsPseudoNode(qt, cell, x, y, theta)) {
+				addRepulsionVector(x, y, qt.centerOfMassX[cell], qt.centerOfMassY[cell], k, qt.mass[cell], force);
+				continue;
+			}
+			
+			// failed to resolve a repulsion, try the children
+			int child = qt.firstChild[cell];
+			stack[top++] = child + 3;
+			stack[top++] = child + 2;
+			stack[top++] = child + 1;
+			stack[top++] = child;
+		}
 	}
 	
 	/**
@@ -445,31 +764,44 @@ public class FFDLayouter {
 	 * 
 	 * If s/d <= theta, then d is big compared to s and we should just consider this a pseudo node
 	 */
-	private boolean shouldCompareAsPseudoNode(QuadNode qn, Point2D currentpos, double theta) {
-		double s = Math.min(qn.getBounds().getWidth(), qn.getBounds().getHeight()); // use the smaller box dimension
-		Point2D com = qn.getCenterOfMass();
-		double d = com.distance(currentpos.getX(), currentpos.getY());
+	private boolean shouldCompareAsPseudoNode(QuadTree qt, int cell, double x, double y, double theta) {
+		double s = Math.min(qt.cellWidth[cell], qt.cellHeight[cell]); // use the smaller box dimension
+		double dx = qt.centerOfMassX[cell] - x;
+		double dy = qt.centerOfMassY[cell] - y;
+		double d = Math.sqrt(dx*dx + dy*dy);
 		return (s/d) <= theta;
 	}
 	
-	private MyPoint getAttractionVector(Point2D src, Point2D dest, double k) {
-		MyPoint v = new MyPoint(dest.getX() - src.getX(), dest.getY() - src.getY());
-		double norm = v.getNorm(); // don't do this excessively
-		v.scaleInPlace( 1/norm ); // normalize
-		v.scaleInPlace( getAttractionScaling(k, norm) );  // magic coeff from Kobourov paper
-		return v;
+	/**
+	 * Add the spring attraction of 'dest' on 'src' to the force
+	 */
+	private void addAttractionVector(double srcX, double srcY, double destX, double destY, double k, double[] force) {
+		double vx = destX - srcX;
+		double vy = destY - srcY;
+		double norm = Math.sqrt(vx*vx + vy*vy); // don't do this excessively
+		if (norm == 0) {
+			return;
+		}
+		double scale = getAttractionScaling(k, norm) / norm; // magic coeff from Kobourov paper
+		force[0] += vx * scale;
+		force[1] += vy * scale;
 	}
 	
 	/**
-	 * Give the repulsion affect of 'repulsor' on 'target'
-	 * i.e the vector should point FROM repulsor TO target
+	 * Add the repulsion affect of 'repulsor', with the given mass, on 'target' to the force
+	 * i.e the vector should point FROM repulsor TO target. Coincident points have no
+	 * direction, so they add nothing.
 	 */
-	private MyPoint getRepulsionVector(Point2D target, double repulsorX, double repulsorY, double k) {
-		MyPoint repulseV = new MyPoint(target.getX() - repulsorX, target.getY() - repulsorY); // direction
-		double norm = repulseV.getNorm();
-		repulseV.scaleInPlace(1/norm);
-		repulseV.scaleInPlace( getRepulsionScaling(k, norm) ); // magic coeff rom Kobourov paper
-		return repulseV;
+	private void addRepulsionVector(double targetX, double targetY, double repulsorX, double repulsorY, double k, double mass, double[] force) {
+		double dx = targetX - repulsorX; // direction
+		double dy = targetY - repulsorY;
+		double norm = Math.sqrt(dx*dx + dy*dy);
+		if (norm == 0) {
+			return;
+		}
+		double scale = mass * getRepulsionScaling(k, norm) / norm; // magic coeff rom Kobourov paper
+		force[0] += dx * scale;
+		force[1] += dy * scale;
 	}
 	
 	private double getAttractionScaling(double k, double d) {
@@ -495,68 +827,6 @@ public class FFDLayouter {
 //	public boolean isUserInvokable() {
 //		return true;
 //	}
-	
-	private class MyPoint extends Point2D.Double {
-		
-		/**
-		 * 
-		 */
-		private static final long serialVersionUID = -3432988691521846674L;
-
-		public MyPoint (double x, double y) {
-			super(x, y);
-		}
-
-		public double getNorm() {
-			return Math.sqrt(x*x + y*y);
-		}
-		
-//		public void normalize() {
-//			this.scaleInPlace(1/this.getNorm());
-//		}
-//		 
-		public void scaleInPlace(double s) {
-			this.x *= s;
-			this.y *= s;
-		}
-		
-		public void addVectorInPlace(Point2D.Double p) {
-			addScaledVectorInPlace(1d, p);
-		}
-		
-		public void addScaledVectorInPlace(double d, Point2D.Double p) {
-			this.x += d*p.getX();
-			this.y += d*p.getY();
-		}
-		
-		public void setXY(double x, double y) {
-			this.x = x;
-			this.y = y;
-		}
-		
-	}
-	
-	private class RepulsionCalculator implements Callable<MyPoint> {
-
-		private Map<String, Point2D> _nps;
-		private double _k;
-		private double _theta;
-		private QuadTree _qt;
-		private Node _nm;
-		
-		public RepulsionCalculator(Node nm, QuadTree qt, Map<String, Point2D> nps, double k, double theta) {
-			_nm = nm;
-			_nps = nps;
-			_k = k;
-			_qt = qt;
-			_theta = theta;
-		}
-		
-		@Override
-		public MyPoint call() throws Exception {
-			return getRepulsionContribution(_qt.getRoot(), _nm.getId(), _nps, _k, _theta);
-		}
-	}
 
 
-}
+}
\ No newline at end of file
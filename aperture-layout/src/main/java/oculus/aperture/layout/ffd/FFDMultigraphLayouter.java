@@ -25,21 +25,122 @@
 package oculus.aperture.layout.ffd;
 
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import oculus.aperture.layout.impl.BasicLayoutStatistics;
 import oculus.aperture.spi.common.Link;
 import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.LayoutStatistics;
 
 import org.apache.log4j.Logger;
 
 public class FFDMultigraphLayouter {
 
 	private static final Logger logger = Logger.getLogger(FFDMultigraphLayouter.class);
+	
+	// components are laid out concurrently, on a pool of their own since each layout also waits on the FFDLayouter pool
+	private static final int nThreads = Integer.parseInt(System.getProperty("dashboard.layouts.FFD.components.threads", 
+			String.valueOf(Runtime.getRuntime().availableProcessors())));
+	private static final ExecutorService threadPool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "FFDMultigraphLayouter Pool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private final FFDLayouter layouter;
+	
+	private boolean incremental = false;
+	private NodesPositionState previousPositions;
+	private Set<String> positionedNodeIds;
+	private Long seed;
+	
+	public FFDMultigraphLayouter() {
+		this(new FFDLayouter());
+	}
+	
+	/**
+	 * Constructs a layouter which uses the given layouter for each connected component.
+	 */
+	public FFDMultigraphLayouter(FFDLayouter layouter) {
+		this.layouter = layouter;
+	}
+	
+	/**
+	 * In incremental mode components with positioned nodes are laid out from where they are
+	 * and left in place, and only wholly new components are packed alongside them.
+	 * @see FFDLayouter#setIncremental(boolean)
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	public boolean isIncremental() {
+		return incremental;
+	}
+	
+	/**
+	 * @see FFDLayouter#setPreviousPositions(NodesPositionState)
+	 */
+	public void setPreviousPositions(NodesPositionState previousPositions) {
+		this.previousPositions = previousPositions;
+	}
+	
+	public NodesPositionState getPreviousPositions() {
+		return previousPositions;
+	}
+	
+	/**
+	 * @see FFDLayouter#setPositionedNodeIds(Set)
+	 */
+	public void setPositionedNodeIds(Set<String> positionedNodeIds) {
+		this.positionedNodeIds = positionedNodeIds;
+	}
+	
+	public Set<String> getPositionedNodeIds() {
+		return positionedNodeIds;
+	}
+	
+	/**
+	 * @see FFDLayouter#setMeasured(boolean)
+	 */
+	public void setMeasured(boolean measured) {
+		layouter.setMeasured(measured);
+	}
+	
+	public boolean isMeasured() {
+		return layouter.isMeasured();
+	}
+	
+	/**
+	 * @see FFDLayouter#setSeed(Long)
+	 */
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+	
+	public Long getSeed() {
+		return seed;
+	}
+	
 	private class GraphModel {
 		private Collection<Node> nodeList_;
 		private Collection<Link> edgeList_;
@@ -55,24 +156,52 @@ public class FFDMultigraphLayouter {
 			return this.edgeList_;
 		}
 	}	
-	private GraphModel createSubgraph(Collection<? extends Node> nodes, Collection<? extends Link> edges) {
-		Map<String, Node> nodeMap = new HashMap<String, Node>();
-		Collection<Link> subLinks = new ArrayList<Link>();
-        //Put all the nodes into the subgraph
-		for (Node node : nodes) {
-			nodeMap.put(node.getId(), node);
+	/**
+	 * Builds a subgraph for each component, bucketing the edges by component in a single pass.
+	 * Edges which do not have both ends in the same component are dropped.
+	 */
+	private List<GraphModel> createSubgraphs(List<Set<Node>> components, Collection<? extends Link> edges) {
+		Map<String, Integer> componentIds = new HashMap<String, Integer>();
+		List<GraphModel> graphs = new ArrayList<GraphModel>(components.size());
+		for (int c = 0; c < components.size(); c++) {
+			Set<Node> component = components.get(c);
+			for (Node node : component) {
+				componentIds.put(node.getId(), c);
+			}
+			graphs.add(new GraphModel(new ArrayList<Node>(component), new ArrayList<Link>()));
 		}
 		
-		//Go through all the edges, and put those that have both origin and destination nodes in the nodes collection into the subgraph
 		for (Link edge : edges) {
 			if (edge.getSourceId() == null || edge.getTargetId() == null) continue;
 			
-			if (nodeMap.containsKey(edge.getSourceId()) && nodeMap.containsKey(edge.getTargetId())) {
-				// add an edge if both ends are in the graph
-				subLinks.add(edge);
+			Integer source = componentIds.get(edge.getSourceId());
+			Integer target = componentIds.get(edge.getTargetId());
+			if (source != null && source.equals(target)) {
+				graphs.get(source).getEdges().add(edge);
 			}
 		}
-		return new GraphModel(new ArrayList<Node>(nodeMap.values()), subLinks);
+		return graphs;
+	}
+
+	/**
+	 * Combines the measures of the component layouts. The work, energy and crossings add up,
+	 * while the stress is averaged over the components, weighted by their number of nodes.
+	 */
+	private LayoutStatistics combineStatistics(List<LayoutStatistics> statistics, List<Integer> sizes) {
+		int iterations = 0;
+		double energy = 0;
+		double stress = 0;
+		long crossings = 0;
+		long nodes = 0;
+		for (int i = 0; i < statistics.size(); i++) {
+			LayoutStatistics component = statistics.get(i);
+			iterations += component.getIterations();
+			energy += component.getEnergy();
+			stress += component.getStress() * sizes.get(i);
+			crossings += component.getEdgeCrossings();
+			nodes += sizes.get(i);
+		}
+		return new BasicLayoutStatistics(iterations, energy, nodes > 0 ? stress / nodes : 0, crossings);
 	}
 
 	public NodesPositionState determineLayout(Collection<? extends Node> nodeList, Collection<? extends Link> edgeList)
@@ -81,7 +210,7 @@ public class FFDMultigraphLayouter {
 		if (nodeList.size() == 0) {
 			return new NodesPositionState();
 		} 
-		else if (nodeList.size() == 1) {
+		else if (nodeList.size() == 1 && !incremental) {
 			NodesPositionState nps = new NodesPositionState();
 			for (Node layoutNode : nodeList){
 				layoutNode.setX(0);
@@ -93,49 +222,67 @@ public class FFDMultigraphLayouter {
 		else  {
 			logger.info("Using parallel layout");
 			
-			FFDLayouter ofdlp = new FFDLayouter();
+			final FFDLayouter ofdlp = layouter;
+			ofdlp.setIncremental(incremental);
+			ofdlp.setPreviousPositions(previousPositions);
+			ofdlp.setPositionedNodeIds(positionedNodeIds);
+			ofdlp.setSeed(seed);
 			//return ofdlp.determineLayout(inModel);
 			
-			// Create mappings between ids and node/edge objects.
+			// Create a mapping between ids and node objects.
 			Map<String, Node> fullNodeMap = new HashMap<String, Node>();
 			for (Node node : nodeList){
 				fullNodeMap.put(node.getId(), node);
 			}
 			
-			Map<String, Collection<Link>> fullLinkMap = new HashMap<String, Collection<Link>>();		
-			Collection<Link> linkList = null;
+			List<Set<Node>> components = ofdlp.getConnectedComponents(nodeList, edgeList);
+			logger.info("Partitions : "+components.size());
 			
-			for (Link link : edgeList){
-				String sourceId = link.getSourceId();
-				String targetId = link.getTargetId();
-
-				linkList = fullLinkMap.get(sourceId);
-				if (linkList == null){
-					linkList = new ArrayList<Link>();
-				}
-				if (!linkList.contains(link)){
-					linkList.add(link);
-					fullLinkMap.put(sourceId, linkList);
-				}
-
-				linkList = fullLinkMap.get(targetId);
-				if (linkList == null){
-					linkList = new ArrayList<Link>();
-				}
-				if (!linkList.contains(link)){
-					linkList.add(link);
-					fullLinkMap.put(targetId, linkList);
+			// schedule the largest components first, so that they do not hold up the end of the layout
+			Collections.sort(components, new Comparator<Set<Node>>() {
+				
+				@Override
+				public int compare(Set<Node> a, Set<Node> b) {
+					return b.size() - a.size();
 				}
-			}
+			});
+			List<GraphModel> graphs = createSubgraphs(components, edgeList);
+			
+			// kept in component order, so that they are always packed the same way
+			Set<NodesPositionState> nodeStates = new LinkedHashSet<NodesPositionState>();
+			
+			// components which already have a position in incremental mode, which stay where they are
+			Set<NodesPositionState> warmStates = new LinkedHashSet<NodesPositionState>();
 			
-			Set<Set<Node>> subgraphs = ofdlp.getConnectedComponents(nodeList, fullNodeMap, fullLinkMap);
-			logger.info("Partitions : "+subgraphs.size());
-			Set<NodesPositionState> nodeStates = new HashSet<NodesPositionState>();
-			for (Set<Node> component : subgraphs) {
+			List<Future<NodesPositionState>> layouts = new ArrayList<Future<NodesPositionState>>();
+			List<Boolean> warmLayouts = new ArrayList<Boolean>();
+			
+			for (int c = 0; c < components.size(); c++) {
+				Set<Node> component = components.get(c);
 				if (component.size() == 0) {
 					logger.error("Found connected component with 0 nodes!");
 					continue;
 				}
+				
+				boolean warm = false;
+				if (incremental) {
+					for (Node node : component) {
+						if (ofdlp.getKnownPosition(node) != null) {
+							warm = true;
+							break;
+						}
+					}
+				}
+				
+				if (warm && component.size() == 1) {
+					NodesPositionState nps = new NodesPositionState();
+					Node layoutNode = component.iterator().next();
+					Point2D known = ofdlp.getKnownPosition(layoutNode);
+					layoutNode.setX((int)known.getX());
+					layoutNode.setY((int)known.getY());
+					nps.setPosition(layoutNode.getId(), known.getX(), known.getY());
+					warmStates.add(nps);
+				}
 				else if (component.size() == 1) {
 					NodesPositionState nps = new NodesPositionState();
 					Node layoutNode = component.iterator().next();
@@ -145,9 +292,39 @@ public class FFDMultigraphLayouter {
 					nodeStates.add(nps);
 				} 
 				else {
-					GraphModel graph = createSubgraph(component, edgeList);
-					logger.info("Layout "+component.size()+" node partition");
-					NodesPositionState nps = ofdlp.determineLayout(graph.getNodes(), graph.getEdges() );
+					final GraphModel graph = graphs.get(c);
+					layouts.add(threadPool.submit(new Callable<NodesPositionState>() {
+						
+						@Override
+						public NodesPositionState call() throws Exception {
+							logger.info("Layout "+graph.getNodes().size()+" node partition");
+							return ofdlp.determineLayout(graph.getNodes(), graph.getEdges());
+						}
+					}));
+					warmLayouts.add(warm);
+				}
+			}
+			
+			List<LayoutStatistics> statistics = new ArrayList<LayoutStatistics>(layouts.size());
+			List<Integer> sizes = new ArrayList<Integer>(layouts.size());
+			
+			for (int l = 0; l < layouts.size(); l++) {
+				NodesPositionState nps;
+				try {
+					nps = layouts.get(l).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception)e.getCause();
+					}
+					throw new IllegalStateException("Component layout failed", e.getCause());
+				}
+				if (nps.getStatistics() != null) {
+					statistics.add(nps.getStatistics());
+					sizes.add(nps.getNodeIds().size());
+				}
+				if (warmLayouts.get(l)) {
+					warmStates.add(nps);
+				} else {
 					nodeStates.add(nps);
 				}
 			}
@@ -156,6 +333,30 @@ public class FFDMultigraphLayouter {
 			logger.info("Determine final partition placement");
 			Map<NodesPositionState, Point2D> offset = NodesStatePositionUtils.computeNPSOffsets(nodeStates);
 			
+			// new components are packed to the right of those already in place
+			if (!warmStates.isEmpty()) {
+				Rectangle2D bounds = null;
+				for (NodesPositionState nps : warmStates) {
+					for (Point2D p : nps.getAllPositions()) {
+						if (bounds == null) {
+							bounds = new Rectangle2D.Double(p.getX(), p.getY(), 0, 0);
+						} else {
+							bounds.add(p);
+						}
+					}
+				}
+				double shiftX = bounds.getMaxX() + 0.05*Math.max(bounds.getWidth(), bounds.getHeight());
+				double shiftY = bounds.getMinY();
+				
+				for (Map.Entry<NodesPositionState, Point2D> entry : offset.entrySet()) {
+					Point2D off = entry.getValue();
+					off.setLocation(off.getX() + shiftX, off.getY() + shiftY);
+				}
+				for (NodesPositionState nps : warmStates) {
+					offset.put(nps, new Point2D.Double(0, 0));
+				}
+			}
+			
 			NodesPositionState finalPos = new NodesPositionState();
 			double finalX=0, finalY=0;
 			for (NodesPositionState nps : offset.keySet()) {
@@ -163,8 +364,10 @@ public class FFDMultigraphLayouter {
 				for (String id : nps.getNodeIds()) {
 					Node layoutNode = fullNodeMap.get(id);
 					
-					finalX = layoutNode.getX()+off.getX();
-					finalY = layoutNode.getY()+off.getY(); 
+					Point2D pos = nps.getPositionForId(id);
+					
+					finalX = pos.getX()+off.getX();
+					finalY = pos.getY()+off.getY(); 
 					finalPos.setPosition(id, finalX, finalY);
 
 					layoutNode.setX((int)finalX);
@@ -172,6 +375,10 @@ public class FFDMultigraphLayouter {
 				}
 			}
 			
+			if (!statistics.isEmpty()) {
+				finalPos.setStatistics(combineStatistics(statistics, sizes));
+			}
+			
 			return finalPos;
 		} 
 		
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.ffd;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import oculus.aperture.layout.impl.BasicLayoutStatistics;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+
+/**
+ * Measures the quality of a layout held in arrays, sampling where an exact measure
+ * would cost more than the layout itself.
+ */
+public final class LayoutMeasures {
+	
+	// the number of nodes to measure graph distances from when estimating stress
+	private static final int STRESS_SOURCES = 32;
+	
+	// the number of pairs of links to test when estimating crossings, above which they are sampled
+	private static final int CROSSING_SAMPLES = 100000;
+	
+	private LayoutMeasures() {
+	}
+	
+	/**
+	 * Measures a layout, given the work it took.
+	 */
+	static BasicLayoutStatistics measure(int[] neighborOffsets, int[] neighbors, double[] xs, double[] ys, 
+			int iterations, double energy, Random generator) {
+		return new BasicLayoutStatistics(iterations, energy, 
+				getStress(neighborOffsets, neighbors, xs, ys, generator),
+				getEdgeCrossings(neighborOffsets, neighbors, xs, ys, generator));
+	}
+	
+	/**
+	 * Estimates the normalised stress of the layout the given nodes hold, for layouts which 
+	 * do not measure themselves.
+	 * @see #getStress(int[], int[], double[], double[], Random)
+	 */
+	public static double getStress(List<? extends Node> nodes, Collection<? extends Link> links, Random generator) {
+		Map<String, Integer> indices = new HashMap<String, Integer>(nodes.size());
+		double[] xs = new double[nodes.size()];
+		double[] ys = new double[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			indices.put(node.getId(), i);
+			xs[i] = node.getX();
+			ys[i] = node.getY();
+		}
+		
+		int[][] adjacency = FFDLayouter.createAdjacency(indices, nodes.size(), links);
+		return getStress(adjacency[0], adjacency[1], xs, ys, generator);
+	}
+	
+	/**
+	 * Estimates the normalised stress of a layout from the graph distances of a sample of 
+	 * nodes to all others. The layout is first scaled to best fit the graph distances, so 
+	 * the result does not depend on the size of the layout.
+	 */
+	static double getStress(int[] neighborOffsets, int[] neighbors, double[] xs, double[] ys, Random generator) {
+		int n = xs.length;
+		if (n < 2) return 0;
+		
+		int sources = Math.min(n, STRESS_SOURCES);
+		int[] distances = new int[n];
+		int[] queue = new int[n];
+		
+		// the sums which give the best scale and then the stress at that scale
+		double sumRatio = 0, sumRatioSquared = 0;
+		int pairs = 0;
+		
+		for (int s = 0; s < sources; s++) {
+			int source = sources == n ? s : generator.nextInt(n);
+			
+			// breadth first for the hop distance to every other node
+			Arrays.fill(distances, -1);
+			distances[source] = 0;
+			queue[0] = source;
+			int head = 0, tail = 1;
+			while (head < tail) {
+				int i = queue[head++];
+				for (int a = neighborOffsets[i]; a < neighborOffsets[i + 1]; a++) {
+					int j = neighbors[a];
+					if (distances[j] == -1) {
+						distances[j] = distances[i] + 1;
+						queue[tail++] = j;
+					}
+				}
+			}
+			
+			for (int q = 1; q < tail; q++) {
+				int j = queue[q];
+				double d = distances[j];
+				double e = Math.sqrt((xs[source]-xs[j])*(xs[source]-xs[j]) + (ys[source]-ys[j])*(ys[source]-ys[j]));
+				sumRatio += e / d;
+				sumRatioSquared += (e * e) / (d * d);
+				pairs++;
+			}
+		}
+		if (pairs == 0 || sumRatioSquared == 0) return 0;
+		
+		// sum of ((scale*e - d)/d)^2 at the scale which minimises it
+		double scale = sumRatio / sumRatioSquared;
+		double stress = scale * scale * sumRatioSquared - 2 * scale * sumRatio + pairs;
+		
+		return Math.max(0, stress) / pairs;
+	}
+	
+	/**
+	 * Counts the pairs of links which cross, or estimates the count from a random sample of 
+	 * pairs when there are too many to test. Links which share a node are not counted.
+	 */
+	static long getEdgeCrossings(int[] neighborOffsets, int[] neighbors, double[] xs, double[] ys, Random generator) {
+		int n = xs.length;
+		
+		// each link once
+		int[] sources = new int[neighbors.length / 2];
+		int[] targets = new int[neighbors.length / 2];
+		int links = 0;
+		for (int i = 0; i < n; i++) {
+			for (int a = neighborOffsets[i]; a < neighborOffsets[i + 1]; a++) {
+				if (neighbors[a] > i) {
+					sources[links] = i;
+					targets[links] = neighbors[a];
+					links++;
+				}
+			}
+		}
+		
+		long linkPairs = (long)links * (links - 1) / 2;
+		if (linkPairs == 0) return 0;
+		
+		if (linkPairs <= CROSSING_SAMPLES) {
+			long crossings = 0;
+			for (int l = 0; l < links; l++) {
+				for (int m = l + 1; m < links; m++) {
+					if (crosses(sources[l], targets[l], sources[m], targets[m], xs, ys)) {
+						crossings++;
+					}
+				}
+			}
+			return crossings;
+		}
+		
+		int crossings = 0;
+		for (int s = 0; s < CROSSING_SAMPLES; s++) {
+			int l = generator.nextInt(links);
+			int m = generator.nextInt(links - 1);
+			if (m >= l) m++;
+			if (crosses(sources[l], targets[l], sources[m], targets[m], xs, ys)) {
+				crossings++;
+			}
+		}
+		return Math.round((double)crossings / CROSSING_SAMPLES * linkPairs);
+	}
+	
+	/**
+	 * Returns true if two links which do not share a node cross.
+	 */
+	private static boolean crosses(int a, int b, int c, int d, double[] xs, double[] ys) {
+		if (a == c || a == d || b == c || b == d) return false;
+		
+		double abc = orientation(xs[a], ys[a], xs[b], ys[b], xs[c], ys[c]);
+		double abd = orientation(xs[a], ys[a], xs[b], ys[b], xs[d], ys[d]);
+		double cda = orientation(xs[c], ys[c], xs[d], ys[d], xs[a], ys[a]);
+		double cdb = orientation(xs[c], ys[c], xs[d], ys[d], xs[b], ys[b]);
+		
+		return ((abc > 0 && abd < 0) || (abc < 0 && abd > 0)) 
+			&& ((cda > 0 && cdb < 0) || (cda < 0 && cdb > 0));
+	}
+	
+	/**
+	 * The sign of the turn from p to q to r.
+	 */
+	private static double orientation(double px, double py, double qx, double qy, double rx, double ry) {
+		return (qx - px) * (ry - py) - (qy - py) * (rx - px);
+	}
+}
@@ -25,33 +25,16 @@
 package oculus.aperture.layout.ffd;
 
 /**
- * Used to contain the data being stored in this node. 
- * Contains an independent (x,y) variable pair to allow for 
- * the layout algorithm to make updates to the positions without
- * committing them to the data until the end.
- * @author cwu
- *
+ * Wrapper for the multilevel variant of the Oculus force-directed layout algorithm,
+ * suited to large graphs.
  */
-public class QuadNodeData {
-	private double x, y;
-	private Object value;
-	
-	QuadNodeData(double x, double y, Object v) {
-		this.x = x;
-		this.y = y;
-		value = v;
-	}
-
-	public double getX() {
-		return x;
-	}
-
-	public double getY() {
-		return y;
-	}
-
-	public Object getValue() {
-		return value;
+public class MultilevelLayoutService extends FFDLayoutService {
+	/*
+	 * (non-Javadoc)
+	 * @see oculus.aperture.layout.ffd.FFDLayoutService#createLayouter()
+	 */
+	@Override
+	protected FFDMultigraphLayouter createLayouter() {
+		return new FFDMultigraphLayouter(new MultilevelLayouter());
 	}
-
 }
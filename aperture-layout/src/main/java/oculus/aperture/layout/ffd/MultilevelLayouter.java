@@ -0,0 +1,446 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.ffd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * A multilevel force-directed layout algorithm, after Walshaw. The graph is coarsened by 
+ * repeated matching until it is small, the coarsest graph is laid out from scratch, and then
+ * each finer graph starts from the layout of the one above it and only needs refining.
+ */
+public class MultilevelLayouter extends FFDLayouter {
+	private static final Logger logger = Logger.getLogger(MultilevelLayouter.class.getName());
+	
+	// graphs no larger than this are laid out directly
+	private static final int COARSEST_SIZE = Integer.parseInt(System.getProperty("dashboard.layouts.FFD.multilevel.coarsest", "50"));
+	
+	// how hot the refinement of each level starts, as a fraction of the temperature of a full layout
+	private static final double REFINEMENT_TEMPERATURE = Double.parseDouble(System.getProperty("dashboard.layouts.FFD.multilevel.temperature", "0.1"));
+	
+	// how much the refinement of each level cools with each iteration
+	private static final double REFINEMENT_COOLING = Double.parseDouble(System.getProperty("dashboard.layouts.FFD.multilevel.cooling", "0.9"));
+	
+	/**
+	 * A graph in the hierarchy, with the weight of each node being the number of original
+	 * nodes it stands for, and the weight of each link the number of original links. The 
+	 * weight of a node is also the mass it repels with.
+	 */
+	private static class Level {
+		final int nodeCount;
+		final int[] neighborOffsets;
+		final int[] neighbors;
+		final int[] linkWeights;
+		final int[] nodeWeights;
+		
+		// the node of the next coarsest level that each node was merged into
+		int[] coarse;
+		
+		// the pinned nodes, and where each is pinned
+		BitSet fixed;
+		double[] pinnedXs;
+		double[] pinnedYs;
+		
+		Level(int nodeCount, int[] neighborOffsets, int[] neighbors, int[] linkWeights, int[] nodeWeights) {
+			this.nodeCount = nodeCount;
+			this.neighborOffsets = neighborOffsets;
+			this.neighbors = neighbors;
+			this.linkWeights = linkWeights;
+			this.nodeWeights = nodeWeights;
+		}
+	}
+	
+	@Override
+	public NodesPositionState determineLayout(Collection<Node> nodeList, Collection<Link> edgeList) throws Exception {
+		
+		// an incremental layout is best refined where it is
+		if (isIncremental() || nodeList.size() <= COARSEST_SIZE) {
+			return super.determineLayout(nodeList, edgeList);
+		}
+		
+		logger.info("Performing Oculus multilevel force layout...");
+		long startms = System.currentTimeMillis();
+		
+		Node[] nodes = nodeList.toArray(new Node[nodeList.size()]);
+		List<Level> levels = new ArrayList<Level>();
+		levels.add(createLevel(nodes, edgeList));
+		pinNodes(levels.get(0), nodes);
+		
+		Random generator = createRandom();
+		
+		// coarsen until small, or until matching stops making much difference
+		Level level = levels.get(0);
+		while (level.nodeCount > COARSEST_SIZE) {
+			Level coarser = coarsen(level, generator);
+			if (coarser.nodeCount > 0.95 * level.nodeCount) {
+				level.coarse = null;
+				break;
+			}
+			pinCoarseNodes(level, coarser);
+			levels.add(coarser);
+			level = coarser;
+		}
+		
+		logger.info("Coarsened "+nodes.length+" nodes to "+level.nodeCount+" over "+levels.size()+" levels");
+		
+		// lay out the coarsest level from scratch
+		double[] xs = new double[level.nodeCount];
+		double[] ys = new double[level.nodeCount];
+		for (int i = 0; i < level.nodeCount; i++) {
+			if (level.fixed.get(i)) {
+				xs[i] = level.pinnedXs[i];
+				ys[i] = level.pinnedYs[i];
+			} else {
+				xs[i] = generator.nextDouble();
+				ys[i] = generator.nextDouble();
+			}
+		}
+		double[] progress = new double[2];
+		int iterations = refine(level, xs, ys, 1.0, 0, progress);
+		
+		// then interpolate each finer level from the one above it, and refine
+		for (int l = levels.size() - 2; l >= 0; l--) {
+			level = levels.get(l);
+			
+			double spacing = getSpacing(xs, ys);
+			double[] fineXs = new double[level.nodeCount];
+			double[] fineYs = new double[level.nodeCount];
+			for (int i = 0; i < level.nodeCount; i++) {
+				if (level.fixed.get(i)) {
+					fineXs[i] = level.pinnedXs[i];
+					fineYs[i] = level.pinnedYs[i];
+				} else {
+					int c = level.coarse[i];
+					fineXs[i] = xs[c] + (generator.nextDouble() - 0.5) * spacing * 0.1;
+					fineYs[i] = ys[c] + (generator.nextDouble() - 0.5) * spacing * 0.1;
+				}
+			}
+			xs = fineXs;
+			ys = fineYs;
+			
+			iterations += refine(level, xs, ys, REFINEMENT_TEMPERATURE, REFINEMENT_COOLING, progress);
+		}
+		
+		// scale the result to 0..100, as for a single level layout
+		double minX = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < nodes.length; i++) {
+			if (xs[i] < minX)	minX = xs[i];
+			if (xs[i] > maxX)	maxX = xs[i];
+			if (ys[i] < minY)	minY = ys[i];
+			if (ys[i] > maxY)	maxY = ys[i];
+		}
+		
+		double sx = 100d/(maxX-minX);
+		double sy = 100d/(maxY-minY);
+		
+		NodesPositionState nps = new NodesPositionState();
+		for (int i = 0; i < nodes.length; i++) {
+			Node layoutNode = nodes[i];
+			layoutNode.setX((int) ((xs[i]-minX)*sx));
+			layoutNode.setY((int) ((ys[i]-minY)*sy));
+			nps.setPosition(layoutNode.getId(), (xs[i]-minX)*sx, (ys[i]-minY)*sy);
+		}
+		if (isMeasured()) {
+			Level finest = levels.get(0);
+			nps.setStatistics(LayoutMeasures.measure(finest.neighborOffsets, finest.neighbors, xs, ys, iterations, progress[1], generator));
+		}
+		
+		logger.debug("Oculus multilevel force layout completed in  " + ((double)System.currentTimeMillis()-startms)/1000+"s and using " + iterations + " iterations.");
+		
+		return nps;
+	}
+	
+	/**
+	 * Builds the finest level from the nodes and links, dropping loops and links to missing nodes.
+	 */
+	private Level createLevel(Node[] nodes, Collection<Link> edgeList) {
+		Map<String, Integer> indices = new HashMap<String, Integer>(nodes.length);
+		for (int i = 0; i < nodes.length; i++) {
+			indices.put(nodes[i].getId(), i);
+		}
+		
+		int[] linkSources = new int[edgeList.size()];
+		int[] linkTargets = new int[edgeList.size()];
+		int[] neighborOffsets = new int[nodes.length + 1];
+		int linkCount = 0;
+		for (Link em : edgeList) {
+			Integer source = indices.get(em.getSourceId());
+			Integer target = indices.get(em.getTargetId());
+			if (source == null || target == null || source.intValue() == target.intValue()) continue;
+			linkSources[linkCount] = source;
+			linkTargets[linkCount] = target;
+			neighborOffsets[source + 1]++;
+			neighborOffsets[target + 1]++;
+			linkCount++;
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			neighborOffsets[i + 1] += neighborOffsets[i];
+		}
+		int[] neighbors = new int[neighborOffsets[nodes.length]];
+		int[] fill = Arrays.copyOf(neighborOffsets, nodes.length);
+		for (int l = 0; l < linkCount; l++) {
+			neighbors[fill[linkSources[l]]++] = linkTargets[l];
+			neighbors[fill[linkTargets[l]]++] = linkSources[l];
+		}
+		
+		int[] linkWeights = new int[neighbors.length];
+		Arrays.fill(linkWeights, 1);
+		int[] nodeWeights = new int[nodes.length];
+		Arrays.fill(nodeWeights, 1);
+		
+		return new Level(nodes.length, neighborOffsets, neighbors, linkWeights, nodeWeights);
+	}
+	
+	/**
+	 * Pins the nodes of the finest level that the layout was asked to keep in place, where 
+	 * they arrived.
+	 */
+	private void pinNodes(Level level, Node[] nodes) {
+		level.fixed = getFixedNodes(nodes);
+		level.pinnedXs = new double[level.nodeCount];
+		level.pinnedYs = new double[level.nodeCount];
+		for (int i = level.fixed.nextSetBit(0); i >= 0; i = level.fixed.nextSetBit(i + 1)) {
+			level.pinnedXs[i] = nodes[i].getX();
+			level.pinnedYs[i] = nodes[i].getY();
+		}
+	}
+	
+	/**
+	 * Pins each node of the coarser level that has a pinned member, at the mean position of its 
+	 * pinned members, so that the nodes merged with a pinned node are held near it from the 
+	 * coarsest layout down.
+	 */
+	private void pinCoarseNodes(Level level, Level coarser) {
+		coarser.fixed = new BitSet(coarser.nodeCount);
+		coarser.pinnedXs = new double[coarser.nodeCount];
+		coarser.pinnedYs = new double[coarser.nodeCount];
+		
+		int[] pinnedCounts = new int[coarser.nodeCount];
+		for (int i = level.fixed.nextSetBit(0); i >= 0; i = level.fixed.nextSetBit(i + 1)) {
+			int c = level.coarse[i];
+			coarser.fixed.set(c);
+			coarser.pinnedXs[c] += level.pinnedXs[i];
+			coarser.pinnedYs[c] += level.pinnedYs[i];
+			pinnedCounts[c]++;
+		}
+		for (int c = coarser.fixed.nextSetBit(0); c >= 0; c = coarser.fixed.nextSetBit(c + 1)) {
+			coarser.pinnedXs[c] /= pinnedCounts[c];
+			coarser.pinnedYs[c] /= pinnedCounts[c];
+		}
+	}
+	
+	/**
+	 * Builds the next coarsest level. Nodes are visited in random order and matched with the 
+	 * unmatched neighbour they share the heaviest link with, preferring lighter neighbours. Any 
+	 * node left unmatched then joins the lightest group among its neighbours, which collapses 
+	 * stars that a matching alone would only reduce by one node a level.
+	 */
+	private Level coarsen(Level level, Random generator) {
+		int n = level.nodeCount;
+		int[] neighborOffsets = level.neighborOffsets;
+		int[] neighbors = level.neighbors;
+		int[] linkWeights = level.linkWeights;
+		int[] nodeWeights = level.nodeWeights;
+		
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		for (int i = n - 1; i > 0; i--) {
+			int j = generator.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		
+		// match
+		int[] mate = new int[n];
+		Arrays.fill(mate, -1);
+		for (int o = 0; o < n; o++) {
+			int i = order[o];
+			if (mate[i] != -1) continue;
+			
+			int best = -1;
+			for (int a = neighborOffsets[i]; a < neighborOffsets[i + 1]; a++) {
+				int j = neighbors[a];
+				if (mate[j] != -1) continue;
+				if (best == -1 || linkWeights[a] > linkWeights[best] 
+						|| (linkWeights[a] == linkWeights[best] && nodeWeights[j] < nodeWeights[neighbors[best]])) {
+					best = a;
+				}
+			}
+			if (best != -1) {
+				mate[i] = neighbors[best];
+				mate[neighbors[best]] = i;
+			}
+		}
+		
+		// number the matched pairs and isolated nodes
+		int[] coarse = new int[n];
+		Arrays.fill(coarse, -1);
+		int coarseCount = 0;
+		for (int i = 0; i < n; i++) {
+			if (coarse[i] != -1) continue;
+			if (mate[i] != -1) {
+				coarse[i] = coarseCount;
+				coarse[mate[i]] = coarseCount;
+				coarseCount++;
+			} else if (neighborOffsets[i] == neighborOffsets[i + 1]) {
+				coarse[i] = coarseCount++;
+			}
+		}
+		int[] coarseWeights = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (coarse[i] != -1) {
+				coarseWeights[coarse[i]] += nodeWeights[i];
+			}
+		}
+		
+		// every neighbour of an unmatched node is matched, so join the lightest of their groups
+		for (int i = 0; i < n; i++) {
+			if (coarse[i] != -1) continue;
+			
+			int best = -1;
+			for (int a = neighborOffsets[i]; a < neighborOffsets[i + 1]; a++) {
+				int c = coarse[neighbors[a]];
+				if (c != -1 && (best == -1 || coarseWeights[c] < coarseWeights[best])) {
+					best = c;
+				}
+			}
+			if (best == -1) {
+				best = coarseCount++;
+			}
+			coarse[i] = best;
+			coarseWeights[best] += nodeWeights[i];
+		}
+		level.coarse = coarse;
+		
+		// group the members of each coarse node
+		int[] memberOffsets = new int[coarseCount + 1];
+		for (int i = 0; i < n; i++) {
+			memberOffsets[coarse[i] + 1]++;
+		}
+		for (int c = 0; c < coarseCount; c++) {
+			memberOffsets[c + 1] += memberOffsets[c];
+		}
+		int[] members = new int[n];
+		int[] fill = Arrays.copyOf(memberOffsets, coarseCount);
+		for (int i = 0; i < n; i++) {
+			members[fill[coarse[i]]++] = i;
+		}
+		
+		// merge the links of the members, summing the weights of parallel links
+		int[] coarseOffsets = new int[coarseCount + 1];
+		int[] coarseNeighbors = new int[neighbors.length];
+		int[] coarseLinkWeights = new int[neighbors.length];
+		int[] lastSeen = new int[coarseCount];
+		int[] slot = new int[coarseCount];
+		Arrays.fill(lastSeen, -1);
+		int size = 0;
+		for (int c = 0; c < coarseCount; c++) {
+			for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+				int i = members[m];
+				for (int a = neighborOffsets[i]; a < neighborOffsets[i + 1]; a++) {
+					int d = coarse[neighbors[a]];
+					if (d == c) continue;
+					if (lastSeen[d] != c) {
+						lastSeen[d] = c;
+						slot[d] = size;
+						coarseNeighbors[size] = d;
+						coarseLinkWeights[size] = linkWeights[a];
+						size++;
+					} else {
+						coarseLinkWeights[slot[d]] += linkWeights[a];
+					}
+				}
+			}
+			coarseOffsets[c + 1] = size;
+		}
+		
+		return new Level(coarseCount, coarseOffsets, Arrays.copyOf(coarseNeighbors, size), 
+				Arrays.copyOf(coarseLinkWeights, size), Arrays.copyOf(coarseWeights, coarseCount));
+	}
+	
+	/**
+	 * Runs force layout steps on a level from the given positions, starting at a fraction of 
+	 * the temperature of a full layout. Pinned nodes stay where they are, and each node repels 
+	 * with its weight.
+	 * @return the number of iterations run
+	 */
+	private int refine(Level level, double[] xs, double[] ys, double temperatureScale, double cooling, double[] progress) throws InterruptedException {
+		double minX = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < level.nodeCount; i++) {
+			if (xs[i] < minX)	minX = xs[i];
+			if (xs[i] > maxX)	maxX = xs[i];
+			if (ys[i] < minY)	minY = ys[i];
+			if (ys[i] > maxY)	maxY = ys[i];
+		}
+		
+		double width = maxX - minX;
+		double height = maxY - minY;
+		double k = Math.sqrt(width * height / level.nodeCount);
+		double temperature = temperatureScale * 0.5*Math.min(width, height);
+		double stepLimit = Math.min(width, height)/1000;
+		
+		return iterate(level.nodeCount, level.neighborOffsets, level.neighbors, level.fixed, level.nodeWeights, 
+				xs, ys, k, temperature, stepLimit, cooling, progress);
+	}
+	
+	/**
+	 * Returns the typical distance between nodes laid out over an area.
+	 */
+	private double getSpacing(double[] xs, double[] ys) {
+		double minX = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < xs.length; i++) {
+			if (xs[i] < minX)	minX = xs[i];
+			if (xs[i] > maxX)	maxX = xs[i];
+			if (ys[i] < minY)	minY = ys[i];
+			if (ys[i] > maxY)	maxY = ys[i];
+		}
+		return Math.sqrt((maxX - minX) * (maxY - minY) / xs.length);
+	}
+}
@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Set;
 
 import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.LayoutStatistics;
 
 
 /**
@@ -48,6 +49,8 @@ public class NodesPositionState {
 	
 	private Rectangle2D.Double _bb;
 	
+	private LayoutStatistics _statistics;
+	
 	/**
 	 * Builds an empty node position state.
 	 */
@@ -93,6 +96,17 @@ public class NodesPositionState {
 		return _posMap.values();
 	}
 	
+	/**
+	 * Returns measures of the layout which produced these positions, if known.
+	 */
+	public LayoutStatistics getStatistics() {
+		return _statistics;
+	}
+	
+	public void setStatistics(LayoutStatistics statistics) {
+		_statistics = statistics;
+	}
+	
 	public Rectangle2D getBoundingBox() {
 		if (_bb != null) return _bb;
 		_bb = new Rectangle2D.Double();
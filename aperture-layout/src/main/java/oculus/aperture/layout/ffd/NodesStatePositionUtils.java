@@ -26,66 +26,88 @@ package oculus.aperture.layout.ffd;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 public class NodesStatePositionUtils {
 
+	// the width to height ratio to pack components into, by default that of the default view
+	private static final double ASPECT_RATIO = Double.parseDouble(System.getProperty("dashboard.layouts.FFD.packing.aspect", "1.333"));
+	
 	public static Map<NodesPositionState, Point2D> computeNPSOffsets(Collection<NodesPositionState> npss) {
+		return computeNPSOffsets(npss, ASPECT_RATIO);
+	}
+	
+	/**
+	 * Packs the bounding boxes of the node states into rows, tallest first, where each row is 
+	 * filled up to the width which gives the target aspect ratio for the total area. Sorting 
+	 * dominates, so packing is O(C log C) for C states.
+	 * @return the offset to add to the positions of each state
+	 */
+	public static Map<NodesPositionState, Point2D> computeNPSOffsets(Collection<NodesPositionState> npss, double aspectRatio) {
 		Map<NodesPositionState, Point2D> results =
 			new HashMap<NodesPositionState, Point2D>();
 		
+		List<NodesPositionState> orderedByHeight = new ArrayList<NodesPositionState>(npss);
 		
-		LinkedList<NodesPositionState> notOrderedByHeight = new LinkedList<NodesPositionState>();
-		
+		// tallest first, so that each row is as high as its first box
+		Collections.sort(orderedByHeight, new Comparator<NodesPositionState>() {
+			
+			@Override
+			public int compare(NodesPositionState a, NodesPositionState b) {
+				return Double.compare(b.getBoundingBox().getHeight(), a.getBoundingBox().getHeight());
+			}
+		});
 		
 		double totalArea = 0;
-		
-		for (NodesPositionState nps : npss) {
+		for (NodesPositionState nps : orderedByHeight) {
 			Rectangle2D bb = nps.getBoundingBox();
 			double curArea = bb.getWidth()*bb.getHeight();
 			if (curArea == 0) {
 				curArea = 0.1*(double)nps.getNodeIds().size();
 			}
 			totalArea+=curArea;
-			
-			//Just stick them in any order
-			notOrderedByHeight.add(nps);
-			
 		}
 		
-		//Suggested maximum height of the layout of the bounding boxes
-		double maxHeight = Math.sqrt(totalArea)*0.9;
-		double buffer = maxHeight*0.03;
+		// space between boxes
+		double buffer = Math.sqrt(totalArea)*0.03;
+		
+		// the width of a row, allowing for the space each box takes up with its buffer
+		double maxWidth = 0;
+		double paddedArea = 0;
+		for (NodesPositionState nps : orderedByHeight) {
+			Rectangle2D bb = nps.getBoundingBox();
+			maxWidth = Math.max(maxWidth, bb.getWidth());
+			paddedArea += (bb.getWidth()+buffer)*(bb.getHeight()+buffer);
+		}
+		double rowWidth = Math.max(maxWidth, Math.sqrt(paddedArea*aspectRatio));
 		
 		double xoffset = 0;
 		double yoffset = 0;
-		double maxXOffsetRow = 0;
+		double rowHeight = 0;
 		
-		for (NodesPositionState nps : notOrderedByHeight) {
-			Rectangle2D bb = nps.getBoundingBox();			
-			//Set the offsets for this nps in the results table.
-			results.put(nps, new Point2D.Double(xoffset,yoffset));
-		
-			//First, check to see if the width of this nps is larger than the maxXOffsetRow
-			//(This is used to determine how far the xoffset needs to change when moving to the
-			//next column)
-			if (bb.getWidth() >= maxXOffsetRow) {
-				maxXOffsetRow = bb.getWidth()+buffer;
+		for (NodesPositionState nps : orderedByHeight) {
+			Rectangle2D bb = nps.getBoundingBox();
+			
+			// start a new row below this one if it is full
+			if (xoffset > 0 && xoffset + bb.getWidth() > rowWidth) {
+				yoffset += rowHeight+buffer;
+				xoffset = 0;
+				rowHeight = 0;
 			}
 			
-			//Increment the yoffset by the height of this bounding box, then see if it goes over the
-			//maxHeight limit
-			yoffset += bb.getHeight()+buffer;
-			if (yoffset > maxHeight) {
-				//Need to adjust the x offset and reset the max offset for the new column
-				xoffset+=maxXOffsetRow+buffer;
-				maxXOffsetRow=0;
-				yoffset=0;
+			if (rowHeight == 0) {
+				rowHeight = bb.getHeight();
 			}
 			
+			results.put(nps, new Point2D.Double(xoffset - bb.getMinX(), yoffset - bb.getMinY()));
+			
+			xoffset += bb.getWidth()+buffer;
 		}
 		
 		return results;
@@ -24,77 +24,192 @@
  */
 package oculus.aperture.layout.ffd;
 
-import java.awt.geom.Point2D;
-import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 
+/**
+ * A Barnes-Hut quadtree over a set of indexed points. Cells are stored in parallel 
+ * arrays rather than as objects, so the tree can be rebuilt in place on every 
+ * layout iteration without allocating once its arrays have grown to fit. Cell 0 is 
+ * the root, and the four children of a subdivided cell are stored consecutively 
+ * in the order NW, NE, SW, SE.
+ */
 public class QuadTree {
-	private QuadNode root;
 	
-	public QuadTree(Rectangle2D rect) {
-		root = new QuadNode(rect.getMinX(), rect.getMinY(), rect.getWidth(), rect.getHeight());
+	// cells this deep are never subdivided, so coincident points share a leaf
+	static final int MAX_DEPTH = 48;
+	
+	// the most cells an iterative traversal can have waiting on its stack
+	static final int MAX_STACK_SIZE = 3 * MAX_DEPTH + 4;
+	
+	int[] firstChild;	// index of the NW child, or -1 for a leaf
+	int[] count;		// number of points in the cell
+	int[] firstPoint;	// first point in a leaf, or -1
+	int[] nextPoint;	// next point sharing the same leaf, or -1
+	double[] mass;		// total mass of the points in the cell
+	double[] centerOfMassX, centerOfMassY;
+	double[] cellX, cellY, cellWidth, cellHeight;
+	
+	private int cellCount;
+	
+	
+	public QuadTree() {
+		ensureCellCapacity(64);
+		nextPoint = new int[0];
 	}
 	
-	public QuadTree(double x, double y, double width, double height) {
-		root = new QuadNode(x, y, width, height);
+	
+	/**
+	 * Empties the tree and inserts the first n points into a root cell with the given bounds.
+	 */
+	public void build(double[] xs, double[] ys, int n, double x, double y, double width, double height) {
+		build(xs, ys, null, n, x, y, width, height);
 	}
 	
-	public void insert(double x, double y, Object dataVal) {
-		insertIntoQuadNode(root, new QuadNodeData(x, y, dataVal));
+	
+	/**
+	 * Empties the tree and inserts the first n points, each with the given mass, or a 
+	 * mass of one if masses is null, into a root cell with the given bounds.
+	 */
+	public void build(double[] xs, double[] ys, int[] masses, int n, double x, double y, double width, double height) {
+		cellCount = 0;
+		ensureCellCapacity(2 * n + 1);
+		if (nextPoint.length < n) {
+			nextPoint = new int[n];
+		}
+		
+		addCell(x, y, width, height);
+		
+		for (int i = 0; i < n; i++) {
+			insert(i, xs, ys, masses == null? 1 : masses[i]);
+		}
 	}
 	
-	public QuadNode getRoot() {
-		return root;
+	
+	public int getCellCount() {
+		return cellCount;
 	}
 	
-	private void insertIntoQuadNode(QuadNode qn, QuadNodeData data) {
-		if (qn == null)
-			return;
-		qn.incrementChildren();
+	
+	private void insert(int p, double[] xs, double[] ys, int pointMass) {
+		double px = xs[p];
+		double py = ys[p];
+		int cell = 0;
 		
-		// case 1: leaf node, no data
-		// 	 just add the values and get out
-		if (qn.getnChildren() == 1) {
-			qn.setData(data);
-			qn.setCenterOfMass( new Point2D.Double(data.getX(), data.getY()) );
-			return;
+		for (int depth = 0; ; depth++) {
+			int n = ++count[cell];
+			
+			// case 1: empty leaf, just add the point and get out
+			if (n == 1) {
+				firstPoint[cell] = p;
+				nextPoint[p] = -1;
+				mass[cell] = pointMass;
+				centerOfMassX[cell] = px;
+				centerOfMassY[cell] = py;
+				return;
+			}
+			
+			// move the center of mass by scaling old value by its share of the new mass and adding the rest
+			double scale = mass[cell]/(mass[cell] + pointMass);
+			mass[cell] += pointMass;
+			centerOfMassX[cell] = scale * centerOfMassX[cell] + (1-scale) * px;
+			centerOfMassY[cell] = scale * centerOfMassY[cell] + (1-scale) * py;
+			
+			// case 2: leaf needs to become internal, unless it is too small to split
+			if (firstChild[cell] < 0) {
+				if (depth >= MAX_DEPTH) {
+					nextPoint[p] = firstPoint[cell];
+					firstPoint[cell] = p;
+					return;
+				}
+				
+				subdivide(cell);
+				
+				int old = firstPoint[cell];
+				firstPoint[cell] = -1;
+				
+				int child = getContainingChild(cell, xs[old], ys[old]);
+				count[child] = 1;
+				firstPoint[child] = old;
+				mass[child] = mass[cell] - pointMass;
+				centerOfMassX[child] = xs[old];
+				centerOfMassY[child] = ys[old];
+			}
+			
+			// case 3: internal node, push into the proper subquadrant
+			cell = getContainingChild(cell, px, py);
 		}
+	}
+	
+	
+	private int getContainingChild(int cell, double x, double y) {
+		double halfWidth = cellWidth[cell] / 2;
+		double halfHeight = cellHeight[cell] / 2;
+		boolean east = x >= cellX[cell] + halfWidth;
+		boolean north = y >= cellY[cell] + halfHeight;
 		
-		// move the center of mass by scaling old value by (n-1)/n and adding the 1/n new contribution
-		double scale = ((double)qn.getnChildren()-1)/qn.getnChildren();
-		double newX = scale * qn.getCenterOfMass().getX() + (1-scale) * data.getX();
-		double newY = scale * qn.getCenterOfMass().getY() + (1-scale) * data.getY();
-		qn.getCenterOfMass().setLocation(newX, newY);
-
-		// case 2: leaf needs to become internal
-		if (qn.getData() != null) {
-			Rectangle2D pb = qn.getBounds(); // shortens the following lines
-			qn.setNW( new QuadNode(pb.getMinX(), pb.getCenterY(), pb.getWidth()/2, pb.getHeight()/2) );
-			qn.setNE( new QuadNode(pb.getCenterX(), pb.getCenterY(), pb.getWidth()/2, pb.getHeight()/2) );
-			qn.setSW( new QuadNode(pb.getMinX(), pb.getMinY(), pb.getWidth()/2, pb.getHeight()/2) );
-			qn.setSE( new QuadNode(pb.getCenterX(), pb.getMinY(), pb.getWidth()/2, pb.getHeight()/2) );
-			QuadNodeData oldValue = qn.getData();
-			qn.setData(null);
-			insertIntoContainingChildQuandrant(qn, oldValue);
-		}
+		return firstChild[cell] + (north? 0 : 2) + (east? 1 : 0);
+	}
+	
+	
+	private void subdivide(int cell) {
+		double x = cellX[cell];
+		double y = cellY[cell];
+		double w = cellWidth[cell] / 2;
+		double h = cellHeight[cell] / 2;
 		
-		// case 3: internal node, has more than one child but no nodedata
-		//    just push into the proper subquadrant (which already exists)
-		insertIntoContainingChildQuandrant(qn, data);
+		ensureCellCapacity(cellCount + 4);
 		
+		firstChild[cell] = cellCount;
+		addCell(x, y + h, w, h);		// NW
+		addCell(x + w, y + h, w, h);	// NE
+		addCell(x, y, w, h);			// SW
+		addCell(x + w, y, w, h);		// SE
 	}
 	
-	private void insertIntoContainingChildQuandrant(QuadNode qn, QuadNodeData qnd) {
-		QuadNode childRecursionQuad = null;
-		if (qn.getNW().getBounds().contains(qnd.getX(), qnd.getY())) {
-			childRecursionQuad = qn.getNW();
-		} else if (qn.getNE().getBounds().contains(qnd.getX(), qnd.getY())) {
-			childRecursionQuad = qn.getNE();
-		} else if (qn.getSW().getBounds().contains(qnd.getX(), qnd.getY())) {
-			childRecursionQuad = qn.getSW();
-		} else if (qn.getSE().getBounds().contains(qnd.getX(), qnd.getY())) {
-			childRecursionQuad = qn.getSE();
+	
+	private void addCell(double x, double y, double width, double height) {
+		int cell = cellCount++;
+		
+		firstChild[cell] = -1;
+		count[cell] = 0;
+		firstPoint[cell] = -1;
+		cellX[cell] = x;
+		cellY[cell] = y;
+		cellWidth[cell] = width;
+		cellHeight[cell] = height;
+	}
+	
+	
+	private void ensureCellCapacity(int capacity) {
+		if (firstChild != null && firstChild.length >= capacity) {
+			return;
+		}
+		
+		int size = Math.max(capacity, firstChild == null? 0 : 2 * firstChild.length);
+		
+		if (firstChild == null) {
+			firstChild = new int[size];
+			count = new int[size];
+			firstPoint = new int[size];
+			mass = new double[size];
+			centerOfMassX = new double[size];
+			centerOfMassY = new double[size];
+			cellX = new double[size];
+			cellY = new double[size];
+			cellWidth = new double[size];
+			cellHeight = new double[size];
+		} else {
+			firstChild = Arrays.copyOf(firstChild, size);
+			count = Arrays.copyOf(count, size);
+			firstPoint = Arrays.copyOf(firstPoint, size);
+			mass = Arrays.copyOf(mass, size);
+			centerOfMassX = Arrays.copyOf(centerOfMassX, size);
+			centerOfMassY = Arrays.copyOf(centerOfMassY, size);
+			cellX = Arrays.copyOf(cellX, size);
+			cellY = Arrays.copyOf(cellY, size);
+			cellWidth = Arrays.copyOf(cellWidth, size);
+			cellHeight = Arrays.copyOf(cellHeight, size);
 		}
-		insertIntoQuadNode(childRecursionQuad, qnd);
 	}
 	
 }
@@ -44,6 +44,7 @@ public class BasicGraphLayoutOptions implements GraphLayoutOptions {
 	private final String layoutType;
 	private final int linkLength;
 	private final int nodeDistance;
+	private final Long seed;
 
 	/**
 	 * 
@@ -101,6 +102,7 @@ public class BasicGraphLayoutOptions implements GraphLayoutOptions {
 		// relevant in a mix of cases.
 		linkLength = options.getInteger("linkLength", 100);
 		nodeDistance = options.getInteger("nodeDistance", 100);
+		seed = options.getLong("seed", null);
 
 	}
 
@@ -169,4 +171,12 @@ public class BasicGraphLayoutOptions implements GraphLayoutOptions {
 		return nodeDistance;
 	}
 
+	/* (non-Javadoc)
+	 * @see oculus.aperture.spi.GraphLayoutOptions#getSeed()
+	 */
+	@Override
+	public Long getSeed() {
+		return seed;
+	}
+
 }
@@ -31,6 +31,7 @@ import oculus.aperture.layout.LayoutGraph;
 import oculus.aperture.spi.common.Extents;
 import oculus.aperture.spi.common.Link;
 import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.LayoutStatistics;
 import oculus.aperture.spi.layout.options.LayoutOptions;
 import oculus.aperture.spi.layout.options.LayoutOptions.ExtentsFit;
 
@@ -43,6 +44,7 @@ public abstract class BasicLayoutGraph implements LayoutGraph {
 
 	private Collection<? extends Node> nodes;
 	private Collection<? extends Link> links;
+	private LayoutStatistics statistics;
 	
 	/* (non-Javadoc)
 	 * @see oculus.aperture.layout.LayoutGraph#setGraph(java.util.Collection, java.util.Collection)
@@ -72,6 +74,21 @@ public abstract class BasicLayoutGraph implements LayoutGraph {
 	 */
 	protected abstract void doLayout(LayoutOptions options);
 
+	/* (non-Javadoc)
+	 * @see oculus.aperture.layout.LayoutGraph#getStatistics()
+	 */
+	@Override
+	public LayoutStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Records measures of the layout, for layouts which provide them.
+	 */
+	protected void setStatistics(LayoutStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 
 	/*
 	 * (non-Javadoc)
@@ -30,6 +30,7 @@ import oculus.aperture.spi.common.Extents;
 import oculus.aperture.spi.common.Link;
 import oculus.aperture.spi.common.Node;
 import oculus.aperture.spi.layout.LayoutResults;
+import oculus.aperture.spi.layout.LayoutStatistics;
 
 /**
  * @author djonker
@@ -40,6 +41,7 @@ public class BasicLayoutResults implements LayoutResults {
 	private Extents extents;
 	private Collection<? extends Node> nodes;
 	private Collection<? extends Link> links;
+	private LayoutStatistics statistics;
 	
 	/**
 	 * Constructs a basic empty node layout.
@@ -48,10 +50,23 @@ public class BasicLayoutResults implements LayoutResults {
 		Collection<? extends Node> nodes, 
 		Collection<? extends Link> links, 
 		Extents extents
+	) {
+		this(nodes, links, extents, null);
+	}
+
+	/**
+	 * Constructs a basic node layout with statistics.
+	 */
+	public BasicLayoutResults(
+		Collection<? extends Node> nodes, 
+		Collection<? extends Link> links, 
+		Extents extents,
+		LayoutStatistics statistics
 	) {
 		this.nodes = nodes;
 		this.links = links;
 		this.extents = extents;
+		this.statistics = statistics;
 	}
 
 	/* (non-Javadoc)
@@ -78,5 +93,12 @@ public class BasicLayoutResults implements LayoutResults {
 		return links;
 	}
 
+	/* (non-Javadoc)
+	 * @see oculus.aperture.spi.layout.LayoutResults#getStatistics()
+	 */
+	@Override
+	public LayoutStatistics getStatistics() {
+		return statistics;
+	}
 	
 }
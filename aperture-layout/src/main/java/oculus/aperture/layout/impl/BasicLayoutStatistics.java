@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.impl;
+
+import oculus.aperture.spi.layout.LayoutStatistics;
+
+/**
+ * Measures of a layout.
+ */
+public class BasicLayoutStatistics implements LayoutStatistics {
+
+	private final int iterations;
+	private final double energy;
+	private final double stress;
+	private final long edgeCrossings;
+	
+	/**
+	 * Constructs a set of layout measures.
+	 */
+	public BasicLayoutStatistics(int iterations, double energy, double stress, long edgeCrossings) {
+		this.iterations = iterations;
+		this.energy = energy;
+		this.stress = stress;
+		this.edgeCrossings = edgeCrossings;
+	}
+
+	/* (non-Javadoc)
+	 * @see oculus.aperture.spi.layout.LayoutStatistics#getIterations()
+	 */
+	@Override
+	public int getIterations() {
+		return iterations;
+	}
+
+	/* (non-Javadoc)
+	 * @see oculus.aperture.spi.layout.LayoutStatistics#getEnergy()
+	 */
+	@Override
+	public double getEnergy() {
+		return energy;
+	}
+
+	/* (non-Javadoc)
+	 * @see oculus.aperture.spi.layout.LayoutStatistics#getStress()
+	 */
+	@Override
+	public double getStress() {
+		return stress;
+	}
+
+	/* (non-Javadoc)
+	 * @see oculus.aperture.spi.layout.LayoutStatistics#getEdgeCrossings()
+	 */
+	@Override
+	public long getEdgeCrossings() {
+		return edgeCrossings;
+	}
+
+}
@@ -45,6 +45,7 @@ public class BasicTagLayoutOptions extends BasicGraphLayoutOptions implements
 	private final int alignmentOptions;
 	private final int defaultAlignment;
 	private final boolean preferCurrent;
+	private final String layoutToken;
 	
 	private final static Map<String, Integer> ALIGNMENTS;
 	
@@ -114,6 +115,7 @@ public class BasicTagLayoutOptions extends BasicGraphLayoutOptions implements
 		defaultAlignment = aval != null? aval : 0;
 
 		preferCurrent = options.getBoolean("preferCurrent", false);
+		layoutToken = options.getString("layoutToken", null);
 	}
 
 	/*
@@ -160,5 +162,13 @@ public class BasicTagLayoutOptions extends BasicGraphLayoutOptions implements
 		return preferCurrent;
 	}
 
+	/* (non-Javadoc)
+	 * @see oculus.aperture.spi.layout.TagLayoutOptions#getLayoutToken()
+	 */
+	@Override
+	public String getLayoutToken() {
+		return layoutToken;
+	}
+
 
 }
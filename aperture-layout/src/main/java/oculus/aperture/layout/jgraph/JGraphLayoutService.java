@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import oculus.aperture.layout.impl.BridgedLayoutGraph;
 import oculus.aperture.spi.common.Link;
@@ -155,7 +156,11 @@ public class JGraphLayoutService extends BridgedLayoutGraph {
 			double forceConstant_ = 200; // fast organic
 			double initialTemp_ = 200; // fast organic
 			
-			mxFastOrganicLayout organicLayout = new mxFastOrganicLayout(graph);
+			final Long seed = options instanceof GraphLayoutOptions? 
+					((GraphLayoutOptions) options).getSeed() : null;
+			
+			mxFastOrganicLayout organicLayout = seed != null? 
+					new SeededOrganicLayout(graph, seed) : new mxFastOrganicLayout(graph);
 			organicLayout.setForceConstant(forceConstant_);
 			organicLayout.setInitialTemp(initialTemp_);
 			organicLayout.setUseInputOrigin(true);
@@ -186,6 +191,71 @@ public class JGraphLayoutService extends BridgedLayoutGraph {
 	
 	
 	
+	/**
+	 * Fast organic layout which separates coincident nodes with a seeded generator 
+	 * rather than Math.random, so that the same input is always laid out the same way.
+	 */
+	private static class SeededOrganicLayout extends mxFastOrganicLayout {
+		private final Random generator;
+		
+		public SeededOrganicLayout(mxGraph graph, long seed) {
+			super(graph);
+			generator = new Random(seed);
+		}
+		
+		/* (non-Javadoc)
+		 * @see com.mxgraph.layout.mxFastOrganicLayout#calcRepulsion()
+		 */
+		@Override
+		protected void calcRepulsion() {
+			int vertexCount = vertexArray.length;
+			
+			for (int i = 0; i < vertexCount; i++) {
+				for (int j = i; j < vertexCount; j++) {
+					if (!allowedToRun) {
+						return;
+					}
+					if (j == i) {
+						continue;
+					}
+					
+					double xDelta = cellLocation[i][0] - cellLocation[j][0];
+					double yDelta = cellLocation[i][1] - cellLocation[j][1];
+
+					if (xDelta == 0) {
+						xDelta = 0.01 + generator.nextDouble();
+					}
+					if (yDelta == 0) {
+						yDelta = 0.01 + generator.nextDouble();
+					}
+					
+					double deltaLength = Math.sqrt(xDelta * xDelta + yDelta * yDelta);
+					double deltaLengthWithRadius = deltaLength - radius[i] - radius[j];
+
+					if (deltaLengthWithRadius > maxDistanceLimit) {
+						continue;
+					}
+					if (deltaLengthWithRadius < minDistanceLimit) {
+						deltaLengthWithRadius = minDistanceLimit;
+					}
+					
+					double force = forceConstantSquared / deltaLengthWithRadius;
+					double displacementX = (xDelta / deltaLength) * force;
+					double displacementY = (yDelta / deltaLength) * force;
+					
+					if (isMoveable[i]) {
+						dispX[i] += displacementX;
+						dispY[i] += displacementY;
+					}
+					if (isMoveable[j]) {
+						dispX[j] -= displacementX;
+						dispY[j] -= displacementY;
+					}
+				}
+			}
+		}
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see oculus.aperture.layout.impl.BridgedLayoutGraph#addLink(oculus.aperture.spi.layout.LayoutLink)
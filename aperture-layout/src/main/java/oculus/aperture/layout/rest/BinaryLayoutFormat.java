@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.rest;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import oculus.aperture.spi.common.NodeTag;
+import oculus.aperture.spi.common.Alignments.AnchorX;
+import oculus.aperture.spi.common.Alignments.AnchorY;
+
+import org.restlet.data.MediaType;
+
+/**
+ * A compact binary encoding of layout requests and results, for graphs too large 
+ * to send as JSON cheaply. Numbers are little endian, and varints are unsigned 
+ * LEB128, zigzag encoded where signed. Strings are UTF-8, prefixed by their length 
+ * in bytes as a varint.
+ * 
+ * <pre>
+ * request:
+ *   magic      'A' 'P' 'G' version
+ *   strings    varint count, then each string
+ *   options    string: a JSON object of the extents and layout, as in a JSON request
+ *   nodes      varint count n, n varint id string indices, 
+ *              n float32 each of x, y, width, height and weight, n tag bytes
+ *   links      varint count m, m varint id string indices, 
+ *              m varint source node indices, m varint target node indices
+ *   
+ * results:
+ *   magic      'A' 'P' 'G' version
+ *   strings    varint count, then each string
+ *   nodes      varint count n, n varint id string indices, 
+ *              n float32 each of x, y, width, height and weight, n varint member counts,
+ *              n tag bytes, then a zigzag varint x and y offset for each tagged node
+ *   links      varint count m, m varint id string indices, 
+ *              m varint source node indices, m varint target node indices,
+ *              m float32 weights, m varint member counts
+ *   extents    byte 0 if absent, 1 if present or 3 if present but empty, 
+ *              then zigzag varints left, top, width, height
+ *   statistics byte 1 if present, then varint iterations, float64 energy, 
+ *              float64 stress, varint edge crossings
+ * </pre>
+ * 
+ * A tag byte is zero for a node with no tag, otherwise bit 0 is set, bit 1 is set 
+ * if visible, and bits 2-3 and 4-5 are the ordinals of the x and y anchors.
+ */
+final class BinaryLayoutFormat {
+
+	/**
+	 * The media type of the encoding.
+	 */
+	static final MediaType MEDIA_TYPE = new MediaType("application/x-aperture-graph", "Aperture binary graph");
+	
+	static final int VERSION = 1;
+	
+	private static final byte[] MAGIC = {'A', 'P', 'G', VERSION};
+	
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// bounds counts and lengths read, so that sizes in bytes can't overflow
+	static final int MAX_COUNT = 1 << 26;
+	
+	// arrays read are allocated at most this many elements ahead of the data which fills them, 
+	// so that a short request can't ask for large arrays
+	static final int CHUNK_SIZE = 1 << 16;
+	
+	private BinaryLayoutFormat() {
+	}
+	
+	static void writeMagic(OutputStream out) throws IOException {
+		out.write(MAGIC);
+	}
+	
+	static void readMagic(DataInputStream in) throws IOException {
+		final byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (magic[i] != MAGIC[i]) {
+				throw new IllegalArgumentException("Layout request is not a version " + VERSION + " aperture graph.");
+			}
+		}
+	}
+	
+	static void writeVarint(OutputStream out, int value) throws IOException {
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+	
+	static void writeVarLong(OutputStream out, long value) throws IOException {
+		final byte[] bytes = new byte[10];
+		int length = 0;
+		
+		while ((value & ~0x7FL) != 0) {
+			bytes[length++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[length++] = (byte)value;
+		
+		out.write(bytes, 0, length);
+	}
+	
+	static int readVarint(DataInputStream in) throws IOException {
+		final long value = readVarLong(in);
+		
+		if ((value >>> 32) != 0) {
+			throw new IllegalArgumentException("Malformed varint in aperture graph.");
+		}
+		return (int)value;
+	}
+	
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.read();
+			
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long)(b & 0x7F) << shift;
+			
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		
+		throw new IllegalArgumentException("Malformed varint in aperture graph.");
+	}
+	
+	static void writeSignedVarint(OutputStream out, int value) throws IOException {
+		writeVarint(out, (value << 1) ^ (value >> 31));
+	}
+	
+	static int readSignedVarint(DataInputStream in) throws IOException {
+		final int value = readVarint(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Reads a count or index, which must be below the given limit.
+	 */
+	static int readIndex(DataInputStream in, int limit) throws IOException {
+		final int value = readVarint(in);
+		
+		if (value < 0 || value >= limit) {
+			throw new IllegalArgumentException("Index out of range in aperture graph.");
+		}
+		return value;
+	}
+	
+	static void writeString(OutputStream out, String value) throws IOException {
+		final byte[] bytes = value.getBytes(UTF8);
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	static String readString(DataInputStream in) throws IOException {
+		return new String(readBytes(in, readIndex(in, MAX_COUNT)), UTF8);
+	}
+	
+	/**
+	 * Reads a count of bytes, growing the buffer only as they arrive.
+	 */
+	static byte[] readBytes(DataInputStream in, int count) throws IOException {
+		byte[] bytes = new byte[Math.min(count, CHUNK_SIZE)];
+		int read = 0;
+		
+		while (read < count) {
+			if (read == bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.min(count, 2 * bytes.length));
+			}
+			in.readFully(bytes, read, bytes.length - read);
+			read = bytes.length;
+		}
+		
+		return bytes;
+	}
+	
+	/**
+	 * Reads a count of indices, each below the given limit, growing the array only as they arrive.
+	 */
+	static int[] readIndices(DataInputStream in, int count, int limit) throws IOException {
+		int[] indices = new int[Math.min(count, CHUNK_SIZE)];
+		
+		for (int i = 0; i < count; i++) {
+			if (i == indices.length) {
+				indices = Arrays.copyOf(indices, Math.min(count, 2 * indices.length));
+			}
+			indices[i] = readIndex(in, limit);
+		}
+		
+		return indices;
+	}
+	
+	static void writeFloats(OutputStream out, float[] values) throws IOException {
+		final ByteBuffer bytes = ByteBuffer.allocate(4 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.asFloatBuffer().put(values);
+		out.write(bytes.array());
+	}
+	
+	static void writeDouble(OutputStream out, double value) throws IOException {
+		out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(value).array());
+	}
+	
+	static float[] readFloats(DataInputStream in, int count) throws IOException {
+		final byte[] bytes = readBytes(in, 4 * count);
+		
+		final float[] values = new float[count];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+		return values;
+	}
+	
+	static double readDouble(DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[8];
+		in.readFully(bytes);
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getDouble();
+	}
+	
+	static int encodeTag(NodeTag tag) {
+		if (tag == null) {
+			return 0;
+		}
+		final AnchorX ax = tag.getAnchorX() != null? tag.getAnchorX() : AnchorX.middle;
+		final AnchorY ay = tag.getAnchorY() != null? tag.getAnchorY() : AnchorY.middle;
+		
+		return 1 
+			| (tag.isVisible()? 2 : 0)
+			| (ax.ordinal() << 2)
+			| (ay.ordinal() << 4);
+	}
+	
+	static boolean isTagged(int code) {
+		return (code & 1) != 0;
+	}
+	
+	static boolean isVisible(int code) {
+		return (code & 2) != 0;
+	}
+	
+	static AnchorX getAnchorX(int code) {
+		final int ordinal = (code >> 2) & 3;
+		
+		if (ordinal >= AnchorX.values().length) {
+			throw new IllegalArgumentException("Invalid tag anchor in aperture graph.");
+		}
+		return AnchorX.values()[ordinal];
+	}
+	
+	static AnchorY getAnchorY(int code) {
+		final int ordinal = (code >> 4) & 3;
+		
+		if (ordinal >= AnchorY.values().length) {
+			throw new IllegalArgumentException("Invalid tag anchor in aperture graph.");
+		}
+		return AnchorY.values()[ordinal];
+	}
+}
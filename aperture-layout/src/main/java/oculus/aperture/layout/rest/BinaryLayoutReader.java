@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.rest;
+
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.CHUNK_SIZE;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.MAX_COUNT;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.getAnchorX;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.getAnchorY;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.isTagged;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.isVisible;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readBytes;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readFloats;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readIndex;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readIndices;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readMagic;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readString;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import oculus.aperture.common.BasicLink;
+import oculus.aperture.common.BasicNode;
+import oculus.aperture.common.BasicNodeTag;
+import oculus.aperture.common.JSONProperties;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.common.Properties;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads a layout request in the binary graph format.
+ * 
+ * @see BinaryLayoutFormat
+ */
+final class BinaryLayoutReader {
+
+	private BinaryLayoutReader() {
+	}
+
+	/**
+	 * Reads a layout request.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		if the request is missing its layouts or extents, or is not a valid graph.
+	 */
+	static LayoutRequest read(InputStream stream) throws IOException, JSONException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		
+		readMagic(in);
+		
+		final int stringCount = readIndex(in, MAX_COUNT);
+		final List<String> strings = new ArrayList<String>(Math.min(stringCount, CHUNK_SIZE));
+		for (int i = 0; i < stringCount; i++) {
+			strings.add(readString(in));
+		}
+		
+		final JSONObject options = new JSONObject(readString(in));
+		final JSONArray layouts = options.optJSONArray("layout");
+		final JSONObject extents = options.optJSONObject("extents");
+		
+		// required
+		if (layouts == null) {
+			throw new IllegalArgumentException("Unspecified layout requested.");
+		}
+		
+		// required
+		if (extents == null) {
+			throw new IllegalArgumentException("Layout requested but no extents supplied.");
+		}
+		
+		final List<Node> nodes = readNodes(in, strings);
+		final List<Link> links = readLinks(in, strings, nodes);
+		
+		final List<Properties> layoutOptions = new ArrayList<Properties>(layouts.length());
+		for (int i = 0; i < layouts.length(); i++) {
+			layoutOptions.add(new JSONProperties(layouts.getJSONObject(i)));
+		}
+		
+		return new LayoutRequest(nodes, links, new JSONProperties(extents), layoutOptions);
+	}
+	
+	private static List<Node> readNodes(DataInputStream in, List<String> strings) throws IOException {
+		final int n = readIndex(in, MAX_COUNT);
+		
+		final int[] ids = readIndices(in, n, strings.size());
+		final float[] x = readFloats(in, n);
+		final float[] y = readFloats(in, n);
+		final float[] w = readFloats(in, n);
+		final float[] h = readFloats(in, n);
+		final float[] weight = readFloats(in, n);
+		
+		final byte[] tags = readBytes(in, n);
+		
+		final List<Node> nodes = new ArrayList<Node>(n);
+		
+		for (int i = 0; i < n; i++) {
+			final BasicNode node = new BasicNode(strings.get(ids[i]), 0, 0, (int)w[i], (int)h[i]);
+			node.setX(x[i]);
+			node.setY(y[i]);
+			node.setWeight(weight[i]);
+			
+			if (isTagged(tags[i])) {
+				node.setTag(new BasicNodeTag(isVisible(tags[i]), getAnchorX(tags[i]), getAnchorY(tags[i])));
+			}
+			
+			nodes.add(node);
+		}
+		
+		return nodes;
+	}
+	
+	private static List<Link> readLinks(DataInputStream in, List<String> strings, List<Node> nodes) throws IOException {
+		final int m = readIndex(in, MAX_COUNT);
+		
+		final int[] ids = readIndices(in, m, strings.size());
+		final int[] sources = readIndices(in, m, nodes.size());
+		final int[] targets = readIndices(in, m, nodes.size());
+		
+		final List<Link> links = new ArrayList<Link>(m);
+		
+		for (int i = 0; i < m; i++) {
+			links.add(new BasicLink(strings.get(ids[i]), 
+					nodes.get(sources[i]).getId(), nodes.get(targets[i]).getId()));
+		}
+		
+		return links;
+	}
+}
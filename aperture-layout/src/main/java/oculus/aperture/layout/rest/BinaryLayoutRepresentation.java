@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.rest;
+
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.encodeTag;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeDouble;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeFloats;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeMagic;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeSignedVarint;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeString;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeVarLong;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeVarint;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import oculus.aperture.layout.impl.BasicTagResult;
+import oculus.aperture.spi.common.Extents;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.common.NodeTag;
+import oculus.aperture.spi.layout.LayoutResults;
+import oculus.aperture.spi.layout.LayoutStatistics;
+
+import org.restlet.representation.OutputRepresentation;
+
+/**
+ * Writes layout results in the binary graph format. Only ids, geometry, weights
+ * and tags are written: node types, labels and attributes are left to the JSON
+ * representation. Links to nodes missing from the results are dropped.
+ * 
+ * @see BinaryLayoutFormat
+ */
+class BinaryLayoutRepresentation extends OutputRepresentation {
+
+	private final LayoutResults results;
+	
+	/**
+	 * Constructs a representation of the given results.
+	 */
+	BinaryLayoutRepresentation(LayoutResults results) {
+		super(BinaryLayoutFormat.MEDIA_TYPE);
+		
+		this.results = results;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.restlet.representation.Representation#write(java.io.OutputStream)
+	 */
+	@Override
+	public void write(OutputStream outputStream) throws IOException {
+		final OutputStream out = new BufferedOutputStream(outputStream);
+		
+		final List<Node> nodes = new ArrayList<Node>(results.getNodes());
+		final int n = nodes.size();
+		
+		// node ids lead the string table in node order, so a node's string index is its own
+		final List<String> strings = new ArrayList<String>(n + 1);
+		final Map<String, Integer> nodeIndices = new HashMap<String, Integer>(n*2);
+		
+		for (int i = 0; i < n; i++) {
+			final String id = nodes.get(i).getId();
+			
+			strings.add(id != null? id : "");
+			nodeIndices.put(id, i);
+		}
+		
+		// links to missing nodes have no index to encode, so are dropped before anything is written
+		final List<Link> links = new ArrayList<Link>(results.getLinks().size());
+		
+		for (Link link : results.getLinks()) {
+			if (nodeIndices.containsKey(link.getSourceId()) && nodeIndices.containsKey(link.getTargetId())) {
+				links.add(link);
+			}
+		}
+		
+		// followed by each distinct link id, which are often all blank
+		final Map<String, Integer> linkIdIndices = new HashMap<String, Integer>();
+		final int[] linkIds = new int[links.size()];
+		int j = 0;
+		
+		for (Link link : links) {
+			linkIds[j++] = indexOf(link.getId(), linkIdIndices, strings);
+		}
+		
+		writeMagic(out);
+		
+		writeVarint(out, strings.size());
+		for (String string : strings) {
+			writeString(out, string);
+		}
+		
+		writeNodes(out, nodes);
+		writeLinks(out, links, linkIds, nodeIndices);
+		writeExtents(out, results.getExtents());
+		writeStatistics(out, results.getStatistics());
+		
+		out.flush();
+	}
+	
+	private static int indexOf(String string, Map<String, Integer> indices, List<String> strings) {
+		if (string == null) {
+			string = "";
+		}
+		
+		Integer index = indices.get(string);
+		
+		if (index == null) {
+			index = strings.size();
+			indices.put(string, index);
+			strings.add(string);
+		}
+		
+		return index;
+	}
+	
+	private static void writeNodes(OutputStream out, List<Node> nodes) throws IOException {
+		final int n = nodes.size();
+		
+		writeVarint(out, n);
+		for (int i = 0; i < n; i++) {
+			writeVarint(out, i);
+		}
+		
+		final float[] x = new float[n], y = new float[n], w = new float[n], h = new float[n], weight = new float[n];
+		
+		for (int i = 0; i < n; i++) {
+			final Node node = nodes.get(i);
+			x[i] = (float)node.getX();
+			y[i] = (float)node.getY();
+			w[i] = node.getWidth();
+			h[i] = node.getHeight();
+			weight[i] = (float)node.getWeight();
+		}
+		
+		writeFloats(out, x);
+		writeFloats(out, y);
+		writeFloats(out, w);
+		writeFloats(out, h);
+		writeFloats(out, weight);
+		
+		for (Node node : nodes) {
+			writeVarLong(out, Math.max(0, node.getNumMembers()));
+		}
+		for (Node node : nodes) {
+			out.write(encodeTag(node.getTag()));
+		}
+		
+		// offsets of tagged nodes
+		for (Node node : nodes) {
+			final NodeTag tag = node.getTag();
+			
+			if (tag instanceof BasicTagResult) {
+				writeSignedVarint(out, ((BasicTagResult)tag).getOffsetX());
+				writeSignedVarint(out, ((BasicTagResult)tag).getOffsetY());
+			} else if (tag != null) {
+				writeSignedVarint(out, 0);
+				writeSignedVarint(out, 0);
+			}
+		}
+	}
+	
+	private static void writeLinks(OutputStream out, Collection<? extends Link> links, 
+			int[] linkIds, Map<String, Integer> nodeIndices) throws IOException {
+		
+		writeVarint(out, links.size());
+		
+		for (int id : linkIds) {
+			writeVarint(out, id);
+		}
+		for (Link link : links) {
+			writeVarint(out, nodeIndices.get(link.getSourceId()));
+		}
+		for (Link link : links) {
+			writeVarint(out, nodeIndices.get(link.getTargetId()));
+		}
+		
+		final float[] weight = new float[links.size()];
+		int i = 0;
+		
+		for (Link link : links) {
+			weight[i++] = (float)link.getWeight();
+		}
+		writeFloats(out, weight);
+		
+		for (Link link : links) {
+			writeVarLong(out, Math.max(0, link.getNumMembers()));
+		}
+	}
+	
+	private static void writeExtents(OutputStream out, Extents extents) throws IOException {
+		if (extents == null) {
+			out.write(0);
+			return;
+		}
+		
+		out.write(extents.isEmpty()? 3 : 1);
+		writeSignedVarint(out, extents.getLeft());
+		writeSignedVarint(out, extents.getTop());
+		writeSignedVarint(out, extents.getWidth());
+		writeSignedVarint(out, extents.getHeight());
+	}
+	
+	private static void writeStatistics(OutputStream out, LayoutStatistics statistics) throws IOException {
+		if (statistics == null) {
+			out.write(0);
+			return;
+		}
+		
+		out.write(1);
+		writeVarint(out, Math.max(0, statistics.getIterations()));
+		writeDouble(out, statistics.getEnergy());
+		writeDouble(out, statistics.getStress());
+		writeVarLong(out, Math.max(0, statistics.getEdgeCrossings()));
+	}
+}
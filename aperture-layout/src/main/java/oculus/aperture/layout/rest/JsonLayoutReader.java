@@ -0,0 +1,387 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.rest;
+
+import static oculus.aperture.layout.rest.LayoutResource.LINK_PROPERTY_ID;
+import static oculus.aperture.layout.rest.LayoutResource.LINK_PROPERTY_SOURCE_ID;
+import static oculus.aperture.layout.rest.LayoutResource.LINK_PROPERTY_TARGET_ID;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_HEIGHT;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_ID;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_WEIGHT;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_WIDTH;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_X;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_Y;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import oculus.aperture.common.BasicLink;
+import oculus.aperture.common.BasicNode;
+import oculus.aperture.common.BasicNodeTag;
+import oculus.aperture.common.JSONProperties;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.common.Properties;
+import oculus.aperture.spi.common.Alignments.AnchorX;
+import oculus.aperture.spi.common.Alignments.AnchorY;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads a JSON layout request as a stream, creating each node and link as it is
+ * parsed rather than building a document of the whole request first. Only the 
+ * small extents and layout objects are kept as JSON properties.
+ */
+final class JsonLayoutReader {
+
+	// thread safe, and costly to create
+	private static final JsonFactory factory = new JsonFactory();
+	
+	// marks a node size to take from the default node size, which may come later in the request
+	private static final int UNSIZED = Integer.MIN_VALUE;
+	
+	private JsonLayoutReader() {
+	}
+
+	/**
+	 * Reads a layout request.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		if the request is missing its layouts, nodes or extents, or has malformed nodes or links.
+	 */
+	static LayoutRequest read(InputStream in) throws IOException, JSONException {
+		final JsonParser parser = factory.createJsonParser(in);
+		
+		try {
+			return read(parser);
+		} finally {
+			parser.close();
+		}
+	}
+	
+	private static LayoutRequest read(JsonParser parser) throws IOException, JSONException {
+		List<Node> nodes = null;
+		List<Link> links = Collections.emptyList();
+		JSONObject extents = null, nodeSize = null;
+		JSONArray layouts = null;
+		
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new IllegalArgumentException("Layout request is not a JSON object.");
+		}
+		
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			
+			if (token == JsonToken.START_ARRAY && "nodes".equals(field)) {
+				nodes = readNodes(parser);
+			} else if (token == JsonToken.START_ARRAY && "links".equals(field)) {
+				links = readLinks(parser);
+			} else if (token == JsonToken.START_ARRAY && "layout".equals(field)) {
+				layouts = readArray(parser);
+			} else if (token == JsonToken.START_OBJECT && "extents".equals(field)) {
+				extents = readObject(parser);
+			} else if (token == JsonToken.START_OBJECT && "defaultNodeSize".equals(field)) {
+				nodeSize = readObject(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		
+		// required
+		if (layouts == null) {
+			throw new IllegalArgumentException("Unspecified layout requested.");
+		}
+		
+		// required
+		if (nodes == null) {
+			throw new IllegalArgumentException("Layout requested but no nodes supplied.");
+		}
+		
+		// required
+		if (extents == null) {
+			throw new IllegalArgumentException("Layout requested but no extents supplied.");
+		}
+		
+		// optional universal size, for nodes without their own
+		final int defaultW = nodeSize != null? nodeSize.optInt(NODE_PROPERTY_WIDTH, 1) : 1;
+		final int defaultH = nodeSize != null? nodeSize.optInt(NODE_PROPERTY_HEIGHT, 1) : 1;
+		
+		for (Node node : nodes) {
+			if (node.getWidth() == UNSIZED) {
+				node.setWidth(defaultW);
+			}
+			if (node.getHeight() == UNSIZED) {
+				node.setHeight(defaultH);
+			}
+		}
+		
+		final List<Properties> layoutOptions = new ArrayList<Properties>(layouts.length());
+		for (int i = 0; i < layouts.length(); i++) {
+			layoutOptions.add(new JSONProperties(layouts.getJSONObject(i)));
+		}
+		
+		return new LayoutRequest(nodes, links, new JSONProperties(extents), layoutOptions);
+	}
+	
+	private static List<Node> readNodes(JsonParser parser) throws IOException {
+		final List<Node> nodes = new ArrayList<Node>();
+		JsonToken token;
+		
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token != JsonToken.START_OBJECT) {
+				throw new IllegalArgumentException("Failed to parse one or more layout nodes.");
+			}
+			
+			String id = null;
+			int x = 0, y = 0, w = UNSIZED, h = UNSIZED;
+			double weight = 0;
+			BasicNodeTag tag = null;
+			
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.getCurrentName();
+				parser.nextToken();
+				
+				if (NODE_PROPERTY_ID.equals(field)) {
+					id = readString(parser, null);
+				} else if (NODE_PROPERTY_X.equals(field)) {
+					x = (int)readDouble(parser, 0);
+				} else if (NODE_PROPERTY_Y.equals(field)) {
+					y = (int)readDouble(parser, 0);
+				} else if (NODE_PROPERTY_WIDTH.equals(field)) {
+					w = (int)readDouble(parser, UNSIZED);
+				} else if (NODE_PROPERTY_HEIGHT.equals(field)) {
+					h = (int)readDouble(parser, UNSIZED);
+				} else if (NODE_PROPERTY_WEIGHT.equals(field)) {
+					weight = (float)readDouble(parser, 0);
+				} else if ("tag".equals(field)) {
+					tag = readTag(parser);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			
+			if (id == null) {
+				throw new IllegalArgumentException("Failed to parse a valid id from one or more layout nodes.");
+			}
+			
+			final BasicNode node = new BasicNode(id, x, y, w, h);
+			node.setWeight(weight);
+			
+			if (tag != null) {
+				node.setTag(tag);
+			}
+			
+			nodes.add(node);
+		}
+		
+		return nodes;
+	}
+	
+	private static BasicNodeTag readTag(JsonParser parser) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return null;
+		}
+		
+		boolean visible = true;
+		String anchorX = "middle", anchorY = "middle";
+		
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			parser.nextToken();
+			
+			if ("visible".equals(field)) {
+				visible = readBoolean(parser, true);
+			} else if ("anchorX".equals(field)) {
+				anchorX = readString(parser, anchorX);
+			} else if ("anchorY".equals(field)) {
+				anchorY = readString(parser, anchorY);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		
+		return new BasicNodeTag(visible, AnchorX.valueOf(anchorX), AnchorY.valueOf(anchorY));
+	}
+	
+	private static List<Link> readLinks(JsonParser parser) throws IOException {
+		final List<Link> links = new ArrayList<Link>();
+		JsonToken token;
+		
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token != JsonToken.START_OBJECT) {
+				throw new IllegalArgumentException("Failed to parse one or more layout links.");
+			}
+			
+			String id = "", sid = null, tid = null;
+			
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.getCurrentName();
+				parser.nextToken();
+				
+				if (LINK_PROPERTY_ID.equals(field)) {
+					id = readString(parser, "");
+				} else if (LINK_PROPERTY_SOURCE_ID.equals(field)) {
+					sid = readString(parser, null);
+				} else if (LINK_PROPERTY_TARGET_ID.equals(field)) {
+					tid = readString(parser, null);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			
+			if (sid == null || tid == null) {
+				throw new IllegalArgumentException("Failed to parse a valid source and target id from one or more layout links.");
+			}
+			
+			links.add(new BasicLink(id, sid, tid));
+		}
+		
+		return links;
+	}
+	
+	/*
+	 * Values are read as leniently as JSONObject reads them, so numbers may be quoted 
+	 * and ids need not be strings.
+	 */
+	private static String readString(JsonParser parser, String defaultValue) throws IOException {
+		switch (parser.getCurrentToken()) {
+		case VALUE_STRING:
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+		case VALUE_TRUE:
+		case VALUE_FALSE:
+			return parser.getText();
+			
+		default:
+			parser.skipChildren();
+			return defaultValue;
+		}
+	}
+	
+	private static double readDouble(JsonParser parser, double defaultValue) throws IOException {
+		switch (parser.getCurrentToken()) {
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return parser.getDoubleValue();
+			
+		case VALUE_STRING:
+			try {
+				return Double.parseDouble(parser.getText());
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+			
+		default:
+			parser.skipChildren();
+			return defaultValue;
+		}
+	}
+	
+	private static boolean readBoolean(JsonParser parser, boolean defaultValue) throws IOException {
+		switch (parser.getCurrentToken()) {
+		case VALUE_TRUE:
+			return true;
+			
+		case VALUE_FALSE:
+			return false;
+			
+		case VALUE_STRING:
+			if ("true".equalsIgnoreCase(parser.getText())) {
+				return true;
+			}
+			if ("false".equalsIgnoreCase(parser.getText())) {
+				return false;
+			}
+			return defaultValue;
+			
+		default:
+			parser.skipChildren();
+			return defaultValue;
+		}
+	}
+	
+	private static JSONObject readObject(JsonParser parser) throws IOException, JSONException {
+		final JSONObject object = new JSONObject();
+		
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			parser.nextToken();
+			object.put(field, readValue(parser));
+		}
+		
+		return object;
+	}
+	
+	private static JSONArray readArray(JsonParser parser) throws IOException, JSONException {
+		final JSONArray array = new JSONArray();
+		
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			array.put(readValue(parser));
+		}
+		
+		return array;
+	}
+	
+	private static Object readValue(JsonParser parser) throws IOException, JSONException {
+		switch (parser.getCurrentToken()) {
+		case START_OBJECT:
+			return readObject(parser);
+			
+		case START_ARRAY:
+			return readArray(parser);
+			
+		case VALUE_STRING:
+			return parser.getText();
+			
+		case VALUE_NUMBER_INT:
+			return parser.getNumberValue();
+			
+		case VALUE_NUMBER_FLOAT:
+			return parser.getDoubleValue();
+			
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+			
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+			
+		case VALUE_NULL:
+			return JSONObject.NULL;
+			
+		default:
+			throw new IllegalArgumentException("Layout request is not valid JSON.");
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.rest;
+
+import static oculus.aperture.layout.rest.LayoutResource.LINK_PROPERTY_ID;
+import static oculus.aperture.layout.rest.LayoutResource.LINK_PROPERTY_SOURCE_ID;
+import static oculus.aperture.layout.rest.LayoutResource.LINK_PROPERTY_TARGET_ID;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_HEIGHT;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_ID;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_WEIGHT;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_WIDTH;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_X;
+import static oculus.aperture.layout.rest.LayoutResource.NODE_PROPERTY_Y;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import oculus.aperture.layout.impl.BasicTagResult;
+import oculus.aperture.spi.common.Extents;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.common.NodeTag;
+import oculus.aperture.spi.layout.LayoutResults;
+import oculus.aperture.spi.layout.LayoutStatistics;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+
+/**
+ * Writes layout results as JSON straight to the response as each node and link
+ * is visited, with the same properties the results have as beans.
+ */
+class JsonLayoutRepresentation extends OutputRepresentation {
+
+	// thread safe, and costly to create
+	private static final JsonFactory factory = new JsonFactory();
+	
+	private final LayoutResults results;
+	
+	/**
+	 * Constructs a representation of the given results.
+	 */
+	JsonLayoutRepresentation(LayoutResults results) {
+		super(MediaType.APPLICATION_JSON);
+		setCharacterSet(CharacterSet.UTF_8);
+		
+		this.results = results;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.restlet.representation.Representation#write(java.io.OutputStream)
+	 */
+	@Override
+	public void write(OutputStream outputStream) throws IOException {
+		final JsonGenerator out = factory.createJsonGenerator(outputStream, JsonEncoding.UTF8);
+		out.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		
+		try {
+			out.writeStartObject();
+			
+			out.writeArrayFieldStart("nodes");
+			for (Node node : results.getNodes()) {
+				writeNode(out, node);
+			}
+			out.writeEndArray();
+			
+			out.writeArrayFieldStart("links");
+			for (Link link : results.getLinks()) {
+				writeLink(out, link);
+			}
+			out.writeEndArray();
+			
+			out.writeFieldName("extents");
+			writeExtents(out, results.getExtents());
+			
+			out.writeFieldName("statistics");
+			writeStatistics(out, results.getStatistics());
+			
+			out.writeEndObject();
+		} finally {
+			out.close();
+		}
+	}
+	
+	private static void writeNode(JsonGenerator out, Node node) throws IOException {
+		out.writeStartObject();
+		out.writeStringField(NODE_PROPERTY_ID, node.getId());
+		writeStringField(out, "type", node.getType());
+		writeStringField(out, "label", node.getLabel());
+		out.writeNumberField(NODE_PROPERTY_X, node.getX());
+		out.writeNumberField(NODE_PROPERTY_Y, node.getY());
+		out.writeNumberField(NODE_PROPERTY_WIDTH, node.getWidth());
+		out.writeNumberField(NODE_PROPERTY_HEIGHT, node.getHeight());
+		out.writeNumberField(NODE_PROPERTY_WEIGHT, node.getWeight());
+		out.writeNumberField("numMembers", node.getNumMembers());
+		
+		final NodeTag tag = node.getTag();
+		
+		if (tag != null) {
+			out.writeObjectFieldStart("tag");
+			out.writeBooleanField("visible", tag.isVisible());
+			writeStringField(out, "anchorX", tag.getAnchorX() != null? tag.getAnchorX().name() : null);
+			writeStringField(out, "anchorY", tag.getAnchorY() != null? tag.getAnchorY().name() : null);
+			
+			if (tag instanceof BasicTagResult) {
+				out.writeNumberField("offsetX", ((BasicTagResult)tag).getOffsetX());
+				out.writeNumberField("offsetY", ((BasicTagResult)tag).getOffsetY());
+			}
+			out.writeEndObject();
+		} else {
+			out.writeNullField("tag");
+		}
+		
+		final Map<String, Object> attrs = node.getAttrs();
+		
+		if (attrs != null && !attrs.isEmpty()) {
+			out.writeObjectFieldStart("attrs");
+			for (Map.Entry<String, Object> attr : attrs.entrySet()) {
+				out.writeFieldName(attr.getKey());
+				writeScalar(out, attr.getValue());
+			}
+			out.writeEndObject();
+		}
+		
+		out.writeEndObject();
+	}
+	
+	private static void writeLink(JsonGenerator out, Link link) throws IOException {
+		out.writeStartObject();
+		writeStringField(out, LINK_PROPERTY_ID, link.getId());
+		out.writeStringField(LINK_PROPERTY_SOURCE_ID, link.getSourceId());
+		out.writeStringField(LINK_PROPERTY_TARGET_ID, link.getTargetId());
+		out.writeNumberField("weight", link.getWeight());
+		out.writeNumberField("numMembers", link.getNumMembers());
+		out.writeEndObject();
+	}
+	
+	private static void writeExtents(JsonGenerator out, Extents extents) throws IOException {
+		if (extents == null) {
+			out.writeNull();
+			return;
+		}
+		
+		out.writeStartObject();
+		out.writeNumberField("left", extents.getLeft());
+		out.writeNumberField("top", extents.getTop());
+		out.writeNumberField("width", extents.getWidth());
+		out.writeNumberField("height", extents.getHeight());
+		out.writeBooleanField("empty", extents.isEmpty());
+		
+		if (!extents.isEmpty()) {
+			out.writeNumberField("right", extents.getLeft() + extents.getWidth());
+			out.writeNumberField("bottom", extents.getTop() + extents.getHeight());
+		}
+		out.writeEndObject();
+	}
+	
+	private static void writeStatistics(JsonGenerator out, LayoutStatistics statistics) throws IOException {
+		if (statistics == null) {
+			out.writeNull();
+			return;
+		}
+		
+		out.writeStartObject();
+		out.writeNumberField("iterations", statistics.getIterations());
+		out.writeNumberField("energy", statistics.getEnergy());
+		out.writeNumberField("stress", statistics.getStress());
+		out.writeNumberField("edgeCrossings", statistics.getEdgeCrossings());
+		out.writeEndObject();
+	}
+	
+	private static void writeStringField(JsonGenerator out, String field, String value) throws IOException {
+		if (value != null) {
+			out.writeStringField(field, value);
+		} else {
+			out.writeNullField(field);
+		}
+	}
+	
+	private static void writeScalar(JsonGenerator out, Object value) throws IOException {
+		if (value == null) {
+			out.writeNull();
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			out.writeNumber(((Number)value).longValue());
+		} else if (value instanceof Number) {
+			out.writeNumber(((Number)value).doubleValue());
+		} else if (value instanceof Boolean) {
+			out.writeBoolean((Boolean)value);
+		} else {
+			out.writeString(value.toString());
+		}
+	}
+}
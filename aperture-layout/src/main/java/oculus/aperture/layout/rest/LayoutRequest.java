@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.rest;
+
+import java.util.List;
+
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.common.Properties;
+
+/**
+ * A graph and the layouts to execute on it, as read from a request to the 
+ * layout resource.
+ */
+class LayoutRequest {
+
+	private final List<Node> nodes;
+	private final List<Link> links;
+	private final Properties extents;
+	private final List<Properties> layouts;
+	
+	/**
+	 * Constructs a request from its parts.
+	 */
+	LayoutRequest(List<Node> nodes, List<Link> links, Properties extents, List<Properties> layouts) {
+		this.nodes = nodes;
+		this.links = links;
+		this.extents = extents;
+		this.layouts = layouts;
+	}
+
+	/**
+	 * Returns the nodes to lay out.
+	 */
+	List<Node> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the links between the nodes, which may be empty.
+	 */
+	List<Link> getLinks() {
+		return links;
+	}
+
+	/**
+	 * Returns the extents of the layout space.
+	 */
+	Properties getExtents() {
+		return extents;
+	}
+
+	/**
+	 * Returns the options of each layout, in order of execution.
+	 */
+	List<Properties> getLayouts() {
+		return layouts;
+	}
+}
@@ -24,27 +24,17 @@
  */
 package oculus.aperture.layout.rest;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
-import oculus.aperture.common.BasicLink;
-import oculus.aperture.common.BasicNode;
-import oculus.aperture.common.BasicNodeTag;
-import oculus.aperture.common.JSONProperties;
 import oculus.aperture.common.rest.ApertureServerResource;
-import oculus.aperture.spi.common.Link;
-import oculus.aperture.spi.common.Node;
 import oculus.aperture.spi.common.Properties;
-import oculus.aperture.spi.common.Alignments.AnchorX;
-import oculus.aperture.spi.common.Alignments.AnchorY;
 import oculus.aperture.spi.layout.LayoutResults;
 import oculus.aperture.spi.layout.LayoutService;
 import oculus.aperture.spi.layout.options.LayoutOptions;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Post;
 
 import com.google.inject.Inject;
@@ -97,6 +87,15 @@ public class LayoutResource extends ApertureServerResource{
 	 */
 	public final static String LINK_PROPERTY_TARGET_ID = "targetId";
 
+	/**
+	 * Media type of the binary graph format, which may be posted and / or accepted
+	 * in place of JSON.
+	 */
+	public final static MediaType APPLICATION_APERTURE_GRAPH = BinaryLayoutFormat.MEDIA_TYPE;
+
+	// response types in order of preference, when the client accepts either
+	private final static List<MediaType> JSON_FIRST = Arrays.asList(MediaType.APPLICATION_JSON, APPLICATION_APERTURE_GRAPH);
+	private final static List<MediaType> BINARY_FIRST = Arrays.asList(APPLICATION_APERTURE_GRAPH, MediaType.APPLICATION_JSON);
 
 
 	private LayoutService layoutService;
@@ -107,164 +106,52 @@ public class LayoutResource extends ApertureServerResource{
 		this.layoutService = layoutService;
 	}
 
-	@Post("json")
-	public LayoutResults layout(String jsonData) throws Exception {
-		final JSONObject jsonObj = new JSONObject(jsonData);
-
-		// Get node and edge data.
-		JSONArray nodesJSON, edgesJSON, layoutJSON;
-		JSONObject extentsJSON, nodeSizeJSON;
-
-		// required
-		try {
-			layoutJSON = jsonObj.getJSONArray("layout");
-		} catch (JSONException e) {
-			throw new IllegalArgumentException("Unspecified layout requested.");
-		}
-
-		// required
-		try {
-			nodesJSON = jsonObj.getJSONArray("nodes");
-		} catch (JSONException e) {
-			throw new IllegalArgumentException("Layout requested but no nodes supplied.");
-		}
-
-		// required
-		try {
-			extentsJSON = jsonObj.getJSONObject("extents");
-		} catch (JSONException e) {
-			throw new IllegalArgumentException("Layout requested but no extents supplied.");
-		}
-
-		// optional for some layouts
-		try {
-			edgesJSON = jsonObj.getJSONArray("links");
-		} catch (JSONException e) {
-			edgesJSON = null;
-		}
-		// optional universal size
-		try {
-			nodeSizeJSON = jsonObj.getJSONObject("defaultNodeSize");
-		} catch (JSONException e) {
-			nodeSizeJSON = null;
-		}
-
-		LayoutResults result= null;
-
-		Properties extents = new JSONProperties(extentsJSON);
-		List<Node> nodes = parseNodes(nodesJSON, nodeSizeJSON);
-		List<Link> links = parseLinks(edgesJSON);
-
-		// execute layouts
-		for (int i = 0; i < layoutJSON.length(); i++) {
-			final JSONObject layout = layoutJSON.getJSONObject(i);
-			final String layoutType = layout.getString("type");
-
-			final LayoutOptions options = layoutService.parseOptions(layoutType, extents,
-					new JSONProperties(layout));
-
-			result = layoutService.layout(nodes, links, options);
-		}
-
-		return result;
-	}
-
 	/**
-	 * Parses node list from JSON and returns the result as Java.
-	 *
-	 * @param nodesJSON
-	 * 		The node list as a JSON array (of JSONObject).
-	 * @return
-	 * 		The node list as a Java List of LayoutNode.
-	 *
-	 * @throws JSONException
+	 * Reads the request as JSON or as a binary graph by its content type, and
+	 * responds in whichever the client accepts, preferring the format it sent.
 	 */
-	private List<Node> parseNodes(JSONArray nodesJSON, JSONObject nodeSizeJSON) throws JSONException {
-		List<Node> nodes = new ArrayList<Node>(nodesJSON.length());
-
-		Integer globalW = 1;
-		Integer globalH = 1;
-
-		if (nodeSizeJSON != null) {
-			try {
-				globalW= nodeSizeJSON.getInt("width");
-				globalH= nodeSizeJSON.getInt("height");
-			} catch(Exception e) {
-			}
+	@Post
+	public Representation layout(Representation entity) throws Exception {
+		if (entity == null) {
+			throw new IllegalArgumentException("Layout requested but no nodes supplied.");
 		}
-
-		final int defaultW = globalW != null? globalW.intValue() : 1;
-		final int defaultH = globalH != null? globalH.intValue() : 1;
-
-		for (int i=0; i< nodesJSON.length(); i++) {
-			JSONObject nodeObj = (JSONObject)nodesJSON.get(i);
-			JSONProperties nodeProp = new JSONProperties(nodeObj);
-
-			final String id = nodeProp.getString(NODE_PROPERTY_ID, null);
-
-			if (id != null) {
-				final int w = nodeProp.getInteger(NODE_PROPERTY_WIDTH, defaultW);
-				final int h = nodeProp.getInteger(NODE_PROPERTY_HEIGHT, defaultH);
-				final int x = nodeProp.getInteger(NODE_PROPERTY_X, 0);
-				final int y = nodeProp.getInteger(NODE_PROPERTY_Y, 0);
-
-				BasicNode node = new BasicNode(id, x, y, w, h);
-				nodes.add(node);
-
-				// optional.
-				node.setWeight(nodeProp.getFloat(NODE_PROPERTY_WEIGHT, 0f));
-
-				Properties tag = nodeProp.getPropertiesSet("tag", null);
-
-				if (tag != null) {
-					node.setTag(new BasicNodeTag(
-							tag.getBoolean("visible", true),
-							AnchorX.valueOf(tag.getString("anchorX", "middle")),
-							AnchorY.valueOf(tag.getString("anchorY", "middle"))
-					));
-				}
-
-			} else {
-				throw new JSONException("Failed to parse a valid id from one or more layout nodes.");
-			}
+		
+		final boolean binary = APPLICATION_APERTURE_GRAPH.equals(entity.getMediaType(), true);
+		
+		final LayoutResults result = layout(binary?
+				BinaryLayoutReader.read(entity.getStream()) : 
+				JsonLayoutReader.read(entity.getStream()));
+		
+		if (result == null) {
+			return null;
 		}
-
-		return nodes;
+		
+		final MediaType responseType = getClientInfo().getPreferredMediaType(binary? BINARY_FIRST : JSON_FIRST);
+		
+		return APPLICATION_APERTURE_GRAPH.equals(responseType, true)? 
+				new BinaryLayoutRepresentation(result) : new JsonLayoutRepresentation(result);
 	}
 
 	/**
-	 * Parses link list from JSON and returns the result as Java.
-	 *
-	 * @param linksJSON
-	 * 		The link list as a JSON array (of JSONObject).
-	 * @return
-	 * 		The link list as a Java List of LayoutLink.
-	 *
-	 * @throws JSONException
+	 * Executes each requested layout in turn, returning the results of the last.
 	 */
-	private List<Link> parseLinks(JSONArray linksJSON) throws JSONException {
-		if (linksJSON == null) return Collections.emptyList();
-
-		List<Link> links = new ArrayList<Link>(linksJSON.length());
-
-		for (int i=0; i< linksJSON.length(); i++) {
-			JSONObject linkObj = (JSONObject)linksJSON.get(i);
-			JSONProperties linkProp = new JSONProperties(linkObj);
+	private LayoutResults layout(LayoutRequest request) {
+		LayoutResults result= null;
 
-			final String id  = linkProp.getString(LINK_PROPERTY_ID, "");
-			final String sid = linkProp.getString(LINK_PROPERTY_SOURCE_ID, null);
-			final String tid = linkProp.getString(LINK_PROPERTY_TARGET_ID, null);
+		for (Properties layout : request.getLayouts()) {
+			final String layoutType = layout.getString("type", null);
+			
+			if (layoutType == null) {
+				throw new IllegalArgumentException("Layout requested without a type.");
+			}
 
-			if (sid != null && tid != null) {
-				Link link = new BasicLink(id, sid, tid);
-				links.add(link);
+			final LayoutOptions options = layoutService.parseOptions(layoutType, request.getExtents(),
+					layout);
 
-			} else {
-				throw new JSONException("Failed to parse a valid id from one or more layout nodes.");
-			}
+			result = layoutService.layout(request.getNodes(), request.getLinks(), options);
 		}
 
-		return links;
+		return result;
 	}
 
 }
@@ -25,6 +25,8 @@
 package oculus.aperture.layout.tag;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import oculus.aperture.spi.common.Alignments;
 import oculus.aperture.spi.common.Extents;
@@ -226,6 +228,22 @@ public class TrellisDeconfliction implements Alignments {
 	private float[] tempOrigin1_ = new float[2*NUM_ALIGNMENTS];
 	private float[] tempOrigin2_ = new float[2*NUM_ALIGNMENTS];
 
+	// candidates left to process, by priority
+	private int queue_[] = new int[MIN_COUNT_BUFFER_INCR];
+	private int queueSize_ = 0;
+
+	// the session of the last deconfliction, and where it placed each node, by id
+	private String layoutToken_ = null;
+	private Map<String, Integer> lastIndex_ = null;
+	private double lastx_[] = null;
+	private double lasty_[] = null;
+	private int lastRelocations_[] = null;
+
+	// the last placement of each node to keep, if still free
+	private boolean incremental_ = false;
+	private int sticky_[] = null;
+	private String nodeIds_[] = null;
+
 	/**
 	 * Constructs a deconfliction processor for use by a single client thread,
 	 * with default size reservation of 100 x 15.
@@ -275,8 +293,8 @@ public class TrellisDeconfliction implements Alignments {
 		numNodes_ = nodes.size();
 		
 		// TODO: this buffer should be handled elsewhere.
-		viewWidth_ = Math.min(4* view.getWidth(), zoom * view.getWidth());
-		viewHeight_ = Math.min(4* view.getHeight(), zoom * view.getHeight());
+		viewWidth_ = getViewSize(view.getWidth(), zoom);
+		viewHeight_ = getViewSize(view.getHeight(), zoom);
 		
 		final float viewX = Math.max(0, view.getLeft() - view.getWidth());
 		final float viewY = Math.max(0, view.getTop() - view.getHeight());
@@ -297,6 +315,20 @@ public class TrellisDeconfliction implements Alignments {
 		}
 
 		final boolean preferCurrent = options.preferCurrentAlignment();
+		
+		// continuing a session?
+		final String layoutToken = options.getLayoutToken();
+		if (layoutToken == null || !layoutToken.equals(layoutToken_)) {
+			endSession();
+		}
+		layoutToken_ = layoutToken;
+		incremental_ = lastIndex_ != null;
+		
+		if (layoutToken_ != null && (nodeIds_ == null || nodeIds_.length < numNodes_)) {
+			nodeIds_ = new String[numNodes_];
+			sticky_ = new int[numNodes_];
+		}
+		
 		int i=0;
 		
 		// compact
@@ -305,6 +337,20 @@ public class TrellisDeconfliction implements Alignments {
 			nodey_[i] = (float)node.getY()*zoom - viewY;
 			nodep_[i] = -node.getWeight(); // higher weight -> higher priority (lower num)
 
+			if (layoutToken_ != null) {
+				nodeIds_[i] = node.getId();
+				sticky_[i] = 0;
+				
+				// keep the last placement of nodes which have not moved
+				if (incremental_) {
+					final Integer last = lastIndex_.get(nodeIds_[i]);
+					
+					if (last != null && lastx_[last] == node.getX() && lasty_[last] == node.getY()) {
+						sticky_[i] = alignmentMask_ & (isTopRow? lastRelocations_[last] >> 5 : lastRelocations_[last]);
+					}
+				}
+			}
+
 			locations_[i] = 0;
 			
 			// current alignment
@@ -329,32 +375,73 @@ public class TrellisDeconfliction implements Alignments {
 		initRelocations(whichNodes);
 
 		// Determine trellis dimensions
-		trellisSizeX_ = (int)Math.ceil(viewWidth_ / (float)reservationSizeX_);
-		trellisSizeY_ = (int)Math.ceil(viewHeight_ / (float)reservationSizeY_);
+		trellisSizeX_ = getTrellisSize(viewWidth_, reservationSizeX_);
+		trellisSizeY_ = getTrellisSize(viewHeight_, reservationSizeY_);
 
 		// Assign screen coords to trellis
 		initTrellis();
 
 		// Resolve conflicts
 		if (isSingleAlignment())
-			resolveConflictsSingle();
+			resolveConflicts();
 		else {
 			initCandidatesList();
+			resolveConflicts();
 			if (isTopRow) {
-				resolveConflictsBottomRow();
 				alignmentMask_ = alignmentMask_ << 5;
 				for (i=0; i<numNodes_; i++)
 					relocations_[i] = relocations_[i] << 5;
 			}
-			else if (isBottomRow())
-				resolveConflictsBottomRow();
-			else
-				resolveConflicts();
+		}
+
+		if (layoutToken_ != null) {
+			storeSession(nodes);
 		}
 
 		return relocations_;
 	}
 
+	/**
+	 * Records the placements just made, for the next deconfliction in the session.
+	 */
+	private void storeSession(Collection<? extends Node> nodes) {
+		if (lastx_ == null || lastx_.length < numNodes_) {
+			lastx_ = new double[numNodes_];
+			lasty_ = new double[numNodes_];
+			lastRelocations_ = new int[numNodes_];
+		}
+		lastIndex_ = new HashMap<String, Integer>(2 * numNodes_);
+		
+		int i=0;
+		for (Node node : nodes) {
+			lastx_[i] = node.getX();
+			lasty_[i] = node.getY();
+			lastRelocations_[i] = relocations_[i];
+			lastIndex_.put(nodeIds_[i], i);
+			i++;
+		}
+	}
+
+	/**
+	 * Returns the token of the session last deconflicted, if any.
+	 */
+	String getLayoutToken() {
+		return layoutToken_;
+	}
+
+	/**
+	 * Forgets the placements of the last session.
+	 */
+	void endSession() {
+		layoutToken_ = null;
+		lastIndex_ = null;
+		lastx_ = null;
+		lasty_ = null;
+		lastRelocations_ = null;
+		nodeIds_ = null;
+		sticky_ = null;
+	}
+
 	
 	private void setReservationSize(float x, float y) {
 		reservationSizeX_ = x;
@@ -423,6 +510,39 @@ public class TrellisDeconfliction implements Alignments {
 	}
 
 
+	/**
+	 * Returns a key for the dimensions of the trellis last used, which decide the size 
+	 * of the buffers this instance holds for reuse.
+	 */
+	long getTrellisKey() {
+		return getTrellisKey(trellisSizeX_, trellisSizeY_);
+	}
+	
+	/**
+	 * Returns a key for the dimensions of the trellis that a deconfliction with these options 
+	 * will use.
+	 */
+	static long getTrellisKey(TagLayoutOptions options) {
+		final Extents view = options.getView();
+		final float zoom = options.getZoom();
+		
+		return getTrellisKey(
+				getTrellisSize(getViewSize(view.getWidth(), zoom), options.getTagWidth()),
+				getTrellisSize(getViewSize(view.getHeight(), zoom), options.getTagHeight()));
+	}
+	
+	private static long getTrellisKey(int trellisSizeX, int trellisSizeY) {
+		return ((long)trellisSizeX << 32) | (trellisSizeY & 0xffffffffL);
+	}
+	
+	private static float getViewSize(int size, float zoom) {
+		return Math.min(4* size, zoom * size);
+	}
+	
+	private static int getTrellisSize(float viewSize, float reservationSize) {
+		return (int)Math.ceil(viewSize / reservationSize);
+	}
+	
 	/**
 	 * Returns the last result from a call to deconflict.
 	 * 
@@ -582,18 +702,25 @@ public class TrellisDeconfliction implements Alignments {
 		}
 	}
 
+	// nodes on the far edge of the view belong to the last cell
+	private int getTrellisX(int coord) {
+		return Math.min((int)(nodex_[coord] * (1f / reservationSizeX_)), trellisSizeX_-1);
+	}
+
+	private int getTrellisY(int coord) {
+		return Math.min((int)(nodey_[coord] * (1f / reservationSizeY_)), trellisSizeY_-1);
+	}
+
 	private void initTrellis() {
 		allocateTrellis();
 
-		float recipReservationSizeX = 1f / reservationSizeX_;
-		float recipReservationSizeY = 1f / reservationSizeY_;
 		int x, y;
 		
 		// Get the counts
 		for (int i=0; i<numNodes_; i++) {
 			if (relocations_[i] != 0) {
-				x = (int)(nodex_[i] * recipReservationSizeX);
-				y = (int)(nodey_[i] * recipReservationSizeY);
+				x = getTrellisX(i);
+				y = getTrellisY(i);
 				trellisCount_[x][y]++;
 			}
 		}
@@ -620,8 +747,8 @@ public class TrellisDeconfliction implements Alignments {
 		// Store coord indexes
 		for (int i=0; i<numNodes_; i++) {
 			if (relocations_[i] != 0) {
-				x = (int)(nodex_[i] * recipReservationSizeX);
-				y = (int)(nodey_[i] * recipReservationSizeY);
+				x = getTrellisX(i);
+				y = getTrellisY(i);
 				trellis_[x][y][trellisCount_[x][y]] = i;
 				trellisCount_[x][y]++;
 			}
@@ -2426,49 +2553,7 @@ public class TrellisDeconfliction implements Alignments {
 		}
 	}
 
-	private void findAndProcessTopCandidateSingle(int x, int y) {
-		// Get the highest value in this trellis cell
-		int candidate = -1;
-		double priority = Double.MAX_VALUE;
-		int sc;
-		for (int k=0; k<trellisCount_[x][y]; k++) {
-			sc = trellis_[x][y][k];
-			if (relocations_[sc] != 0 && nodep_[sc] < priority) {
-				priority = nodep_[sc];
-				candidate = k;
-			}
-		}
-
-		if (candidate == -1) {
-			trellisCount_[x][y] = 0;
-			return;
-		}
-
-		sc = trellis_[x][y][candidate];
-
-		// Search for candidates that are in the neighborhood that have higher weighting.
-		// If we find one, then process that one instead.
-		for (int i=-1; i<=1; i++) {
-			for (int j=-1; j<=1; j++) {
-				if ((i==0 && j==0)
-						|| x+i<0 || x+i>=trellisSizeX_
-						|| y+j<0 || y+j>=trellisSizeY_)
-					continue;
-
-				int xi = x+i, yj = y+j;
-				for (int k=0; k<trellisCount_[xi][yj]; k++) {
-					int sc2 = trellis_[xi][yj][k];
-					if (relocations_[sc2] != 0 && nodep_[sc2] < priority) {
-						// Found a better candidate
-						findAndProcessTopCandidateSingle(xi, yj);
-						if (relocations_[sc] == 0)
-							return;
-						k--;  // else redo
-					}
-				}
-			}
-		}
-
+	private void processCandidateSingle(int x, int y, int sc) {
 		conflictsCount_[0] = 0;
 
 		// Aggregate all conflicts
@@ -2476,9 +2561,8 @@ public class TrellisDeconfliction implements Alignments {
 
 		// Process top dog house
 		for (int k=0; k<trellisCount_[x][y]; k++) {
-			if (k != candidate) {
-				sc = trellis_[x][y][k];
-				relocations_[sc] = 0;
+			if (trellis_[x][y][k] != sc) {
+				relocations_[trellis_[x][y][k]] = 0;
 			}
 		}
 		trellisCount_[x][y] = 0;
@@ -2488,62 +2572,14 @@ public class TrellisDeconfliction implements Alignments {
 			relocations_[conflicts_[0][i]] = 0;
 	}
 
-	private void resolveConflictsSingle() {
-		for (int i=0; i<trellisSizeX_; i++) {
-			for (int j=0; j<trellisSizeY_; j++) {
-				while (trellisCount_[i][j] > 0) {
-					findAndProcessTopCandidateSingle(i, j);
-				}
-			}
-		}
-	}
-
-	private void findAndProcessTopCandidateBottomRow(int x, int y) {
-		// Get the highest value in this trellis cell
-		int candidate = -1;
-		double priority = Double.MAX_VALUE;
-		int sc, sc2;
-		for (int k=0; k<trellisCount_[x][y]; k++) {
-			sc = trellis_[x][y][k];
-			if (relocations_[sc] != 0 && !candidate_[sc] && nodep_[sc] < priority) {
-				priority = nodep_[sc];
-				candidate = k;
-			}
-		}
-
-		if (candidate == -1) {
-			trellisCount_[x][y] = 0;
-			return;
-		}
-
-		sc = trellis_[x][y][candidate];
-
-		// Search for candidates that are in the neighborhood that have higher ranking priority.
-		// If we find one, then process that one instead.
-		for (int i=-2; i<=2; i++) {
-			for (int j=-1; j<=1; j++) {
-				if ((i==0 && j==0)
-						|| x+i<0 || x+i>=trellisSizeX_
-						|| y+j<0 || y+j>=trellisSizeY_)
-					continue;
-
-				int xi = x+i, yj = y+j;
-				for (int k=0; k<trellisCount_[xi][yj]; k++) {
-					sc2 = trellis_[xi][yj][k];
-					if (relocations_[sc2] != 0 && !candidate_[sc2] && nodep_[sc2] < priority) {
-						// Found a better candidate
-						findAndProcessTopCandidateBottomRow(xi, yj);
-						if (relocations_[sc] == 0)
-							return;
-						k--;  // else redo
-					}
-				}
-			}
-		}
-
+	private void processCandidateBottomRow(int x, int y, int sc) {
 		// This is the top dog
 		candidate_[sc] = true;
 
+		// keep its last placement if still free, sparing the search for another
+		if (incremental_ && (relocations_[sc] & sticky_[sc]) != 0)
+			relocations_[sc] = sticky_[sc];
+
 		for (int a=0; a<NUM_ROW_ALIGNMENTS; a++) {
 			conflictsCount_[a] = 0;
 		}
@@ -2585,62 +2621,14 @@ public class TrellisDeconfliction implements Alignments {
 			relocations_[conflicts_[si][i]] -= conflictAlignments_[si][i];
 	}
 
-	private void resolveConflictsBottomRow() {
-		for (int i=0; i<trellisSizeX_; i++) {
-			for (int j=0; j<trellisSizeY_; j++) {
-				while (trellisCount_[i][j] > 0) {
-					findAndProcessTopCandidateBottomRow(i, j);
-				}
-			}
-		}
-	}
-
-	private void findAndProcessTopCandidate(int x, int y) {
-		// Get the highest value in this trellis cell
-		int candidate = -1;
-		double priority = Double.MAX_VALUE;
-		int sc, sc2;
-		for (int k=0; k<trellisCount_[x][y]; k++) {
-			sc = trellis_[x][y][k];
-			if (relocations_[sc] != 0 && !candidate_[sc] && nodep_[sc] < priority) {
-				priority = nodep_[sc];
-				candidate = k;
-			}
-		}
-
-		if (candidate == -1) {
-			trellisCount_[x][y] = 0;
-			return;
-		}
-
-		sc = trellis_[x][y][candidate];
-
-		// Search for candidates that are in the neighborhood that have higher weighting.
-		// If we find one, then process that one instead.
-		for (int i=-2; i<=2; i++) {
-			for (int j=-2; j<=2; j++) {
-				if ((i==0 && j==0)
-						|| x+i<0 || x+i>=trellisSizeX_
-						|| y+j<0 || y+j>=trellisSizeY_)
-					continue;
-
-				int xi = x+i, yj = y+j;
-				for (int k=0; k<trellisCount_[xi][yj]; k++) {
-					sc2 = trellis_[xi][yj][k];
-					if (relocations_[sc2] != 0 && !candidate_[sc2] && nodep_[sc2] < priority) {
-						// Found a better candidate
-						findAndProcessTopCandidate(xi, yj);
-						if (relocations_[sc] == 0)
-							return;
-						k--;  // else redo
-					}
-				}
-			}
-		}
-
+	private void processCandidate(int x, int y, int sc) {
 		// This is the top dog
 		candidate_[sc] = true;
 
+		// keep its last placement if still free, sparing the search for another
+		if (incremental_ && (relocations_[sc] & sticky_[sc]) != 0)
+			relocations_[sc] = sticky_[sc];
+
 		for (int a=0; a<NUM_ALIGNMENTS; a++) {
 			conflictsCount_[a] = 0;
 		}
@@ -2682,14 +2670,101 @@ public class TrellisDeconfliction implements Alignments {
 			relocations_[conflicts_[si][i]] -= conflictAlignments_[si][i];
 	}
 
+	/**
+	 * Resolves the unsettled nodes of the trellis, always taking the top dog of those that 
+	 * remain next. The queue holds only the best of each cell, since nodes only ever lose 
+	 * ground, and processing a node affects only those no more than two cells away.
+	 */
 	private void resolveConflicts() {
-		for (int i=0; i<trellisSizeX_; i++) {
-			for (int j=0; j<trellisSizeY_; j++) {
-				while (trellisCount_[i][j] > 0) {
-					findAndProcessTopCandidate(i, j);
-				}
+		final boolean single = isSingleAlignment();
+		final boolean bottomRow = !single && isBottomRow();
+		int x, y, sc;
+
+		queueSize_ = 0;
+		for (x=0; x<trellisSizeX_; x++) {
+			for (y=0; y<trellisSizeY_; y++) {
+				sc = findTopCandidate(x, y, single);
+				if (sc != -1)
+					offerCandidate(sc);
+			}
+		}
+
+		while (queueSize_ > 0) {
+			sc = pollCandidate();
+			x = getTrellisX(sc);
+			y = getTrellisY(sc);
+
+			// may have been occluded since it was queued
+			if (relocations_[sc] != 0) {
+				if (single)
+					processCandidateSingle(x, y, sc);
+				else if (bottomRow)
+					processCandidateBottomRow(x, y, sc);
+				else
+					processCandidate(x, y, sc);
+			}
+
+			// next in line from the same cell
+			sc = findTopCandidate(x, y, single);
+			if (sc != -1)
+				offerCandidate(sc);
+		}
+	}
+
+	private int findTopCandidate(int x, int y, boolean single) {
+		int candidate = -1;
+		int sc;
+		for (int k=0; k<trellisCount_[x][y]; k++) {
+			sc = trellis_[x][y][k];
+			if (relocations_[sc] != 0 && (single || !candidate_[sc]) && (candidate == -1 || isBefore(sc, candidate))) {
+				candidate = sc;
 			}
 		}
+		return candidate;
+	}
+
+	/*
+	 * A binary heap of node indices, top dog first.
+	 */
+	private boolean isBefore(int sc, int sc2) {
+		return nodep_[sc] < nodep_[sc2] || (nodep_[sc] == nodep_[sc2] && sc < sc2);
+	}
+
+	private void offerCandidate(int sc) {
+		if (queue_.length == queueSize_) {
+			int[] newQueue = new int[Math.max(MIN_COUNT_BUFFER_INCR, 2 * queueSize_)];
+			System.arraycopy(queue_, 0, newQueue, 0, queueSize_);
+			queue_ = newQueue;
+		}
+
+		int i = queueSize_++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (!isBefore(sc, queue_[parent]))
+				break;
+			queue_[i] = queue_[parent];
+			i = parent;
+		}
+		queue_[i] = sc;
+	}
+
+	private int pollCandidate() {
+		int top = queue_[0];
+		int sc = queue_[--queueSize_];
+
+		int i = 0;
+		int child;
+		while ((child = 2*i + 1) < queueSize_) {
+			if (child + 1 < queueSize_ && isBefore(queue_[child + 1], queue_[child]))
+				child++;
+			if (!isBefore(queue_[child], sc))
+				break;
+			queue_[i] = queue_[child];
+			i = child;
+		}
+		queue_[i] = sc;
+
+		return top;
 	}
 
-}
\ No newline at end of file
+}
@@ -27,6 +27,7 @@ package oculus.aperture.layout.tag;
 import java.util.Collections;
 import java.util.List;
 
+import oculus.aperture.common.EmptyProperties;
 import oculus.aperture.layout.LayoutGraph;
 import oculus.aperture.layout.LayoutGraphFactory;
 import oculus.aperture.layout.impl.BasicTagLayoutOptions;
@@ -34,19 +35,39 @@ import oculus.aperture.spi.common.Properties;
 import oculus.aperture.spi.layout.options.LayoutOptions;
 import oculus.aperture.spi.layout.options.TagLayoutOptions;
 
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
 /**
  * @author djonker
  *
  */
+@Singleton
 public class TrellisDeconflictionFactory implements LayoutGraphFactory {
 
 	private final List<String> layouts;
+	
+	// engines are reused between requests, since their buffers are costly to allocate
+	private TrellisDeconflictionPool pool;
+	
+	@Inject(optional=true)
+	public void setConfig(@Named("aperture.server.config") Properties config) {
+		pool = createPool(config);
+	}
 
 	/**
 	 * 
 	 */
 	public TrellisDeconflictionFactory() {
 		layouts = Collections.singletonList(TagLayoutOptions.TAG);
+		pool = createPool(EmptyProperties.EMPTY_PROPERTIES);
+	}
+	
+	private static TrellisDeconflictionPool createPool(Properties config) {
+		return new TrellisDeconflictionPool(
+				config.getInteger("aperture.layout.tag.pool.size", 8),
+				config.getInteger("aperture.layout.tag.sessions", 32));
 	}
 
 	/* (non-Javadoc)
@@ -62,7 +83,7 @@ public class TrellisDeconflictionFactory implements LayoutGraphFactory {
 	 */
 	@Override
 	public LayoutGraph getGraph(String availableLayout) {
-		return new TrellisDeconflictionService();
+		return new TrellisDeconflictionService(pool);
 	}
 
 	/* (non-Javadoc)
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.tag;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import oculus.aperture.spi.layout.options.TagLayoutOptions;
+
+/**
+ * A bounded, thread safe pool of deconfliction engines, keyed by the dimensions of their 
+ * trellis. An engine keeps its trellis, candidate and result buffers between uses, so 
+ * borrowing one which last worked on a view of the same size avoids reallocating them.
+ * 
+ * When full, engines for the least recently used dimensions are dropped first.
+ * 
+ * Engines used with a layout token are instead held for the next layout in that session, 
+ * which keeps the tags that are still free where they were. The least recently used 
+ * sessions are ended first.
+ */
+public class TrellisDeconflictionPool {
+
+	private final int capacity;
+	private final int sessionCapacity;
+	
+	// idle engines by trellis key, in order of use
+	private final Map<Long, LinkedList<TrellisDeconfliction>> idle = 
+		new LinkedHashMap<Long, LinkedList<TrellisDeconfliction>>(16, 0.75f, true);
+	private int idleCount = 0;
+	
+	// engines holding the last placements of each session, by layout token, in order of use
+	private final Map<String, TrellisDeconfliction> sessions = 
+		new LinkedHashMap<String, TrellisDeconfliction>(16, 0.75f, true);
+	
+	/**
+	 * Constructs a pool which holds at most the given number of idle engines, and no 
+	 * sessions. A pool with no capacity creates a new engine for every use.
+	 */
+	public TrellisDeconflictionPool(int capacity) {
+		this(capacity, 0);
+	}
+	
+	/**
+	 * Constructs a pool which holds at most the given number of idle engines, and of 
+	 * engines held for sessions.
+	 */
+	public TrellisDeconflictionPool(int capacity, int sessionCapacity) {
+		this.capacity = capacity;
+		this.sessionCapacity = sessionCapacity;
+	}
+	
+	/**
+	 * Returns an engine for exclusive use with the given options, which must be released 
+	 * once its results have been read.
+	 */
+	public synchronized TrellisDeconfliction borrow(TagLayoutOptions options) {
+		final String token = options.getLayoutToken();
+		
+		if (token != null) {
+			final TrellisDeconfliction engine = sessions.remove(token);
+			if (engine != null) {
+				return engine;
+			}
+		}
+		
+		final Long key = TrellisDeconfliction.getTrellisKey(options);
+		final LinkedList<TrellisDeconfliction> engines = idle.get(key);
+		
+		if (engines != null) {
+			final TrellisDeconfliction engine = engines.removeFirst();
+			if (engines.isEmpty()) {
+				idle.remove(key);
+			}
+			idleCount--;
+			
+			return engine;
+		}
+		
+		return new TrellisDeconfliction();
+	}
+	
+	/**
+	 * Returns an engine to the pool for reuse. The engine must not be used after this.
+	 */
+	public synchronized void release(TrellisDeconfliction engine) {
+		final String token = engine.getLayoutToken();
+		
+		if (token != null && sessionCapacity > 0) {
+			
+			// the latest layout of a session replaces any other
+			TrellisDeconfliction ended = sessions.put(token, engine);
+			
+			if (ended == null) {
+				if (sessions.size() <= sessionCapacity) {
+					return;
+				}
+				
+				final Iterator<TrellisDeconfliction> eldest = sessions.values().iterator();
+				ended = eldest.next();
+				eldest.remove();
+			}
+			
+			engine = ended;
+		}
+		engine.endSession();
+		
+		if (capacity <= 0) {
+			return;
+		}
+		
+		// make room by dropping engines for the least recently used dimensions
+		while (idleCount >= capacity) {
+			final Iterator<LinkedList<TrellisDeconfliction>> eldest = idle.values().iterator();
+			final LinkedList<TrellisDeconfliction> engines = eldest.next();
+			
+			engines.removeLast();
+			if (engines.isEmpty()) {
+				eldest.remove();
+			}
+			idleCount--;
+		}
+		
+		final Long key = engine.getTrellisKey();
+		LinkedList<TrellisDeconfliction> engines = idle.get(key);
+		
+		if (engines == null) {
+			idle.put(key, engines = new LinkedList<TrellisDeconfliction>());
+		}
+		engines.addFirst(engine);
+		idleCount++;
+	}
+	
+	/**
+	 * Returns the number of idle engines held.
+	 */
+	public synchronized int getIdleCount() {
+		return idleCount;
+	}
+	
+	/**
+	 * Returns the number of sessions held.
+	 */
+	public synchronized int getSessionCount() {
+		return sessions.size();
+	}
+}
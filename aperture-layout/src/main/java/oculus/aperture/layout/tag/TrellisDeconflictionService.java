@@ -31,6 +31,7 @@ import oculus.aperture.layout.impl.BasicTagResult;
 import oculus.aperture.spi.common.Extents;
 import oculus.aperture.spi.common.Link;
 import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.LayoutStatistics;
 import oculus.aperture.spi.layout.options.LayoutOptions;
 import oculus.aperture.spi.layout.options.TagLayoutOptions;
 
@@ -41,14 +42,21 @@ import oculus.aperture.spi.layout.options.TagLayoutOptions;
  */
 public class TrellisDeconflictionService implements LayoutGraph {
 
-	private TrellisDeconfliction deconfliction;
+	private final TrellisDeconflictionPool pool;
 	private Collection<? extends Node> nodes;
 	
 	/**
-	 * Default service constructor.
+	 * Default service constructor, which uses a new engine for each layout.
 	 */
 	public TrellisDeconflictionService() {
-		deconfliction = new TrellisDeconfliction();
+		this(new TrellisDeconflictionPool(0));
+	}
+	
+	/**
+	 * Constructs a service which borrows an engine from the pool for each layout.
+	 */
+	public TrellisDeconflictionService(TrellisDeconflictionPool pool) {
+		this.pool = pool;
 	}
 
 	
@@ -68,38 +76,51 @@ public class TrellisDeconflictionService implements LayoutGraph {
 	public Extents layout(LayoutOptions options) {
 		TagLayoutOptions ex = (TagLayoutOptions) options;
 		
-		final int pos[] = deconfliction.deconflict(ex, nodes, null);
-		int defpos = ex.getPreferredAlignment();
-		
-		// validate this.
-		switch (defpos) {
-		case TagLayoutOptions.ALIGN_BOTTOM_LEFT:
-		case TagLayoutOptions.ALIGN_BOTTOM_CENTER:
-		case TagLayoutOptions.ALIGN_BOTTOM_RIGHT:
-		case TagLayoutOptions.ALIGN_TOP_LEFT:
-		case TagLayoutOptions.ALIGN_TOP_CENTER:
-		case TagLayoutOptions.ALIGN_TOP_RIGHT:
-		case TagLayoutOptions.ALIGN_MIDDLE_RIGHT:
-		case TagLayoutOptions.ALIGN_MIDDLE_LEFT:
-			break;
+		// the results are held by the engine, so it is only released once they are read
+		final TrellisDeconfliction deconfliction = pool.borrow(ex);
+		try {
+			final int pos[] = deconfliction.deconflict(ex, nodes, null);
+			int defpos = ex.getPreferredAlignment();
 			
-		default:
-			defpos = 0;
-		}
-		
-		int i=0;
-		for (Node node : nodes) {
-			final boolean visible = pos[i] != 0;
-			final BasicTagResult decon = new BasicTagResult(
-					visible? pos[i] : defpos!=0? defpos : deconfliction.getPreferredAlignment(i), 
-					visible, node.getWidth(), node.getHeight());
+			// validate this.
+			switch (defpos) {
+			case TagLayoutOptions.ALIGN_BOTTOM_LEFT:
+			case TagLayoutOptions.ALIGN_BOTTOM_CENTER:
+			case TagLayoutOptions.ALIGN_BOTTOM_RIGHT:
+			case TagLayoutOptions.ALIGN_TOP_LEFT:
+			case TagLayoutOptions.ALIGN_TOP_CENTER:
+			case TagLayoutOptions.ALIGN_TOP_RIGHT:
+			case TagLayoutOptions.ALIGN_MIDDLE_RIGHT:
+			case TagLayoutOptions.ALIGN_MIDDLE_LEFT:
+				break;
+				
+			default:
+				defpos = 0;
+			}
 			
-			node.setTag(decon);
-			i++;
+			int i=0;
+			for (Node node : nodes) {
+				final boolean visible = pos[i] != 0;
+				final BasicTagResult decon = new BasicTagResult(
+						visible? pos[i] : defpos!=0? defpos : deconfliction.getPreferredAlignment(i), 
+						visible, node.getWidth(), node.getHeight());
+				
+				node.setTag(decon);
+				i++;
+			}
+		} finally {
+			pool.release(deconfliction);
 		}
 		
 		return ex.getPageExtents();
 	}
 
+	/* (non-Javadoc)
+	 * @see oculus.aperture.layout.LayoutGraph#getStatistics()
+	 */
+	@Override
+	public LayoutStatistics getStatistics() {
+		return null;
+	}
 	
 }
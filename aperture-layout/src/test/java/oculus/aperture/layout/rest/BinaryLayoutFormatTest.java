@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.rest;
+
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.MAX_COUNT;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.encodeTag;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readDouble;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readFloats;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readIndices;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readMagic;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readSignedVarint;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readString;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readVarLong;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.readVarint;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeFloats;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeMagic;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeSignedVarint;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeString;
+import static oculus.aperture.layout.rest.BinaryLayoutFormat.writeVarint;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import oculus.aperture.common.BasicExtents;
+import oculus.aperture.common.BasicLink;
+import oculus.aperture.common.BasicNode;
+import oculus.aperture.layout.impl.BasicLayoutResults;
+import oculus.aperture.layout.impl.BasicLayoutStatistics;
+import oculus.aperture.layout.impl.BasicTagResult;
+import oculus.aperture.spi.common.Alignments.AnchorX;
+import oculus.aperture.spi.common.Alignments.AnchorY;
+import oculus.aperture.spi.common.Link;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.options.TagLayoutOptions;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+/**
+ * Checks the binary graph encoding, and that requests and results read back as written.
+ */
+public class BinaryLayoutFormatTest {
+
+	private static final String OPTIONS = "{\"extents\":{\"width\":800,\"height\":600},\"layout\":[{\"type\":\"organic\"}]}";
+	
+	private static byte[] bytes(int... values) {
+		final byte[] bytes = new byte[values.length];
+		
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte)values[i];
+		}
+		return bytes;
+	}
+	
+	private static DataInputStream input(byte[] bytes) {
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+	
+	@Test
+	public void testEncoding() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeVarint(out, 300);
+		assertArrayEquals(bytes(0xAC, 0x02), out.toByteArray());
+		assertEquals(300, readVarint(input(out.toByteArray())));
+		
+		out = new ByteArrayOutputStream();
+		writeVarint(out, -1);
+		assertArrayEquals(bytes(0xFF, 0xFF, 0xFF, 0xFF, 0x0F), out.toByteArray());
+		assertEquals(-1, readVarint(input(out.toByteArray())));
+		
+		out = new ByteArrayOutputStream();
+		writeSignedVarint(out, -1);
+		writeSignedVarint(out, 1);
+		writeSignedVarint(out, Integer.MIN_VALUE);
+		final DataInputStream in = input(out.toByteArray());
+		assertEquals(1, out.toByteArray()[0]);
+		assertEquals(2, out.toByteArray()[1]);
+		assertEquals(-1, readSignedVarint(in));
+		assertEquals(1, readSignedVarint(in));
+		assertEquals(Integer.MIN_VALUE, readSignedVarint(in));
+		
+		out = new ByteArrayOutputStream();
+		writeFloats(out, new float[] {1f, -2.5f});
+		assertArrayEquals(bytes(0x00, 0x00, 0x80, 0x3F, 0x00, 0x00, 0x20, 0xC0), out.toByteArray());
+		assertArrayEquals(new float[] {1f, -2.5f}, readFloats(input(out.toByteArray()), 2), 0f);
+		
+		out = new ByteArrayOutputStream();
+		writeString(out, "caf\u00e9");
+		assertEquals(6, out.size());
+		assertEquals("caf\u00e9", readString(input(out.toByteArray())));
+	}
+	
+	@Test
+	public void testReadRequest() throws IOException, JSONException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		writeMagic(out);
+		
+		writeVarint(out, 3);
+		writeString(out, "a");
+		writeString(out, "b");
+		writeString(out, "");
+		
+		writeString(out, OPTIONS);
+		
+		// nodes
+		writeVarint(out, 2);
+		writeVarint(out, 0);
+		writeVarint(out, 1);
+		writeFloats(out, new float[] {1.5f, -20f});
+		writeFloats(out, new float[] {3f, 40f});
+		writeFloats(out, new float[] {10f, 12f});
+		writeFloats(out, new float[] {8f, 6f});
+		writeFloats(out, new float[] {1f, 2f});
+		out.write(0);
+		out.write(encodeTag(new BasicTagResult(TagLayoutOptions.ALIGN_TOP_RIGHT, false, 10, 10)));
+		
+		// links
+		writeVarint(out, 1);
+		writeVarint(out, 2);
+		writeVarint(out, 1);
+		writeVarint(out, 0);
+		
+		final LayoutRequest request = BinaryLayoutReader.read(new ByteArrayInputStream(out.toByteArray()));
+		final List<Node> nodes = request.getNodes();
+		
+		assertEquals(2, nodes.size());
+		assertEquals("a", nodes.get(0).getId());
+		assertEquals(1.5, nodes.get(0).getX(), 0);
+		assertEquals(3, nodes.get(0).getY(), 0);
+		assertEquals(10, nodes.get(0).getWidth());
+		assertEquals(8, nodes.get(0).getHeight());
+		assertNull(nodes.get(0).getTag());
+		
+		assertEquals("b", nodes.get(1).getId());
+		assertEquals(-20, nodes.get(1).getX(), 0);
+		assertEquals(40, nodes.get(1).getY(), 0);
+		assertEquals(2, nodes.get(1).getWeight(), 0);
+		assertEquals(false, nodes.get(1).getTag().isVisible());
+		assertEquals(AnchorX.right, nodes.get(1).getTag().getAnchorX());
+		assertEquals(AnchorY.top, nodes.get(1).getTag().getAnchorY());
+		
+		assertEquals(1, request.getLinks().size());
+		assertEquals("", request.getLinks().get(0).getId());
+		assertEquals("b", request.getLinks().get(0).getSourceId());
+		assertEquals("a", request.getLinks().get(0).getTargetId());
+		
+		assertEquals(800, request.getExtents().getInteger("width", 0).intValue());
+		assertEquals("organic", request.getLayouts().get(0).getString("type", null));
+	}
+	
+	@Test(expected = EOFException.class)
+	public void testShortRequest() throws IOException, JSONException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		writeMagic(out);
+		writeVarint(out, 0);
+		writeString(out, OPTIONS);
+		
+		// claims the most nodes allowed, but has none
+		writeVarint(out, MAX_COUNT - 1);
+		
+		BinaryLayoutReader.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+	
+	@Test
+	public void testWriteResults() throws IOException {
+		final BasicNode a = new BasicNode("a", 0, 0, 10, 8);
+		a.setX(-5);
+		a.setY(7.5);
+		a.setWeight(3);
+		a.setNumMembers(4);
+		a.setTag(new BasicTagResult(TagLayoutOptions.ALIGN_BOTTOM_LEFT, true, 10, 8));
+		
+		final BasicNode b = new BasicNode("b", 0, 0, 6, 6);
+		b.setX(100);
+		b.setY(200);
+		b.setWeight(1);
+		
+		final BasicLink ab = new BasicLink(null, "a", "b");
+		ab.setWeight(0.5);
+		ab.setNumMembers(2);
+		
+		final List<Node> nodes = Arrays.<Node>asList(a, b);
+		final List<Link> links = Arrays.<Link>asList(ab, new BasicLink("ax", "a", "x"), new BasicLink("ba", "b", "a"));
+		
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BinaryLayoutRepresentation(new BasicLayoutResults(nodes, links, new BasicExtents(-10, 20, 300, 400), 
+				new BasicLayoutStatistics(12, 1.5, 0.25, 3))).write(out);
+		
+		final DataInputStream in = input(out.toByteArray());
+		
+		readMagic(in);
+		
+		final List<String> strings = new ArrayList<String>();
+		for (int i = readVarint(in); i > 0; i--) {
+			strings.add(readString(in));
+		}
+		assertEquals(Arrays.asList("a", "b", "", "ba"), strings);
+		
+		// nodes
+		assertEquals(2, readVarint(in));
+		assertArrayEquals(new int[] {0, 1}, readIndices(in, 2, strings.size()));
+		assertArrayEquals(new float[] {-5f, 100f}, readFloats(in, 2), 0f);
+		assertArrayEquals(new float[] {7.5f, 200f}, readFloats(in, 2), 0f);
+		assertArrayEquals(new float[] {10f, 6f}, readFloats(in, 2), 0f);
+		assertArrayEquals(new float[] {8f, 6f}, readFloats(in, 2), 0f);
+		assertArrayEquals(new float[] {3f, 1f}, readFloats(in, 2), 0f);
+		assertEquals(4, readVarLong(in));
+		assertEquals(1, readVarLong(in));
+		assertEquals(encodeTag(a.getTag()), in.read());
+		assertEquals(0, in.read());
+		assertEquals(5, readSignedVarint(in));
+		assertEquals(-4, readSignedVarint(in));
+		
+		// links, less the one to a missing node
+		assertEquals(2, readVarint(in));
+		assertArrayEquals(new int[] {2, 3}, readIndices(in, 2, strings.size()));
+		assertArrayEquals(new int[] {0, 1}, readIndices(in, 2, 2));
+		assertArrayEquals(new int[] {1, 0}, readIndices(in, 2, 2));
+		assertArrayEquals(new float[] {0.5f, 0f}, readFloats(in, 2), 0f);
+		assertEquals(2, readVarLong(in));
+		assertEquals(0, readVarLong(in));
+		
+		// extents
+		assertEquals(1, in.read());
+		assertEquals(-10, readSignedVarint(in));
+		assertEquals(20, readSignedVarint(in));
+		assertEquals(300, readSignedVarint(in));
+		assertEquals(400, readSignedVarint(in));
+		
+		// statistics
+		assertEquals(1, in.read());
+		assertEquals(12, readVarint(in));
+		assertEquals(1.5, readDouble(in), 0);
+		assertEquals(0.25, readDouble(in), 0);
+		assertEquals(3, readVarLong(in));
+		
+		assertEquals(-1, in.read());
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2013-2014 Oculus Info Inc.
+ * http://www.oculusinfo.com/
+ *
+ * Released under the MIT License.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oculus.aperture.layout.tag;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import oculus.aperture.common.BasicNode;
+import oculus.aperture.common.JSONProperties;
+import oculus.aperture.layout.impl.BasicTagLayoutOptions;
+import oculus.aperture.spi.common.Node;
+import oculus.aperture.spi.layout.options.TagLayoutOptions;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+/**
+ * Checks that tag conflicts are resolved top dog first, without recursion, however 
+ * dense the trellis.
+ */
+public class TrellisDeconflictionTest {
+
+	private static final int WIDTH = 1600;
+	private static final int HEIGHT = 1200;
+	
+	private static final String[] ALIGNMENTS = {
+		"any", "topAny", "bottomAny", "middleRight", "bottomCenter"
+	};
+	
+	private static List<Node> createNodes(int count, long seed) {
+		final Random random = new Random(seed);
+		final List<Node> nodes = new ArrayList<Node>(count);
+		
+		for (int i = 0; i < count; i++) {
+			final BasicNode node = new BasicNode("n" + i, random.nextInt(WIDTH - 1), random.nextInt(HEIGHT - 1), 10, 10);
+			
+			// few distinct weights, so that ties are broken by index
+			node.setWeight(random.nextInt(50));
+			nodes.add(node);
+		}
+		
+		return nodes;
+	}
+	
+	private static TagLayoutOptions createOptions(String alignments) throws JSONException {
+		return new BasicTagLayoutOptions("tag", 
+				new JSONProperties("{\"width\":" + WIDTH + ",\"height\":" + HEIGHT + ",\"zoom\":4}"), 
+				new JSONProperties("{\"alignments\":\"" + alignments + "\"}"));
+	}
+	
+	private static int[] deconflict(TrellisDeconfliction deconfliction, TagLayoutOptions options, List<Node> nodes) {
+		return deconfliction.deconflict(options, nodes, null).clone();
+	}
+	
+	@Test
+	public void testRepeatable() throws JSONException {
+		final TrellisDeconfliction deconfliction = new TrellisDeconfliction();
+		
+		for (int count : new int[] {2000, 20000}) {
+			final List<Node> nodes = createNodes(count, count);
+			
+			for (String alignments : ALIGNMENTS) {
+				final TagLayoutOptions options = createOptions(alignments);
+				final int[] first = deconflict(deconfliction, options, nodes);
+				final int[] second = deconflict(new TrellisDeconfliction(), options, nodes);
+				
+				assertArrayEquals(alignments + " with " + count + " nodes", first, second);
+			}
+		}
+	}
+	
+	@Test
+	public void testTopDogPlaced() throws JSONException {
+		final List<Node> nodes = createNodes(20000, 2);
+		
+		// heavier than all the rest, so first in line wherever it is
+		((BasicNode)nodes.get(nodes.size() / 2)).setWeight(1000);
+		
+		for (String alignments : ALIGNMENTS) {
+			final int[] result = deconflict(new TrellisDeconfliction(), createOptions(alignments), nodes);
+			
+			assertTrue(alignments, result[nodes.size() / 2] != 0);
+		}
+	}
+	
+	@Test
+	public void testLongChain() throws JSONException {
+		
+		// one node to a cell along a winding path of rising priority across the whole trellis, 
+		// its runs too far apart to see one another, which recursed once for each cell in turn
+		final List<Node> nodes = new ArrayList<Node>();
+		final int cellsX = 64, cellsY = 320;
+		final float cellWidth = WIDTH / (float)cellsX, cellHeight = HEIGHT / (float)cellsY;
+		
+		for (int y = 0; y + 3 < cellsY; y += 3) {
+			final boolean forward = (y / 3) % 2 == 0;
+			
+			for (int x = 0; x < cellsX; x++) {
+				addNode(nodes, forward? x : cellsX - 1 - x, y, cellWidth, cellHeight);
+			}
+			for (int dy = 1; dy < 3; dy++) {
+				addNode(nodes, forward? cellsX - 1 : 0, y + dy, cellWidth, cellHeight);
+			}
+		}
+		
+		final int[] result = deconflict(new TrellisDeconfliction(), createOptions("any"), nodes);
+		
+		// nothing overlaps
+		for (int i = 0; i < nodes.size(); i++) {
+			assertTrue(result[i] != 0);
+		}
+	}
+	
+	private static void addNode(List<Node> nodes, int x, int y, float cellWidth, float cellHeight) {
+		final BasicNode node = new BasicNode("n" + nodes.size(), 
+				(int)((x + 0.5f) * cellWidth), (int)((y + 0.25f) * cellHeight), 10, 10);
+		node.setWeight(nodes.size());
+		nodes.add(node);
+	}
+	
+	@Test
+	public void testSomeHidden() throws JSONException {
+		final List<Node> nodes = createNodes(20000, 1);
+		final int[] result = deconflict(new TrellisDeconfliction(), createOptions("any"), nodes);
+		
+		int hidden = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			if (result[i] == 0) {
+				hidden++;
+			}
+		}
+		
+		// else there was nothing to resolve
+		assertTrue(hidden > 0 && hidden < nodes.size());
+	}
+}
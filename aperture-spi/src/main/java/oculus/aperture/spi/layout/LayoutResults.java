@@ -50,4 +50,9 @@ public interface LayoutResults {
 	 * Gets the extents of all the nodes in the layout.
 	 */
 	public Extents getExtents();
+	
+	/**
+	 * Gets measures of the layout, or null if the layout does not provide them.
+	 */
+	public LayoutStatistics getStatistics();
 }
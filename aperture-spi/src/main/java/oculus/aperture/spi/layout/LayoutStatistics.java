@@ -22,44 +22,32 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
-package oculus.aperture.layout.ffd;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import oculus.aperture.spi.common.Node;
+package oculus.aperture.spi.layout;
 
 /**
- * Utilities for working with the quad tree structure
- * 
- * @author msavigny
- *
+ * Measures of the work done by a layout and the quality of its result.
  */
+public interface LayoutStatistics {
+
+	/**
+	 * Returns the number of iterations run.
+	 */
+	public int getIterations();
 
-public class QuadTreeUtils {
+	/**
+	 * Returns the energy left in the layout when it stopped, as the sum of the
+	 * squared forces on the nodes.
+	 */
+	public double getEnergy();
+
+	/**
+	 * Returns the normalised stress of the layout, which is zero where the distances
+	 * between nodes are in proportion to their distances through the graph.
+	 */
+	public double getStress();
 
 	/**
-	 * Currently assumes the objects contained in the tree are LayoutNodes
-	 * TODO : genericize the quadtree
-	 * @param qn
-	 * @return
+	 * Returns an estimate of the number of pairs of links which cross.
 	 */
-	public static List<Node> getContainedNodes(QuadNode qn) {
-		ArrayList<Node> nodes = new ArrayList<Node>(qn.getnChildren()); 
-		getContainedNodesRecurse(qn, nodes);
-		return nodes;
-		
-	}
-	
-	private static void getContainedNodesRecurse(QuadNode qn, List<Node> nodes) {
-		if (qn.getData() != null) {
-			nodes.add((Node)qn.getData().getValue());
-		} else {
-			getContainedNodesRecurse(qn.getNE(),nodes);
-			getContainedNodesRecurse(qn.getNW(),nodes);
-			getContainedNodesRecurse(qn.getSE(),nodes);
-			getContainedNodesRecurse(qn.getSW(),nodes);
-		}
-	}
-	
+	public long getEdgeCrossings();
 }
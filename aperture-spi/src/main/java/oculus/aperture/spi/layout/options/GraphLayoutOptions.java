@@ -58,5 +58,11 @@ public interface GraphLayoutOptions extends LayoutOptions {
 	 */
 	public int getLinkLength();
 	
+	/**
+	 * The seed for any random choices the layout makes, so that the same input and options 
+	 * always produce the same positions, or null if not seeded.
+	 */
+	public Long getSeed();
+	
 
 }
\ No newline at end of file
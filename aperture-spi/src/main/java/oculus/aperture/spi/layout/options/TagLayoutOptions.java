@@ -69,4 +69,11 @@ public interface TagLayoutOptions extends GraphLayoutOptions, Alignments {
 	 * If true, prefers the current alignment over all else, if set.
 	 */
 	public boolean preferCurrentAlignment();
+	
+	/**
+	 * Returns a token identifying a series of layouts of the same nodes, such as the steps
+	 * of a pan or zoom, or null if none. Tags of nodes which have not moved keep their last 
+	 * placement in the series where they still can.
+	 */
+	public String getLayoutToken();
 }